@@ -0,0 +1,95 @@
+package org.diego.tutorial.car.cache;
+
+/**
+ * Class that estimates how often every key has been accessed recently, with a count-min sketch of 
+ * 4-bit counters. It is the admission filter of {@link TinyLfuCache}. <p>
+ * Every key increments one counter in each of four rows, and its frequency is the minimum of them, so
+ * the collisions can only overestimate it. When the number of increments reaches ten times the maximum
+ * size of the cache, every counter is halved, so the old accesses weigh less than the recent ones. <p>
+ * This class is not thread safe.
+ *
+ */
+final class FrequencySketch {
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final int MAX_COUNT = 15;
+
+	/**
+	 * Counters of the sketch. Every long has sixteen 4-bit counters
+	 */
+	private final long[] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int increments;
+
+	/**
+	 * Constructs a new sketch for a cache.
+	 * @param maximumSize Maximum number of entries of the cache
+	 */
+	FrequencySketch(int maximumSize) {
+		int length = Integer.highestOneBit(Math.max(1, maximumSize - 1)) << 1;
+		table = new long[Math.max(4, length / 4)];
+		tableMask = table.length - 1;
+		sampleSize = 10 * Math.max(1, maximumSize);
+	}
+
+	/**
+	 * Method that estimates the number of recent accesses of a key.
+	 * @param key Key accessed
+	 * @return Estimated frequency, between 0 and 15
+	 */
+	int frequency(long key) {
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < SEEDS.length; row++) {
+			long hash = hash(key, row);
+			int index = (int) hash & tableMask;
+			int offset = counterOffset(hash);
+			frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+		}
+		return frequency;
+	}
+
+	/**
+	 * Method that records an access to a key.
+	 * @param key Key accessed
+	 */
+	void increment(long key) {
+		boolean incremented = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			long hash = hash(key, row);
+			int index = (int) hash & tableMask;
+			int offset = counterOffset(hash);
+			if (((table[index] >>> offset) & 0xfL) < MAX_COUNT) {
+				table[index] += 1L << offset;
+				incremented = true;
+			}
+		}
+		if (incremented && ++increments >= sampleSize)
+			reset();
+	}
+
+	/**
+	 * Method that halves every counter, so the frequencies decay over time.
+	 */
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		increments /= 2;
+	}
+
+	/**
+	 * Method that selects one of the sixteen counters of a long, using the bits of the hash
+	 * that were not used to select the long.
+	 */
+	private static int counterOffset(long hash) {
+		return (int) ((hash >>> 32) & 0xfL) << 2;
+	}
+
+	private static long hash(long key, int row) {
+		long hash = (key + SEEDS[row]) * 0x9e3779b97f4a7c15L;
+		hash ^= hash >>> 29;
+		hash *= 0xbf58476d1ce4e5b9L;
+		return hash ^ (hash >>> 32);
+	}
+}
@@ -0,0 +1,98 @@
+package org.diego.tutorial.car.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of primitive long keys, that tells if a key may have been added or has not been added
+ * for sure. It does not keep the keys, only a few bits of each one, so it can hold millions of keys in
+ * a few megabytes. <p>
+ * The keys cannot be removed: a removed key is still reported as possibly added, until the filter is
+ * replaced by a new one. The filter is thread safe, and the reads do not take any lock.
+ *
+ */
+public final class LongBloomFilter {
+	private final AtomicLongArray bits;
+	private final long bitCount;
+	private final int hashCount;
+	private final long expectedInsertions;
+	private final AtomicLong insertions = new AtomicLong();
+
+	/**
+	 * Constructs a new filter.
+	 * @param expectedInsertions Number of keys expected. With more keys, the false positives are more frequent
+	 * @param falsePositiveRate Ratio of keys never added that are reported as possibly added, with the expected keys
+	 */
+	public LongBloomFilter(long expectedInsertions, double falsePositiveRate) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+			throw new IllegalArgumentException("The false positive rate must be between 0 and 1: " + falsePositiveRate);
+		this.expectedInsertions = Math.max(1, expectedInsertions);
+		long optimalBits = (long) Math.ceil(-this.expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+		bits = new AtomicLongArray(words);
+		bitCount = words * 64L;
+		hashCount = Math.max(1, (int) Math.round((double) bitCount / this.expectedInsertions * Math.log(2)));
+	}
+
+	/**
+	 * Method that adds a key to the filter.
+	 * @param key Key added
+	 */
+	public void put(long key) {
+		long hash1 = mix(key);
+		long hash2 = mix(hash1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current = bits.get(word);
+			while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+				current = bits.get(word);
+			}
+		}
+		insertions.incrementAndGet();
+	}
+
+	/**
+	 * Method that checks if a key may have been added to the filter.
+	 * @param key Key checked
+	 * @return False if the key has not been added for sure, true if it may have been added
+	 */
+	public boolean mightContain(long key) {
+		long hash1 = mix(key);
+		long hash2 = mix(hash1) | 1;
+		for (int i = 0; i < hashCount; i++) {
+			long bit = Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Number of keys added, counting every time a key is added
+	 * @return Keys added
+	 */
+	public long getInsertions() {
+		return insertions.get();
+	}
+
+	public long getExpectedInsertions() {
+		return expectedInsertions;
+	}
+
+	/**
+	 * Size of the filter
+	 * @return Number of bits of the filter
+	 */
+	public long getBitCount() {
+		return bitCount;
+	}
+
+	private static long mix(long key) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		hash ^= hash >>> 32;
+		hash *= 0xd6e8feb86659fd93L;
+		return hash ^ (hash >>> 32);
+	}
+}
@@ -0,0 +1,372 @@
+package org.diego.tutorial.car.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache with primitive long keys, so the keys are never boxed, and a W-TinyLFU eviction policy,
+ * that keeps the entries that are accessed often even when many other keys are read once (a scan). <p>
+ * The entries are kept in three LRU queues:
+ * <ul>
+ * <li>window: 1% of the entries, where every new entry is added.</li>
+ * <li>probation: the entries that left the window, or were demoted from the protected queue.</li>
+ * <li>protected: 80% of the rest, with the entries accessed again while they were in probation.</li>
+ * </ul>
+ * When the cache is full, the entry that leaves the window only stays in the cache if it has been accessed
+ * more often (according to a {@link FrequencySketch}) than the least recently used entry of probation, which
+ * is evicted instead. <p>
+ * The entries expire a fixed time after they are written. Every operation takes a lock, as the reads
+ * also reorder the queues, but it is held only for a few memory accesses.
+ *
+ * @param <V> Class of the values
+ */
+public final class TinyLfuCache<V> {
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private final int maximumSize;
+	private final int maximumWindowSize;
+	private final int maximumProtectedSize;
+	private final long expireAfterWriteNanos;
+
+	/**
+	 * Hash table with open addressing, whose slots point to the nodes of the entries
+	 */
+	private Node<V>[] table;
+	private final int tableMask;
+	private final FrequencySketch sketch;
+	private final Queue<V>[] queues;
+	private int size;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Constructs a new cache.
+	 * @param maximumSize Maximum number of entries
+	 * @param expireAfterWriteMillis Time after which an entry expires since it was written, in milliseconds
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TinyLfuCache(int maximumSize, long expireAfterWriteMillis) {
+		if (maximumSize <= 0)
+			throw new IllegalArgumentException("The maximum size of the cache must be positive: " + maximumSize);
+		this.maximumSize = maximumSize;
+		this.maximumWindowSize = Math.max(1, maximumSize / 100);
+		this.maximumProtectedSize = (int) ((maximumSize - maximumWindowSize) * 0.8);
+		this.expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMillis);
+
+		// The table is never more than half full, so the probes are short
+		int capacity = Integer.highestOneBit(Math.max(2, maximumSize) - 1) << 2;
+		table = new Node[capacity];
+		tableMask = capacity - 1;
+		sketch = new FrequencySketch(maximumSize);
+		queues = new Queue[] { new Queue<V>(), new Queue<V>(), new Queue<V>() };
+	}
+
+	/**
+	 * Method that gets the value of a key, recording the access.
+	 * @param key Key of the entry
+	 * @return Value of the key, or null if it is not in the cache or it has expired
+	 */
+	public V get(long key) {
+		lock.lock();
+		try {
+			sketch.increment(key);
+			Node<V> node = find(key);
+			if (node != null && isExpired(node)) {
+				remove(node);
+				node = null;
+			}
+			if (node == null) {
+				missCount++;
+				return null;
+			}
+			hitCount++;
+			onAccess(node);
+			return node.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Method that adds or replaces the value of a key. If the cache is full, an entry is evicted.
+	 * @param key Key of the entry
+	 * @param value Value of the key
+	 */
+	public void put(long key, V value) {
+		lock.lock();
+		try {
+			Node<V> node = find(key);
+			if (node != null) {
+				node.value = value;
+				node.writeTime = System.nanoTime();
+				onAccess(node);
+				return;
+			}
+
+			node = new Node<V>(key, value, System.nanoTime());
+			insert(node);
+			queues[WINDOW].addLast(node);
+			size++;
+			evict();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Method that removes the entry of a key, if it is in the cache.
+	 * @param key Key of the entry
+	 */
+	public void invalidate(long key) {
+		lock.lock();
+		try {
+			Node<V> node = find(key);
+			if (node != null)
+				remove(node);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Method that removes every entry of the cache. The frequencies of the keys are kept.
+	 */
+	public void invalidateAll() {
+		lock.lock();
+		try {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = null;
+			}
+			for (Queue<V> queue : queues) {
+				queue.head = null;
+				queue.tail = null;
+				queue.size = 0;
+			}
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public long getHitCount() {
+		lock.lock();
+		try {
+			return hitCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getMissCount() {
+		lock.lock();
+		try {
+			return missCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getEvictionCount() {
+		lock.lock();
+		try {
+			return evictionCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Method that moves an entry accessed to its place in the queues: to the end of its queue, or
+	 * from probation to protected. If the protected queue overflows, its oldest entry is moved to probation.
+	 */
+	private void onAccess(Node<V> node) {
+		if (node.queue != PROBATION) {
+			queues[node.queue].moveToLast(node);
+			return;
+		}
+		queues[PROBATION].remove(node);
+		node.queue = PROTECTED;
+		queues[PROTECTED].addLast(node);
+		if (queues[PROTECTED].size > maximumProtectedSize) {
+			Node<V> demoted = queues[PROTECTED].removeFirst();
+			demoted.queue = PROBATION;
+			queues[PROBATION].addLast(demoted);
+		}
+	}
+
+	/**
+	 * Method that moves the oldest entries of the window to probation and, while the cache is over
+	 * its maximum size, evicts either the entry that left the window (candidate) or the least
+	 * recently used entry of probation (victim), whichever has been accessed less often.
+	 */
+	private void evict() {
+		Node<V> candidate = null;
+		while (queues[WINDOW].size > maximumWindowSize) {
+			candidate = queues[WINDOW].removeFirst();
+			candidate.queue = PROBATION;
+			queues[PROBATION].addLast(candidate);
+		}
+
+		while (size > maximumSize) {
+			if (queues[PROBATION].size == 0) {
+				Node<V> demoted = queues[PROTECTED].removeFirst();
+				demoted.queue = PROBATION;
+				queues[PROBATION].addLast(demoted);
+			}
+			Node<V> victim = queues[PROBATION].head;
+			if (candidate == null || candidate == victim || candidate.queue != PROBATION) {
+				evict(victim);
+				continue;
+			}
+			if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+				evict(victim);
+			} else {
+				evict(candidate);
+				candidate = null;
+			}
+		}
+	}
+
+	private void evict(Node<V> node) {
+		remove(node);
+		evictionCount++;
+	}
+
+	private boolean isExpired(Node<V> node) {
+		return System.nanoTime() - node.writeTime >= expireAfterWriteNanos;
+	}
+
+	private void remove(Node<V> node) {
+		queues[node.queue].remove(node);
+		delete(node.key);
+		size--;
+	}
+
+	private Node<V> find(long key) {
+		for (int slot = slot(key); ; slot = (slot + 1) & tableMask) {
+			Node<V> node = table[slot];
+			if (node == null || node.key == key)
+				return node;
+		}
+	}
+
+	private void insert(Node<V> node) {
+		int slot = slot(node.key);
+		while (table[slot] != null) {
+			slot = (slot + 1) & tableMask;
+		}
+		table[slot] = node;
+	}
+
+	/**
+	 * Method that deletes a key from the hash table, moving back the following keys of the same
+	 * run of slots, so every key can still be found without tombstones.
+	 */
+	private void delete(long key) {
+		int slot = slot(key);
+		while (table[slot].key != key) {
+			slot = (slot + 1) & tableMask;
+		}
+		table[slot] = null;
+
+		for (int next = (slot + 1) & tableMask; table[next] != null; next = (next + 1) & tableMask) {
+			int home = slot(table[next].key);
+			// The key is moved if its home slot is not between the empty slot and its current slot
+			boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+			if (movable) {
+				table[slot] = table[next];
+				table[next] = null;
+				slot = next;
+			}
+		}
+	}
+
+	private int slot(long key) {
+		long hash = key * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32)) & tableMask;
+	}
+
+	/**
+	 * Entry of the cache, that is also a node of one of the queues
+	 */
+	private static final class Node<V> {
+		final long key;
+		V value;
+		long writeTime;
+		int queue = WINDOW;
+		Node<V> previous;
+		Node<V> next;
+
+		Node(long key, V value, long writeTime) {
+			this.key = key;
+			this.value = value;
+			this.writeTime = writeTime;
+		}
+	}
+
+	/**
+	 * LRU queue of entries, from the least recently used one (head) to the most recently used one (tail)
+	 */
+	private static final class Queue<V> {
+		Node<V> head;
+		Node<V> tail;
+		int size;
+
+		void addLast(Node<V> node) {
+			node.previous = tail;
+			node.next = null;
+			if (tail == null)
+				head = node;
+			else
+				tail.next = node;
+			tail = node;
+			size++;
+		}
+
+		Node<V> removeFirst() {
+			Node<V> node = head;
+			remove(node);
+			return node;
+		}
+
+		void moveToLast(Node<V> node) {
+			if (node != tail) {
+				remove(node);
+				addLast(node);
+			}
+		}
+
+		void remove(Node<V> node) {
+			if (node.previous == null)
+				head = node.next;
+			else
+				node.previous.next = node.next;
+			if (node.next == null)
+				tail = node.previous;
+			else
+				node.next.previous = node.previous;
+			node.previous = null;
+			node.next = null;
+			size--;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package org.diego.tutorial.car.databases;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.PersistenceStatistics;
+
+/**
+ * Interface with the specific car methods to implement by a
+ * database of cars, besides the generic ones of {@link IJPA}. <p>
+ * The implementation used by the application is chosen through the "cars/database" EJB
+ * reference of the web.xml file.
+ *
+ */
+public interface ICarDatabase extends IJPA {
+	/**
+	 * Method that retrieves a car from the primary database, never from a replica that may lag behind it, 
+	 * so the car can be kept in a cache until it is written again.
+	 * @param id Identifier of the car
+	 * @return Car, or null if the car does not exist
+	 */
+	public Car getCarFromPrimary(long id);
+	
+	/**
+	 * Method that retrieves the date of the last update of a car, without loading the car.
+	 * @param id Identifier of the car
+	 * @return Date of the last update of the car, or null if the car does not exist
+	 */
+	public Date getLastUpdated(long id);
+	
+	/**
+	 * Method that retrieves a page of cars, ordered by their identifier.
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars whose identifier is greater than afterId
+	 */
+	public List<Car> getCarsPage(long afterId, int limit);
+	
+	/**
+	 * Method that retrieves a page of cars from a certain country, ordered by their identifier.
+	 * @param country Country searched
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars from the country searched whose identifier is greater than afterId
+	 */
+	public List<Car> getCarsFromCountryPage(String country, long afterId, int limit);
+	
+	/**
+	 * Method that retrieves a page of cars (optionally, only the ones from a certain country), ordered by
+	 * their identifier, with only some of their fields.
+	 * @param fields Fields of the car that should be selected. They must be in {@link Car#FIELDS}
+	 * @param country Country searched, or null to retrieve the cars from every country
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars, each one as a map from the name of the field to its value
+	 */
+	public List<Map<String, Object>> getCarFieldsPage(List<String> fields, String country, long afterId, int limit);
+	
+	/**
+	 * Method that searches a page of cars by their brand, ordered by their identifier. The brand is
+	 * compared without case, and optionally the brands similar to the term are also found (see {@link Trigrams}).
+	 * @param brand Term searched. It must not be empty
+	 * @param fuzzy Whether the brands similar to the term are also found, besides the ones that start with it
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars found whose identifier is greater than afterId
+	 */
+	public List<Car> searchCarsByBrand(String brand, boolean fuzzy, long afterId, int limit);
+	
+	/**
+	 * Method that reads the identifiers of all the cars, including the soft removed ones, handing every 
+	 * identifier to the consumer as soon as it is read. They are read from the primary database, so the 
+	 * cars just added are included.
+	 * @param consumer Consumer that receives every identifier read
+	 * @return Number of identifiers read
+	 */
+	public long streamCarIds(LongConsumer consumer);
+	
+	/**
+	 * Method that updates the brand, country and soft-removed flag of a car, incrementing its version. If the
+	 * car has a version, it is only updated if it has not been modified since that version was read.
+	 * @param car Car with the new values of the fields
+	 * @return Car stored after the update, with its new version, or null if the car does not exist or its version has changed
+	 */
+	public Car updateCar(Car car);
+	
+	/**
+	 * Method that updates a list of cars in a single transaction, as {@link #updateCar(Car)} does with every
+	 * car. A car without brand or country keeps the stored one. The cars that do not exist, or whose version 
+	 * has changed, are skipped.
+	 * @param cars Cars with the new values of the fields
+	 * @return Number of cars updated
+	 */
+	public int updateCars(List<Car> cars);
+	
+	/**
+	 * Method that sets the soft-removed flag of a car, incrementing its version. The date of 
+	 * the removal is only set if the car was not already soft removed. If a version is given, the car 
+	 * is only removed if it has not been modified since that version was read.
+	 * @param id Identifier of the car
+	 * @param version Version of the car that was read, or null to remove it anyway
+	 * @param lastUpdated Date of the removal
+	 * @return Car stored after the removal, with its new version, or null if the car does not exist or its version has changed
+	 */
+	public Car softRemoveCar(long id, Long version, Date lastUpdated);
+	
+	/**
+	 * Method that retrieves the current version of a car, without loading the car.
+	 * @param id Identifier of the car
+	 * @return Version of the car, or null if the car does not exist
+	 */
+	public Long getVersion(long id);
+	
+	/**
+	 * Method that counts the cars of every country.
+	 * @return Number of cars by country, from the country with more cars
+	 */
+	public Map<String, Long> countCarsByCountry();
+	
+	/**
+	 * Method that counts the cars of every brand.
+	 * @return Number of cars by brand, from the brand with more cars
+	 */
+	public Map<String, Long> countCarsByBrand();
+	
+	/**
+	 * Method that counts the soft removed cars.
+	 * @return Number of soft removed cars
+	 */
+	public long countSoftRemovedCars();
+	
+	/**
+	 * Method that counts the cars created on every day since a date.
+	 * @param since Date since which the cars are counted
+	 * @return Number of cars by day of creation, from the oldest day. The days without cars are not included
+	 */
+	public Map<Date, Long> countCarsCreatedByDay(Date since);
+	
+	/**
+	 * Method that retrieves the identifiers of the cars soft removed before a date, from the oldest removal.
+	 * @param removedBefore Date before which the cars were soft removed
+	 * @param limit Maximum number of identifiers to retrieve
+	 * @return Identifiers of soft removed cars
+	 */
+	public List<Long> getSoftRemovedCarIds(Date removedBefore, int limit);
+	
+	/**
+	 * Method that deletes a set of soft removed cars. The cars that are no longer soft 
+	 * removed, or were soft removed again after the date, are not deleted.
+	 * @param ids Identifiers of the cars
+	 * @param removedBefore Date before which the cars were soft removed
+	 * @return Number of cars deleted
+	 */
+	public int deleteSoftRemovedCars(List<Long> ids, Date removedBefore);
+	
+	/**
+	 * Method that gets the statistics of a region of the second-level cache.
+	 * @param region Name of the cache region
+	 * @return Statistics of the region, or null if there is no such cache
+	 */
+	public CacheStatistics getCacheStatistics(String region);
+	
+	/**
+	 * Method that gets the counters kept by the persistence provider.
+	 * @return Statistics of the persistence provider, without the statistics of the operations
+	 */
+	public PersistenceStatistics getPersistenceStatistics();
+}
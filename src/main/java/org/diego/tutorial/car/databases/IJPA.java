@@ -33,6 +33,14 @@ public interface IJPA {
 	 */
 	public <T> T add(T entity);
 	
+	/**
+	 * Method that adds a list of objects to the database, in batches
+	 * @param <T> Class of the objects
+	 * @param entities Objects to add
+	 * @return Added objects
+	 */
+	public <T> List<T> addAll(List<T> entities);
+	
 	/**
 	 * Method that updates an object on the database
 	 * @param <T> Class of the object
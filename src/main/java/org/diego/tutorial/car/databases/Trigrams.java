@@ -0,0 +1,93 @@
+package org.diego.tutorial.car.databases;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Class that compares texts by their trigrams, in the same way as the pg_trgm extension of PostgreSQL,
+ * so the databases without that extension find the same similar texts. <p>
+ * Every word of a text is padded with two spaces before it and one after it, and split in groups of three
+ * consecutive characters. The similarity of two texts is the number of trigrams they share divided by the
+ * number of distinct trigrams of both.
+ *
+ */
+public final class Trigrams {
+	/**
+	 * Minimum similarity of two similar texts. It is the default threshold of the "%" operator of pg_trgm
+	 */
+	public static final double SIMILARITY_THRESHOLD = 0.3;
+
+	private Trigrams() {
+	}
+
+	/**
+	 * Method that normalizes a search term, so it is compared without surrounding spaces and in lower case.
+	 * @param term Term searched
+	 * @return Normalized term
+	 */
+	public static String normalize(String term) {
+		return term.trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Method that escapes the wildcards of a term, so it can be used as the prefix of a LIKE pattern
+	 * whose escape character is '!'.
+	 * @param term Normalized term searched
+	 * @return Pattern that matches the texts that start with the term
+	 */
+	public static String toPrefixPattern(String term) {
+		return term.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+	}
+
+	/**
+	 * Method that calculates the similarity of two texts.
+	 * @param text A text
+	 * @param other Other text
+	 * @return Similarity between 0 (no shared trigram) and 1 (same trigrams)
+	 */
+	public static double similarity(String text, String other) {
+		Set<String> trigrams = trigrams(text);
+		Set<String> otherTrigrams = trigrams(other);
+		if (trigrams.isEmpty() || otherTrigrams.isEmpty())
+			return 0;
+
+		int shared = 0;
+		for (String trigram : trigrams) {
+			if (otherTrigrams.contains(trigram))
+				shared++;
+		}
+		return (double) shared / (trigrams.size() + otherTrigrams.size() - shared);
+	}
+
+	/**
+	 * Method that selects the texts similar to a term.
+	 * @param term Normalized term searched
+	 * @param texts Normalized texts
+	 * @return Texts whose similarity with the term is at least {@link #SIMILARITY_THRESHOLD}
+	 */
+	public static List<String> findSimilar(String term, Collection<String> texts) {
+		List<String> similar = new ArrayList<String>();
+		for (String text : texts) {
+			if (similarity(term, text) >= SIMILARITY_THRESHOLD)
+				similar.add(text);
+		}
+		return similar;
+	}
+
+	private static Set<String> trigrams(String text) {
+		Set<String> trigrams = new HashSet<String>();
+		for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+			if (word.isEmpty())
+				continue;
+			String padded = "  " + word + " ";
+			for (int i = 0; i + 3 <= padded.length(); i++) {
+				trigrams.add(padded.substring(i, i + 3));
+			}
+		}
+		return trigrams;
+	}
+}
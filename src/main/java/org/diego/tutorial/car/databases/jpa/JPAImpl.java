@@ -2,29 +2,63 @@ package org.diego.tutorial.car.databases.jpa;
 
 import java.util.List;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.interceptor.ExcludeClassInterceptors;
+import javax.interceptor.Interceptors;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.diego.tutorial.car.databases.IJPA;
 import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.PersistenceStatistics;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 
 /**
  * 
- * Implementation of the JPA persistence
+ * Implementation of the JPA persistence <p>
+ * The reads that do not need the latest data are sent to the read-only replica of the database,
+ * while its lag is within the tolerance (see {@link ReplicaLagMonitor}). The writes, and the reads 
+ * of a transaction that has already written, are always sent to the primary database. The writes are
+ * tracked per JTA transaction, not per client: a read in a later transaction, such as the next request 
+ * of the same client, can be sent to the replica before it has the write. <p>
+ * Every operation, including the ones of the subclasses, is measured by {@link PersistenceMetricsInterceptor}.
  *
  */
 @Stateless
+@Interceptors(PersistenceMetricsInterceptor.class)
 public class JPAImpl implements IJPA {
+	/**
+	 * Number of entities flushed together when adding a list of entities. It should 
+	 * match the "hibernate.jdbc.batch_size" property of the persistence unit
+	 */
+	protected static final int BATCH_SIZE = 50;
+	
+	/**
+	 * Key of the resource that marks the transactions that have written to the primary database
+	 */
+	private static final String WRITTEN_KEY = JPAImpl.class.getName() + ".written";
+	
 	@PersistenceContext(unitName = "postg")
 	protected EntityManager em;
+	@PersistenceContext(unitName = "postg-replica")
+	protected EntityManager replicaEm;
+	@Resource
+	private TransactionSynchronizationRegistry transactionRegistry;
+	@EJB
+	private ReplicaLagMonitor replicaLagMonitor;
 
 	@Override
 	public <T> List<T> getAll(Class<T> type) {
 		String classType = type.getName();
 		String query = "SELECT d FROM " + classType + " d";
-		TypedQuery<T> createQuery = em.createQuery(query, type);
+		TypedQuery<T> createQuery = getReadEntityManager().createQuery(query, type);
 		
 		List<T> dataList = createQuery.getResultList();
 		return dataList;
@@ -32,29 +66,125 @@ public class JPAImpl implements IJPA {
 
 	@Override
 	public <T> T get(Class<T> type, long id){
-		T t = em.find(type, id);
+		EntityManager readEm = getReadEntityManager();
+		// The entities in the second-level cache of the primary database are read without querying any database
+		if (readEm != em && em.getEntityManagerFactory().getCache().contains(type, id))
+			readEm = em;
+		T t = readEm.find(type, id);
 		
 		if (t == null)
-			throw new DataNotFoundException("Trying to get an object that does not exists");
+			throw new DataNotFoundException("Trying to get an object that does not exists", false);
 		return t;
 	}
 
 	@Override
 	public <T> T add(T entity) {
+		markWritten();
 		em.persist(entity);
 		
 		return entity;
 	}
 
+	@Override
+	public <T> List<T> addAll(List<T> entities) {
+		markWritten();
+		int persisted = 0;
+		for (T entity : entities) {
+			em.persist(entity);
+			persisted++;
+			// The pending inserts are sent as a JDBC batch, and the persistence context
+			// is cleared so it does not grow with the number of entities
+			if (persisted % BATCH_SIZE == 0) {
+				em.flush();
+				em.clear();
+			}
+		}
+		em.flush();
+		em.clear();
+		
+		return entities;
+	}
+
 	@Override
 	public <T> T update(T entity){
+		markWritten();
 		return em.merge(entity);
 	}
 
 	@Override
 	public <T> T delete(T entity) {
-		em.remove(entity);
+		markWritten();
+		// Removing through a managed instance lets Hibernate evict it from the second-level cache
+		T managedEntity = em.contains(entity) ? entity : em.merge(entity);
+		em.remove(managedEntity);
 		return entity;
 	}
+	
+	/**
+	 * Method that gets the entity manager for the reads that do not need the latest data: the one of the
+	 * replica, unless it is not usable or the current transaction has already written to the primary database.
+	 * @return Entity manager of the replica or of the primary database
+	 */
+	protected EntityManager getReadEntityManager() {
+		if (!replicaLagMonitor.isReplicaUsable() || transactionRegistry.getResource(WRITTEN_KEY) != null)
+			return em;
+		return replicaEm;
+	}
+	
+	/**
+	 * Method that marks the current transaction as one that has written to the primary database, so
+	 * its following reads are not sent to the replica.
+	 */
+	protected void markWritten() {
+		transactionRegistry.putResource(WRITTEN_KEY, Boolean.TRUE);
+	}
+	
+	/**
+	 * Method that gets the statistics of a region of the second-level cache.
+	 * @param region Name of the cache region
+	 * @return Statistics of the region, or null if the region does not exist
+	 */
+	@ExcludeClassInterceptors
+	public CacheStatistics getCacheStatistics(String region) {
+		Statistics statistics = em.getEntityManagerFactory()
+				.unwrap(SessionFactory.class)
+				.getStatistics();
+		SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+		if (regionStatistics == null)
+			return null;
+		
+		return new CacheStatistics(region, regionStatistics.getHitCount(), regionStatistics.getMissCount(), 
+				regionStatistics.getPutCount(), regionStatistics.getElementCountInMemory());
+	}
+	
+	/**
+	 * Method that gets the counters kept by Hibernate since the application started: entities
+	 * loaded, flushes, queries executed, second-level cache lookups...
+	 * @return Statistics of Hibernate, without the statistics of the operations
+	 */
+	@ExcludeClassInterceptors
+	public PersistenceStatistics getPersistenceStatistics() {
+		Statistics statistics = em.getEntityManagerFactory()
+				.unwrap(SessionFactory.class)
+				.getStatistics();
+		
+		PersistenceStatistics persistenceStatistics = new PersistenceStatistics();
+		persistenceStatistics.setEntityLoadCount(statistics.getEntityLoadCount());
+		persistenceStatistics.setEntityFetchCount(statistics.getEntityFetchCount());
+		persistenceStatistics.setEntityInsertCount(statistics.getEntityInsertCount());
+		persistenceStatistics.setEntityUpdateCount(statistics.getEntityUpdateCount());
+		persistenceStatistics.setEntityDeleteCount(statistics.getEntityDeleteCount());
+		persistenceStatistics.setFlushCount(statistics.getFlushCount());
+		persistenceStatistics.setPrepareStatementCount(statistics.getPrepareStatementCount());
+		persistenceStatistics.setQueryExecutionCount(statistics.getQueryExecutionCount());
+		persistenceStatistics.setQueryExecutionMaxTime(statistics.getQueryExecutionMaxTime());
+		persistenceStatistics.setQueryExecutionMaxTimeQueryString(statistics.getQueryExecutionMaxTimeQueryString());
+		persistenceStatistics.setSecondLevelCacheHitCount(statistics.getSecondLevelCacheHitCount());
+		persistenceStatistics.setSecondLevelCacheMissCount(statistics.getSecondLevelCacheMissCount());
+		persistenceStatistics.setSecondLevelCachePutCount(statistics.getSecondLevelCachePutCount());
+		persistenceStatistics.setOptimisticFailureCount(statistics.getOptimisticFailureCount());
+		persistenceStatistics.setTransactionCount(statistics.getTransactionCount());
+		return persistenceStatistics;
+	}
 
 }
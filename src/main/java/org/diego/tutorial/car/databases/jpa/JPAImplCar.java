@@ -1,44 +1,458 @@
 package org.diego.tutorial.car.databases.jpa;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 import javax.ejb.Stateless;
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.diego.tutorial.car.databases.Trigrams;
+import org.diego.tutorial.car.exceptions.VersionConflictException;
 import org.diego.tutorial.car.model.Car;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 
 /**
  * Implementation of the JPA persistence with specific
- * car methods
+ * car methods. It is the default database of cars (see {@link ICarDatabase})
  */
 @Stateless
-public class JPAImplCar extends JPAImpl {
+public class JPAImplCar extends JPAImpl implements ICarDatabase {
 	/**
-	 * Method that retrieves all the car objects from the database, that are
-	 * from a certain country.
-	 * @param country Country searched
-	 * @return List of cars from the country searched
+	 * Number of rows fetched from the database on each round trip of a streamed read
 	 */
-	public List<Car> getAllCarsFromCountry(String country){
-		String countryLowerCase = country.toLowerCase();
-		
-		String query = "SELECT car FROM Car car WHERE car.country='" + countryLowerCase + "'";
-		TypedQuery<Car> createQuery = em.createQuery(query, Car.class);
+	private static final int STREAM_FETCH_SIZE = 500;
+	
+	/**
+	 * Method that retrieves a car from the primary database, or from its second-level cache, never from
+	 * the replica, so the car can be kept in a cache until it is written again.
+	 * @param id Identifier of the car
+	 * @return Car, or null if the car does not exist
+	 */
+	@Override
+	public Car getCarFromPrimary(long id) {
+		return em.find(Car.class, id);
+	}
+
+	/**
+	 * Method that retrieves the date of the last update of a car, without loading the car.
+	 * @param id Identifier of the car
+	 * @return Date of the last update of the car, or null if the car does not exist
+	 */
+	@Override
+	public Date getLastUpdated(long id) {
+		String query = "SELECT car.lastUpdated FROM Car car WHERE car.id = :id";
+		TypedQuery<Date> createQuery = getReadEntityManager().createQuery(query, Date.class)
+				.setParameter("id", id);
 		
+		List<Date> lastUpdated = createQuery.getResultList();
+		return lastUpdated.isEmpty() ? null : lastUpdated.get(0);
+	}
+
+	/**
+	 * Method that retrieves a page of cars from the database, ordered by their identifier. <p>
+	 * The page starts right after the given identifier (keyset pagination), so the cost of
+	 * the query does not depend on how deep in the table the page is.
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars whose identifier is greater than afterId
+	 */
+	@Override
+	public List<Car> getCarsPage(long afterId, int limit) {
+		String query = "SELECT car FROM Car car WHERE car.id > :afterId ORDER BY car.id";
+		TypedQuery<Car> createQuery = getReadEntityManager().createQuery(query, Car.class)
+				.setParameter("afterId", afterId)
+				.setMaxResults(limit);
+
+		List<Car> cars = createQuery.getResultList();
+		return cars;
+	}
+
+	/**
+	 * Method that retrieves a page of cars from a certain country, ordered by their identifier.
+	 * @param country Country searched
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars from the country searched whose identifier is greater than afterId
+	 */
+	@Override
+	public List<Car> getCarsFromCountryPage(String country, long afterId, int limit) {
+		String query = "SELECT car FROM Car car WHERE car.country = :country AND car.id > :afterId ORDER BY car.id";
+		TypedQuery<Car> createQuery = getReadEntityManager().createQuery(query, Car.class)
+				.setParameter("country", Car.normalizeCountry(country))
+				.setParameter("afterId", afterId)
+				.setMaxResults(limit);
+
 		List<Car> carsFromCountry = createQuery.getResultList();
 		return carsFromCountry;
 	}
 
 	/**
-	 * Method that queries the database and retrieves all the soft removed cars. A 
-	 * soft removed car is a car with a flag that the car should be removed.
-	 * @return List of soft removed cars.
+	 * Method that retrieves a page of cars (optionally, only the ones from a certain country), ordered by
+	 * their identifier, selecting only some of their fields. <p>
+	 * Only the requested columns are read from the database, and no entity is created, so the cars are
+	 * not managed by the persistence context.
+	 * @param fields Fields of the car that should be selected. They must be in {@link Car#FIELDS}
+	 * @param country Country searched, or null to retrieve the cars from every country
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars, each one as a map from the name of the field to its value
 	 */
-	public List<Car> getAllSoftRemovedCars() {
-		String query = "SELECT car FROM Car car WHERE car.softRemoved='true'";
+	@Override
+	public List<Map<String, Object>> getCarFieldsPage(List<String> fields, String country, long afterId, int limit) {
+		StringBuilder select = new StringBuilder();
+		for (String field : fields) {
+			if (!Car.FIELDS.contains(field))
+				throw new IllegalArgumentException("Unknown field of car: " + field);
+			if (select.length() > 0)
+				select.append(", ");
+			select.append("car.").append(field);
+		}
+		
+		String query = "SELECT " + select + " FROM Car car WHERE "
+				+ (country != null ? "car.country = :country AND " : "")
+				+ "car.id > :afterId ORDER BY car.id";
+		Query createQuery = getReadEntityManager().createQuery(query)
+				.setParameter("afterId", afterId)
+				.setMaxResults(limit);
+		if (country != null)
+			createQuery.setParameter("country", Car.normalizeCountry(country));
 		
-		TypedQuery<Car> createQuery = em.createQuery(query, Car.class);
-		List<Car> softRemovedCars = createQuery.getResultList();
-		return softRemovedCars;
+		List<?> rows = createQuery.getResultList();
+		List<Map<String, Object>> cars = new ArrayList<Map<String, Object>>(rows.size());
+		for (Object row : rows) {
+			// A query with a single column returns the values instead of arrays
+			Object[] values = row instanceof Object[] ? (Object[]) row : new Object[] { row };
+			Map<String, Object> car = new LinkedHashMap<String, Object>();
+			for (int i = 0; i < values.length; i++) {
+				car.put(fields.get(i), values[i]);
+			}
+			cars.add(car);
+		}
+		return cars;
+	}
+
+	/**
+	 * Method that searches a page of cars by their brand, ordered by their identifier. <p>
+	 * In PostgreSQL, both the prefix and the similarity of the brands are evaluated with the trigram
+	 * index of the brands (see create.sql), so the query does not read the whole table. In other databases,
+	 * the prefix is compared with LIKE, and the similar brands are found among the distinct brands stored.
+	 * @param brand Term searched. It must not be empty
+	 * @param fuzzy Whether the brands similar to the term are also found, besides the ones that start with it
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars found whose identifier is greater than afterId
+	 */
+	@Override
+	public List<Car> searchCarsByBrand(String brand, boolean fuzzy, long afterId, int limit) {
+		EntityManager readEm = getReadEntityManager();
+		String term = Trigrams.normalize(brand);
+		
+		if (fuzzy && isPostgreSQL(readEm)) {
+			// "%" is the similarity operator of pg_trgm, that uses the same index as LIKE
+			String query = "SELECT * FROM cars.car WHERE (lower(brand) LIKE :prefix ESCAPE '!' OR lower(brand) % :term) "
+					+ "AND id > :afterId ORDER BY id";
+			@SuppressWarnings("unchecked")
+			List<Car> cars = readEm.createNativeQuery(query, Car.class)
+					.setParameter("prefix", Trigrams.toPrefixPattern(term))
+					.setParameter("term", term)
+					.setParameter("afterId", afterId)
+					.setMaxResults(limit)
+					.getResultList();
+			return cars;
+		}
+		
+		List<String> similarBrands = null;
+		if (fuzzy) {
+			List<String> brands = readEm.createQuery("SELECT DISTINCT LOWER(car.brand) FROM Car car", String.class)
+					.getResultList();
+			similarBrands = Trigrams.findSimilar(term, brands);
+		}
+		boolean searchSimilar = similarBrands != null && !similarBrands.isEmpty();
+		
+		String query = "SELECT car FROM Car car WHERE (LOWER(car.brand) LIKE :prefix ESCAPE '!'"
+				+ (searchSimilar ? " OR LOWER(car.brand) IN :similarBrands" : "")
+				+ ") AND car.id > :afterId ORDER BY car.id";
+		TypedQuery<Car> createQuery = readEm.createQuery(query, Car.class)
+				.setParameter("prefix", Trigrams.toPrefixPattern(term))
+				.setParameter("afterId", afterId)
+				.setMaxResults(limit);
+		if (searchSimilar)
+			createQuery.setParameter("similarBrands", similarBrands);
+		
+		return createQuery.getResultList();
+	}
+	
+	/**
+	 * Method that checks if a database is PostgreSQL, the only one with the trigram operators.
+	 * @param entityManager Entity manager of the database
+	 * @return True if the dialect of the database is the one of PostgreSQL
+	 */
+	private boolean isPostgreSQL(EntityManager entityManager) {
+		Object dialect = entityManager.getEntityManagerFactory().getProperties().get("hibernate.dialect");
+		return dialect != null && dialect.toString().contains("PostgreSQL");
+	}
+
+	@Override
+	public long streamCarIds(LongConsumer consumer) {
+		// The replica may not have the cars just added yet
+		Query query = em.createQuery("SELECT car.id FROM Car car");
+		org.hibernate.query.Query<?> hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+		hibernateQuery.setFetchSize(STREAM_FETCH_SIZE);
+		hibernateQuery.setReadOnly(true);
+		
+		long idsRead = 0;
+		try (ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY)) {
+			while (results.next()) {
+				consumer.accept(((Number) results.get(0)).longValue());
+				idsRead++;
+			}
+		}
+		return idsRead;
+	}
+
+	/**
+	 * Method that updates the fields of a car that can be modified by the clients (brand, country and 
+	 * soft-removed flag). The date of the removal is kept if the car was already soft removed, and cleared 
+	 * if the car is restored. <p>
+	 * The change is made on the managed car and flushed, so Hibernate checks and increments its version, 
+	 * and only the entry of this car is replaced in the second-level cache, instead of evicting the whole 
+	 * region as a bulk statement does. If the car has a version, it is only updated if it has not been 
+	 * modified since that version was read (optimistic locking). Otherwise, it is updated anyway.
+	 * @param car Car with the new values of the fields
+	 * @return Car stored after the update, with its new version, or null if the car does not exist or its version has changed
+	 * @throws VersionConflictException If the car is modified concurrently, once it has been read
+	 */
+	@Override
+	public Car updateCar(Car car) {
+		markWritten();
+		Car stored = em.find(Car.class, car.getId());
+		if (stored == null || (car.getVersion() != null && !car.getVersion().equals(stored.getVersion())))
+			return null;
+		
+		stored.setBrand(car.getBrand());
+		stored.setCountry(car.getCountry());
+		if (!car.isSoftRemoved())
+			stored.setSoftRemovedAt(null);
+		else if (stored.getSoftRemovedAt() == null)
+			stored.setSoftRemovedAt(car.getLastUpdated());
+		stored.setSoftRemoved(car.isSoftRemoved());
+		stored.setLastUpdated(car.getLastUpdated());
+		return flush(stored);
+	}
+
+	/**
+	 * Method that updates a list of cars in a single transaction. The cars are loaded with one query, 
+	 * and their changes are flushed by Hibernate in JDBC batches of updates (see hibernate.jdbc.batch_size), 
+	 * that check and increment the version of every car. <p>
+	 * A car without brand or country keeps the stored one. The cars that do not exist, or whose version has
+	 * changed since it was read, are skipped.
+	 * @param cars Cars with the new values of the fields
+	 * @return Number of cars updated
+	 */
+	@Override
+	public int updateCars(List<Car> cars) {
+		markWritten();
+		Map<Long, Car> changedCars = new HashMap<Long, Car>(cars.size() * 2);
+		for (Car car : cars) {
+			changedCars.put(car.getId(), car);
+		}
+		
+		String query = "SELECT car FROM Car car WHERE car.id IN :ids";
+		List<Car> storedCars = em.createQuery(query, Car.class)
+				.setParameter("ids", changedCars.keySet())
+				.getResultList();
+		int updated = 0;
+		for (Car stored : storedCars) {
+			Car car = changedCars.get(stored.getId());
+			if (car.getVersion() != null && !car.getVersion().equals(stored.getVersion()))
+				continue;
+			
+			if (car.getBrand() != null)
+				stored.setBrand(car.getBrand());
+			if (car.getCountry() != null)
+				stored.setCountry(car.getCountry());
+			if (!car.isSoftRemoved())
+				stored.setSoftRemovedAt(null);
+			else if (stored.getSoftRemovedAt() == null)
+				stored.setSoftRemovedAt(car.getLastUpdated());
+			stored.setSoftRemoved(car.isSoftRemoved());
+			stored.setLastUpdated(car.getLastUpdated());
+			updated++;
+		}
+		em.flush();
+		em.clear();
+		return updated;
+	}
+
+	/**
+	 * Method that sets the soft-removed flag of the managed car, incrementing its version when it is
+	 * flushed. Only the entry of this car is replaced in the second-level cache. <p>
+	 * The date of the removal is only set if the car was not already soft removed, so removing it again
+	 * does not extend its retention. If a version is given, the car is only removed if it has not been
+	 * modified since that version was read.
+	 * @param id Identifier of the car
+	 * @param version Version of the car that was read, or null to remove it anyway
+	 * @param lastUpdated Date of the removal
+	 * @return Car stored after the removal, with its new version, or null if the car does not exist or its version has changed
+	 * @throws VersionConflictException If the car is modified concurrently, once it has been read
+	 */
+	@Override
+	public Car softRemoveCar(long id, Long version, Date lastUpdated) {
+		markWritten();
+		Car stored = em.find(Car.class, id);
+		if (stored == null || (version != null && !version.equals(stored.getVersion())))
+			return null;
+		
+		if (stored.getSoftRemovedAt() == null)
+			stored.setSoftRemovedAt(lastUpdated);
+		stored.setSoftRemoved(true);
+		stored.setLastUpdated(lastUpdated);
+		return flush(stored);
+	}
+
+	/**
+	 * Method that flushes the change of a managed car, so its version is checked and incremented before
+	 * the car is returned. <p>
+	 * If the car has been modified concurrently since it was loaded, the persistence provider has already
+	 * marked the transaction for rollback, so a {@link VersionConflictException} exception is thrown instead
+	 * of going on with a transaction that would fail when it commits.
+	 * @param stored Managed car that has been changed
+	 * @return The same car
+	 */
+	private Car flush(Car stored) {
+		try {
+			em.flush();
+		} catch (OptimisticLockException e) {
+			throw new VersionConflictException("The car with ID: " + stored.getId() + " has been modified concurrently.");
+		}
+		return stored;
+	}
+
+	/**
+	 * Method that retrieves the current version of a car, without loading the car.
+	 * @param id Identifier of the car
+	 * @return Version of the car, or null if the car does not exist
+	 */
+	@Override
+	public Long getVersion(long id) {
+		String query = "SELECT car.version FROM Car car WHERE car.id = :id";
+		TypedQuery<Long> createQuery = em.createQuery(query, Long.class)
+				.setParameter("id", id);
+		
+		List<Long> version = createQuery.getResultList();
+		return version.isEmpty() ? null : version.get(0);
+	}
+
+	/**
+	 * Method that counts the cars of every country, in the database.
+	 * @return Number of cars by country, from the country with more cars
+	 */
+	@Override
+	public Map<String, Long> countCarsByCountry() {
+		return countCarsBy("country");
+	}
+
+	/**
+	 * Method that counts the cars of every brand, in the database.
+	 * @return Number of cars by brand, from the brand with more cars
+	 */
+	@Override
+	public Map<String, Long> countCarsByBrand() {
+		return countCarsBy("brand");
+	}
+
+	/**
+	 * Method that counts the soft removed cars. The query only reads the partial index
+	 * of the date of the removal.
+	 * @return Number of soft removed cars
+	 */
+	@Override
+	public long countSoftRemovedCars() {
+		String query = "SELECT COUNT(car) FROM Car car WHERE car.softRemovedAt IS NOT NULL";
+		return getReadEntityManager().createQuery(query, Long.class)
+				.getSingleResult();
+	}
+
+	/**
+	 * Method that counts the cars created on every day since a date, in the database.
+	 * @param since Date since which the cars are counted
+	 * @return Number of cars by day of creation, from the oldest day. The days without cars are not included
+	 */
+	@Override
+	public Map<Date, Long> countCarsCreatedByDay(Date since) {
+		String day = "CAST(car.createdAt AS date)";
+		String query = "SELECT " + day + ", COUNT(car) FROM Car car WHERE car.createdAt >= :since "
+				+ "GROUP BY " + day + " ORDER BY " + day;
+		List<Object[]> rows = getReadEntityManager().createQuery(query, Object[].class)
+				.setParameter("since", since)
+				.getResultList();
+		
+		Map<Date, Long> counts = new LinkedHashMap<Date, Long>();
+		for (Object[] row : rows) {
+			counts.put((Date) row[0], (Long) row[1]);
+		}
+		return counts;
+	}
+
+	/**
+	 * Method that counts the cars grouped by one of their fields.
+	 * @param field Field of the car used to group the cars
+	 * @return Number of cars by value of the field, from the value with more cars
+	 */
+	private Map<String, Long> countCarsBy(String field) {
+		String query = "SELECT car." + field + ", COUNT(car) FROM Car car GROUP BY car." + field 
+				+ " ORDER BY COUNT(car) DESC, car." + field;
+		List<Object[]> rows = getReadEntityManager().createQuery(query, Object[].class)
+				.getResultList();
+		
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for (Object[] row : rows) {
+			counts.put((String) row[0], (Long) row[1]);
+		}
+		return counts;
+	}
+
+	/**
+	 * Method that retrieves the identifiers of the cars soft removed before a date, from the oldest removal. <p>
+	 * The query only reads the partial index of the date of the removal, that only has the soft removed cars.
+	 * @param removedBefore Date before which the cars were soft removed
+	 * @param limit Maximum number of identifiers to retrieve
+	 * @return Identifiers of soft removed cars
+	 */
+	@Override
+	public List<Long> getSoftRemovedCarIds(Date removedBefore, int limit) {
+		String query = "SELECT car.id FROM Car car WHERE car.softRemovedAt < :removedBefore ORDER BY car.softRemovedAt";
+		TypedQuery<Long> createQuery = em.createQuery(query, Long.class)
+				.setParameter("removedBefore", removedBefore)
+				.setMaxResults(limit);
+		
+		return createQuery.getResultList();
+	}
+
+	/**
+	 * Method that deletes a set of soft removed cars in a single statement. The cars that are
+	 * no longer soft removed, or were soft removed again after the date, are not deleted.
+	 * @param ids Identifiers of the cars
+	 * @param removedBefore Date before which the cars were soft removed
+	 * @return Number of cars deleted
+	 */
+	@Override
+	public int deleteSoftRemovedCars(List<Long> ids, Date removedBefore) {
+		markWritten();
+		String query = "DELETE FROM Car car WHERE car.id IN :ids AND car.softRemovedAt < :removedBefore";
+		return em.createQuery(query)
+				.setParameter("ids", ids)
+				.setParameter("removedBefore", removedBefore)
+				.executeUpdate();
 	}
 }
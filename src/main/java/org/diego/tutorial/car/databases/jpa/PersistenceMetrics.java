@@ -0,0 +1,161 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.metrics.OperationRecorder;
+import org.diego.tutorial.car.model.OperationStatistics;
+import org.diego.tutorial.car.model.SlowQuery;
+
+/**
+ * Class that keeps the metrics of the operations of the persistence layer, measured by
+ * {@link PersistenceMetricsInterceptor}: calls, errors, rows returned and a histogram of their latency. <p>
+ * The calls slower than a threshold are logged, and the last ones are kept in memory. It is 
+ * configured through the following environment entries:
+ * <ul>
+ * <li>cars/metrics/slowQueryMillis: minimum time of a call to be logged as slow, in milliseconds.</li>
+ * <li>cars/metrics/slowQueryLogSize: number of slow calls kept in memory.</li>
+ * </ul>
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PersistenceMetrics {
+	/**
+	 * Maximum length of the parameters of a slow call
+	 */
+	private static final int MAX_PARAMETERS_LENGTH = 500;
+	
+	@Resource(name = "cars/metrics/slowQueryMillis")
+	private long slowQueryMillis = 200;
+	@Resource(name = "cars/metrics/slowQueryLogSize")
+	private int slowQueryLogSize = 100;
+	
+	private final ConcurrentMap<String, OperationRecorder> recorders = new ConcurrentHashMap<String, OperationRecorder>();
+	private final Deque<SlowQuery> slowQueries = new ArrayDeque<SlowQuery>();
+	private long slowQueryNanos;
+	
+	private final static Logger LOGGER = Logger.getLogger(PersistenceMetrics.class);
+	
+	@PostConstruct
+	public void start() {
+		slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+	}
+	
+	/**
+	 * Method that records a call to an operation of the persistence layer.
+	 * @param operation Name of the operation
+	 * @param parameters Parameters of the call
+	 * @param startedAt Time when the call started, in milliseconds since the epoch
+	 * @param elapsedNanos Duration of the call, in nanoseconds
+	 * @param rows Rows returned or modified by the call
+	 * @param failed Whether the call threw an exception
+	 */
+	public void record(String operation, Object[] parameters, long startedAt, long elapsedNanos, long rows, boolean failed) {
+		recorders.computeIfAbsent(operation, name -> new OperationRecorder())
+				.record(elapsedNanos, rows, failed);
+		
+		if (elapsedNanos >= slowQueryNanos) {
+			SlowQuery slowQuery = new SlowQuery(operation, formatParameters(parameters), new Date(startedAt), 
+					toMillis(elapsedNanos), rows, failed);
+			LOGGER.warn("Slow persistence operation: " + slowQuery);
+			synchronized (slowQueries) {
+				slowQueries.addFirst(slowQuery);
+				if (slowQueries.size() > slowQueryLogSize)
+					slowQueries.removeLast();
+			}
+		}
+	}
+	
+	/**
+	 * Method that gets the statistics of every operation called since the last reset.
+	 * @return Statistics of the operations, sorted by name
+	 */
+	public List<OperationStatistics> getOperationStatistics() {
+		List<OperationStatistics> statistics = new ArrayList<OperationStatistics>();
+		for (Map.Entry<String, OperationRecorder> recorder : new TreeMap<String, OperationRecorder>(recorders).entrySet()) {
+			statistics.add(recorder.getValue().toStatistics(recorder.getKey()));
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Method that gets the last calls slower than the threshold.
+	 * @return Slow calls, the most recent first
+	 */
+	public List<SlowQuery> getSlowQueries() {
+		synchronized (slowQueries) {
+			return new ArrayList<SlowQuery>(slowQueries);
+		}
+	}
+	
+	/**
+	 * Method that discards the metrics and the slow calls recorded so far.
+	 */
+	public void reset() {
+		recorders.clear();
+		synchronized (slowQueries) {
+			slowQueries.clear();
+		}
+	}
+	
+	private static String formatParameters(Object[] parameters) {
+		if (parameters == null)
+			return null;
+		StringBuilder formatted = new StringBuilder();
+		appendParameter(formatted, parameters);
+		if (formatted.length() > MAX_PARAMETERS_LENGTH) {
+			formatted.setLength(MAX_PARAMETERS_LENGTH);
+			formatted.append("...");
+		}
+		return formatted.toString();
+	}
+	
+	/**
+	 * Method that appends a parameter to the formatted ones. The elements of the arrays and collections
+	 * are appended one by one, stopping once the maximum length is reached, so a large list of cars or 
+	 * identifiers is not formatted entirely to keep only its beginning.
+	 * @param formatted Parameters formatted so far
+	 * @param parameter Parameter that should be appended
+	 */
+	private static void appendParameter(StringBuilder formatted, Object parameter) {
+		Iterator<?> elements = null;
+		if (parameter instanceof Object[])
+			elements = Arrays.asList((Object[]) parameter).iterator();
+		else if (parameter instanceof Collection)
+			elements = ((Collection<?>) parameter).iterator();
+		if (elements == null) {
+			formatted.append(parameter);
+			return;
+		}
+		
+		formatted.append('[');
+		while (elements.hasNext() && formatted.length() <= MAX_PARAMETERS_LENGTH) {
+			appendParameter(formatted, elements.next());
+			if (elements.hasNext())
+				formatted.append(", ");
+		}
+		formatted.append(']');
+	}
+	
+	private static double toMillis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+}
@@ -0,0 +1,54 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+
+import javax.ejb.EJB;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Interceptor that measures the calls to the persistence layer, and records them in {@link PersistenceMetrics}. <p>
+ * The rows of a call are the size of the list returned, the number returned by the operations that count
+ * rows (updates, deletes and streams), or 1 if it returns any other object.
+ *
+ */
+public class PersistenceMetricsInterceptor {
+	@EJB
+	private PersistenceMetrics metrics;
+
+	@AroundInvoke
+	public Object measure(InvocationContext context) throws Exception {
+		Method method = context.getMethod();
+		String operation = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+		long startedAt = System.currentTimeMillis();
+		long start = System.nanoTime();
+		Object result = null;
+		boolean failed = true;
+		try {
+			result = context.proceed();
+			failed = false;
+			return result;
+		} finally {
+			long elapsedNanos = System.nanoTime() - start;
+			metrics.record(operation, context.getParameters(), startedAt, elapsedNanos, countRows(method, result), failed);
+		}
+	}
+
+	/**
+	 * Method that counts the rows returned or modified by a call.
+	 * @param method Method called
+	 * @param result Object returned by the call, or null if it failed
+	 * @return Number of rows
+	 */
+	static long countRows(Method method, Object result) {
+		if (result == null)
+			return 0;
+		if (result instanceof Collection)
+			return ((Collection<?>) result).size();
+		Class<?> returnType = method.getReturnType();
+		if (returnType == int.class || returnType == long.class)
+			return ((Number) result).longValue();
+		return 1;
+	}
+}
@@ -0,0 +1,115 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class that measures periodically the replication lag of the read-only replica of the database, 
+ * that is, how far behind the primary database it is. <p>
+ * The replica is only used while its lag is within the tolerance. It is disabled by default: the writes are
+ * only read back from the primary database within the same JTA transaction, and every call of the 
+ * CarService is its own transaction, so a client may not see its last write in its next request until 
+ * the replica replays it. It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/replica/enabled: whether the reads can be sent to the replica.</li>
+ * <li>cars/replica/maxLagMillis: maximum lag of the replica, in milliseconds.</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ReplicaLagMonitor {
+	/**
+	 * Query that gets the lag of the replica in milliseconds. The lag is 0 if the database is not a replica, or
+	 * if the replica is streaming from the primary database and has replayed everything it has received. It is
+	 * null if the replica is not streaming from the primary database (or its status cannot be read), as it has
+	 * nothing new to replay even if it is far behind, and when nothing has been replayed yet.
+	 */
+	private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() THEN 0 "
+			+ "WHEN NOT EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming') THEN NULL "
+			+ "WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+			+ "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END";
+	
+	@PersistenceContext(unitName = "postg-replica")
+	private EntityManager replicaEm;
+	
+	@Resource(name = "cars/replica/enabled")
+	private boolean enabled = false;
+	@Resource(name = "cars/replica/maxLagMillis")
+	private long maxLagMillis = 1000;
+	
+	/**
+	 * Last lag measured, in milliseconds, -1 if it could not be measured, or {@link Long#MAX_VALUE}
+	 * if the replica is not streaming from the primary database
+	 */
+	private volatile long lagMillis = -1;
+	
+	private final static Logger LOGGER = Logger.getLogger(ReplicaLagMonitor.class);
+	
+	@PostConstruct
+	public void start() {
+		LOGGER.info("Replica of the database " + (enabled ? "enabled, with a maximum lag of " + maxLagMillis + " ms" : "disabled"));
+		checkLag();
+	}
+	
+	/**
+	 * Method executed every five seconds, that measures the lag of the replica. If it cannot be
+	 * measured, or the replica is disconnected from the primary database, the replica is not used 
+	 * until the next measure.
+	 */
+	@Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void checkLag() {
+		if (!enabled)
+			return;
+		
+		long previousLagMillis = lagMillis;
+		try {
+			Number lag = (Number) replicaEm.createNativeQuery(LAG_QUERY).getSingleResult();
+			lagMillis = lag == null ? Long.MAX_VALUE : lag.longValue();
+		} catch (RuntimeException e) {
+			lagMillis = -1;
+			if (previousLagMillis != -1)
+				LOGGER.warn("The lag of the replica could not be measured, the reads are sent to the primary database", e);
+			return;
+		}
+		
+		boolean wasUsable = isUsable(previousLagMillis);
+		if (wasUsable != isReplicaUsable()) {
+			LOGGER.warn("Lag of the replica: " + lagMillis + " ms. The reads are sent to the " 
+					+ (wasUsable ? "primary database" : "replica"));
+		}
+	}
+	
+	/**
+	 * Method that checks if the reads can be sent to the replica.
+	 * @return True if the replica is enabled and its lag is within the tolerance
+	 */
+	public boolean isReplicaUsable() {
+		return enabled && isUsable(lagMillis);
+	}
+	
+	/**
+	 * Method that gets the last lag measured.
+	 * @return Lag of the replica in milliseconds, -1 if it could not be measured, or {@link Long#MAX_VALUE}
+	 * if the replica is not streaming from the primary database
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+	
+	private boolean isUsable(long lagMillis) {
+		return lagMillis >= 0 && lagMillis <= maxLagMillis;
+	}
+}
@@ -0,0 +1,632 @@
+package org.diego.tutorial.car.databases.memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.interceptor.ExcludeClassInterceptors;
+import javax.interceptor.Interceptors;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.diego.tutorial.car.databases.Trigrams;
+import org.diego.tutorial.car.databases.jpa.PersistenceMetricsInterceptor;
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.PersistenceStatistics;
+
+/**
+ * Implementation of the database of cars that keeps the cars in memory, so it does not need
+ * PostgreSQL nor JTA. It is meant for edge deployments and tests. <p>
+ * The cars are kept in a concurrent map sorted by identifier, so the pages of cars are read in order
+ * without sorting. The cars of every country, the cars of every brand (sorted by brand, for the prefix
+ * searches) and the soft removed cars are kept in secondary indexes.
+ * The reads do not take any lock, and the writes are serialized. Every car is copied when it is stored
+ * and when it is read, so the callers never modify the stored cars. <p>
+ * The writes do not take part in transactions, so they are not undone when a transaction is rolled back. <p>
+ * Optionally, the cars are saved in a local file every minute and when the application stops, and
+ * loaded from it when the application starts. It is configured through the following environment entry:
+ * <ul>
+ * <li>cars/memory/snapshotFile: path of the file, or empty to keep the cars only in memory.</li>
+ * </ul>
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+@Interceptors(PersistenceMetricsInterceptor.class)
+public class InMemoryCarDatabase implements ICarDatabase {
+	@Resource(name = "cars/memory/snapshotFile")
+	private String snapshotFile = "";
+
+	private final ConcurrentNavigableMap<Long, Car> cars = new ConcurrentSkipListMap<Long, Car>();
+	private final ConcurrentMap<String, ConcurrentSkipListSet<Long>> carsByCountry = new ConcurrentHashMap<String, ConcurrentSkipListSet<Long>>();
+	private final ConcurrentNavigableMap<String, ConcurrentSkipListSet<Long>> carsByBrand = new ConcurrentSkipListMap<String, ConcurrentSkipListSet<Long>>();
+	private final ConcurrentSkipListSet<Long> softRemovedCars = new ConcurrentSkipListSet<Long>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Object writeLock = new Object();
+
+	/**
+	 * Number of writes since the application started, and number of writes saved in the snapshot
+	 */
+	private final AtomicLong writes = new AtomicLong();
+	private long savedWrites;
+
+	private final static Logger LOGGER = Logger.getLogger(InMemoryCarDatabase.class);
+
+	/**
+	 * Method that loads the cars of the snapshot file, if there is one.
+	 */
+	@PostConstruct
+	public void start() {
+		Path snapshot = getSnapshotPath();
+		if (snapshot == null || !Files.exists(snapshot)) {
+			LOGGER.info("In-memory database of cars started empty");
+			return;
+		}
+
+		try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+			long lastId = input.readLong();
+			@SuppressWarnings("unchecked")
+			List<Car> savedCars = (List<Car>) input.readObject();
+			synchronized (writeLock) {
+				for (Car car : savedCars) {
+					store(car);
+				}
+				sequence.set(lastId);
+				savedWrites = writes.get();
+			}
+			LOGGER.info("In-memory database of cars started with " + savedCars.size() + " cars from " + snapshot);
+		} catch (IOException | ClassNotFoundException e) {
+			throw new IllegalStateException("The snapshot of cars " + snapshot + " could not be read", e);
+		}
+	}
+
+	/**
+	 * Method that saves the cars in the snapshot file when the application stops.
+	 */
+	@PreDestroy
+	public void stop() {
+		saveSnapshot();
+	}
+
+	/**
+	 * Method executed every minute, that saves the cars in the snapshot file if they have changed.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	@ExcludeClassInterceptors
+	public void saveSnapshot() {
+		Path snapshot = getSnapshotPath();
+		if (snapshot == null)
+			return;
+
+		long snapshotWrites;
+		List<Car> snapshotCars;
+		long lastId;
+		synchronized (writeLock) {
+			snapshotWrites = writes.get();
+			if (snapshotWrites == savedWrites)
+				return;
+			snapshotCars = new ArrayList<Car>(cars.values());
+			lastId = sequence.get();
+		}
+
+		// The file is replaced at once, so a failure while writing does not leave a half-written snapshot
+		try {
+			Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+			try (ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				output.writeLong(lastId);
+				output.writeObject(snapshotCars);
+			}
+			Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			synchronized (writeLock) {
+				savedWrites = snapshotWrites;
+			}
+			LOGGER.info(snapshotCars.size() + " cars saved in " + snapshot);
+		} catch (IOException e) {
+			LOGGER.error("The snapshot of cars " + snapshot + " could not be written", e);
+		}
+	}
+
+	@Override
+	public <T> List<T> getAll(Class<T> type) {
+		checkType(type);
+		return copyAll(cars.values(), type);
+	}
+
+	@Override
+	public <T> T get(Class<T> type, long id) {
+		checkType(type);
+		Car car = cars.get(id);
+		if (car == null)
+			throw new DataNotFoundException("Trying to get an object that does not exists", false);
+		return type.cast(copy(car));
+	}
+
+	@Override
+	public Car getCarFromPrimary(long id) {
+		Car car = cars.get(id);
+		return car == null ? null : copy(car);
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 * A new identifier is always assigned to the car, as the sequence of the database does.
+	 */
+	@Override
+	public <T> T add(T entity) {
+		Car car = toCar(entity);
+		synchronized (writeLock) {
+			car.setId(sequence.incrementAndGet());
+			car.setVersion(0L);
+			store(copy(car));
+		}
+		return entity;
+	}
+
+	@Override
+	public <T> List<T> addAll(List<T> entities) {
+		for (T entity : entities) {
+			add(entity);
+		}
+		return entities;
+	}
+
+	@Override
+	public <T> T update(T entity) {
+		Car car = toCar(entity);
+		synchronized (writeLock) {
+			Car stored = cars.get(car.getId());
+			if (stored == null)
+				throw new DataNotFoundException("Trying to update an object that does not exists");
+			car.setVersion(stored.getVersion() + 1);
+			store(copy(car));
+		}
+		return entity;
+	}
+
+	@Override
+	public <T> T delete(T entity) {
+		Car car = toCar(entity);
+		synchronized (writeLock) {
+			remove(car.getId());
+		}
+		return entity;
+	}
+
+	@Override
+	public Date getLastUpdated(long id) {
+		Car car = cars.get(id);
+		return car == null ? null : car.getLastUpdated();
+	}
+
+	@Override
+	public List<Car> getCarsPage(long afterId, int limit) {
+		List<Car> page = new ArrayList<Car>(Math.min(limit, 1000));
+		for (Car car : cars.tailMap(afterId, false).values()) {
+			if (page.size() == limit)
+				break;
+			page.add(copy(car));
+		}
+		return page;
+	}
+
+	@Override
+	public List<Car> getCarsFromCountryPage(String country, long afterId, int limit) {
+		List<Car> page = new ArrayList<Car>(Math.min(limit, 1000));
+		forEachCarFromCountry(country, afterId, car -> {
+			if (page.size() == limit)
+				return false;
+			page.add(copy(car));
+			return true;
+		});
+		return page;
+	}
+
+	@Override
+	public List<Map<String, Object>> getCarFieldsPage(List<String> fields, String country, long afterId, int limit) {
+		for (String field : fields) {
+			if (!Car.FIELDS.contains(field))
+				throw new IllegalArgumentException("Unknown field of car: " + field);
+		}
+
+		List<Car> page = country != null ? getCarsFromCountryPage(country, afterId, limit) : getCarsPage(afterId, limit);
+		List<Map<String, Object>> carFields = new ArrayList<Map<String, Object>>(page.size());
+		for (Car car : page) {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			for (String field : fields) {
+				values.put(field, getField(car, field));
+			}
+			carFields.add(values);
+		}
+		return carFields;
+	}
+
+	@Override
+	public List<Car> searchCarsByBrand(String brand, boolean fuzzy, long afterId, int limit) {
+		String term = Trigrams.normalize(brand);
+		Set<String> brands = new HashSet<String>(carsByBrand.subMap(term, true, term + Character.MAX_VALUE, false).keySet());
+		if (fuzzy)
+			brands.addAll(Trigrams.findSimilar(term, carsByBrand.keySet()));
+		
+		// The first identifiers after afterId of every brand found, merged in order
+		TreeSet<Long> ids = new TreeSet<Long>();
+		for (String brandFound : brands) {
+			ConcurrentSkipListSet<Long> brandIds = carsByBrand.get(brandFound);
+			if (brandIds == null)
+				continue;
+			for (Long id : brandIds.tailSet(afterId, false)) {
+				if (ids.size() == limit && id > ids.last())
+					break;
+				ids.add(id);
+				if (ids.size() > limit)
+					ids.pollLast();
+			}
+		}
+		
+		List<Car> page = new ArrayList<Car>(ids.size());
+		for (Long id : ids) {
+			Car car = cars.get(id);
+			// The brand of the car may have just changed, as the reads do not take the write lock
+			if (car != null && brands.contains(normalizeBrand(car)))
+				page.add(copy(car));
+		}
+		return page;
+	}
+
+	@Override
+	public long streamCarIds(LongConsumer consumer) {
+		long idsRead = 0;
+		for (long id : cars.keySet()) {
+			consumer.accept(id);
+			idsRead++;
+		}
+		return idsRead;
+	}
+
+	@Override
+	public Car updateCar(Car car) {
+		synchronized (writeLock) {
+			Car stored = cars.get(car.getId());
+			if (stored == null || (car.getVersion() != null && !car.getVersion().equals(stored.getVersion())))
+				return null;
+
+			Car updated = copy(stored);
+			updated.setBrand(car.getBrand());
+			updated.setCountry(car.getCountry());
+			updated.setSoftRemoved(car.isSoftRemoved());
+			if (!car.isSoftRemoved())
+				updated.setSoftRemovedAt(null);
+			else if (stored.getSoftRemovedAt() == null)
+				updated.setSoftRemovedAt(car.getLastUpdated());
+			updated.setLastUpdated(car.getLastUpdated());
+			updated.setVersion(stored.getVersion() + 1);
+			store(updated);
+			return copy(updated);
+		}
+	}
+
+	@Override
+	public int updateCars(List<Car> changedCars) {
+		int updated = 0;
+		synchronized (writeLock) {
+			for (Car changedCar : changedCars) {
+				Car stored = cars.get(changedCar.getId());
+				if (stored == null)
+					continue;
+				Car car = copy(changedCar);
+				if (car.getBrand() == null)
+					car.setBrand(stored.getBrand());
+				if (car.getCountry() == null)
+					car.setCountry(stored.getCountry());
+				if (updateCar(car) != null)
+					updated++;
+			}
+		}
+		return updated;
+	}
+
+	@Override
+	public Car softRemoveCar(long id, Long version, Date lastUpdated) {
+		synchronized (writeLock) {
+			Car stored = cars.get(id);
+			if (stored == null || (version != null && !version.equals(stored.getVersion())))
+				return null;
+
+			Car removed = copy(stored);
+			removed.setSoftRemoved(true);
+			if (stored.getSoftRemovedAt() == null)
+				removed.setSoftRemovedAt(lastUpdated);
+			removed.setLastUpdated(lastUpdated);
+			removed.setVersion(stored.getVersion() + 1);
+			store(removed);
+			return copy(removed);
+		}
+	}
+
+	@Override
+	public Long getVersion(long id) {
+		Car car = cars.get(id);
+		return car == null ? null : car.getVersion();
+	}
+
+	@Override
+	public Map<String, Long> countCarsByCountry() {
+		return countCarsBy(Car::getCountry);
+	}
+
+	@Override
+	public Map<String, Long> countCarsByBrand() {
+		return countCarsBy(Car::getBrand);
+	}
+
+	@Override
+	public long countSoftRemovedCars() {
+		return softRemovedCars.size();
+	}
+
+	@Override
+	public Map<Date, Long> countCarsCreatedByDay(Date since) {
+		Map<Date, Long> counts = new TreeMap<Date, Long>();
+		Calendar calendar = Calendar.getInstance();
+		for (Car car : cars.values()) {
+			if (car.getCreatedAt().before(since))
+				continue;
+			calendar.setTime(car.getCreatedAt());
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			counts.merge(calendar.getTime(), 1L, Long::sum);
+		}
+		return new LinkedHashMap<Date, Long>(counts);
+	}
+
+	@Override
+	public List<Long> getSoftRemovedCarIds(Date removedBefore, int limit) {
+		List<Car> removed = new ArrayList<Car>();
+		for (Long id : softRemovedCars) {
+			Car car = cars.get(id);
+			if (car != null && car.getSoftRemovedAt() != null && car.getSoftRemovedAt().before(removedBefore))
+				removed.add(car);
+		}
+		removed.sort(Comparator.comparing(Car::getSoftRemovedAt));
+		
+		List<Long> ids = new ArrayList<Long>();
+		for (Car car : removed) {
+			if (ids.size() == limit)
+				break;
+			ids.add(car.getId());
+		}
+		return ids;
+	}
+
+	@Override
+	public int deleteSoftRemovedCars(List<Long> ids, Date removedBefore) {
+		int deleted = 0;
+		synchronized (writeLock) {
+			for (Long id : ids) {
+				Car stored = cars.get(id);
+				if (stored != null && stored.getSoftRemovedAt() != null && stored.getSoftRemovedAt().before(removedBefore)) {
+					remove(id);
+					deleted++;
+				}
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 * There is no second-level cache, as every car is already in memory.
+	 */
+	@Override
+	@ExcludeClassInterceptors
+	public CacheStatistics getCacheStatistics(String region) {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc} <p>
+	 * There is no persistence provider, so every counter is 0.
+	 */
+	@Override
+	@ExcludeClassInterceptors
+	public PersistenceStatistics getPersistenceStatistics() {
+		return new PersistenceStatistics();
+	}
+
+	/**
+	 * Method that stores a car, replacing the previous version of the car and updating the indexes.
+	 * It must be called holding the write lock.
+	 * @param car Car that should be stored. It must not be modified after storing it
+	 */
+	private void store(Car car) {
+		Car previous = cars.put(car.getId(), car);
+		if (previous != null && !previous.getCountry().equals(car.getCountry()))
+			removeFromCountry(previous);
+		if (previous != null && !normalizeBrand(previous).equals(normalizeBrand(car)))
+			removeFromBrand(previous);
+		carsByCountry.computeIfAbsent(car.getCountry(), country -> new ConcurrentSkipListSet<Long>())
+				.add(car.getId());
+		carsByBrand.computeIfAbsent(normalizeBrand(car), brand -> new ConcurrentSkipListSet<Long>())
+				.add(car.getId());
+		if (car.getSoftRemovedAt() != null)
+			softRemovedCars.add(car.getId());
+		else
+			softRemovedCars.remove(car.getId());
+		writes.incrementAndGet();
+	}
+
+	/**
+	 * Method that removes a car and its entries of the indexes. It must be called holding the write lock.
+	 * @param id Identifier of the car
+	 */
+	private void remove(long id) {
+		Car previous = cars.remove(id);
+		if (previous == null)
+			return;
+		removeFromCountry(previous);
+		removeFromBrand(previous);
+		softRemovedCars.remove(id);
+		writes.incrementAndGet();
+	}
+
+	private void removeFromCountry(Car car) {
+		ConcurrentSkipListSet<Long> ids = carsByCountry.get(car.getCountry());
+		if (ids == null)
+			return;
+		ids.remove(car.getId());
+		if (ids.isEmpty())
+			carsByCountry.remove(car.getCountry());
+	}
+
+	private void removeFromBrand(Car car) {
+		String brand = normalizeBrand(car);
+		ConcurrentSkipListSet<Long> ids = carsByBrand.get(brand);
+		if (ids == null)
+			return;
+		ids.remove(car.getId());
+		if (ids.isEmpty())
+			carsByBrand.remove(brand);
+	}
+
+	private static String normalizeBrand(Car car) {
+		return Trigrams.normalize(car.getBrand());
+	}
+
+	/**
+	 * Method that visits the cars of a country, in order of identifier, through the index of countries. <p>
+	 * As the reads do not take the write lock, the index may have a car whose country has just changed,
+	 * so the country of every car is checked again.
+	 * @param country Country of the cars
+	 * @param afterId Identifier after which the cars are visited
+	 * @param visitor Function called with every car, that returns false to stop visiting cars
+	 */
+	private void forEachCarFromCountry(String country, long afterId, Predicate<Car> visitor) {
+		String normalizedCountry = Car.normalizeCountry(country);
+		ConcurrentSkipListSet<Long> ids = carsByCountry.get(normalizedCountry);
+		if (ids == null)
+			return;
+		for (Long id : ids.tailSet(afterId, false)) {
+			Car car = cars.get(id);
+			if (car == null || !car.getCountry().equals(normalizedCountry))
+				continue;
+			if (!visitor.test(car))
+				return;
+		}
+	}
+
+	private Map<String, Long> countCarsBy(Function<Car, String> field) {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Car car : cars.values()) {
+			counts.merge(field.apply(car), 1L, Long::sum);
+		}
+
+		// From the value with more cars, as the database does
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+		entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+		Map<String, Long> sortedCounts = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : entries) {
+			sortedCounts.put(entry.getKey(), entry.getValue());
+		}
+		return sortedCounts;
+	}
+
+	private Path getSnapshotPath() {
+		return snapshotFile == null || snapshotFile.trim().isEmpty() ? null : Paths.get(snapshotFile.trim());
+	}
+
+	private static void checkType(Class<?> type) {
+		if (type != Car.class)
+			throw new IllegalArgumentException("The in-memory database only stores cars, not " + type.getName());
+	}
+
+	private static Car toCar(Object entity) {
+		checkType(entity.getClass());
+		return (Car) entity;
+	}
+
+	private static <T> List<T> copyAll(Collection<Car> cars, Class<T> type) {
+		List<T> copies = new ArrayList<T>(cars.size());
+		for (Car car : cars) {
+			copies.add(type.cast(copy(car)));
+		}
+		return copies;
+	}
+
+	/**
+	 * Method that copies the persisted fields of a car, without its links.
+	 * @param car Car that should be copied
+	 * @return New car with the same fields
+	 */
+	private static Car copy(Car car) {
+		Car copy = new Car(car.getId(), car.getBrand(), car.getRegistration(), car.getCountry(),
+				car.getCreatedAt(), car.getLastUpdated());
+		copy.setSoftRemoved(car.isSoftRemoved());
+		copy.setSoftRemovedAt(car.getSoftRemovedAt());
+		copy.setVersion(car.getVersion());
+		return copy;
+	}
+
+	private static Object getField(Car car, String field) {
+		switch (field) {
+		case "id":
+			return car.getId();
+		case "brand":
+			return car.getBrand();
+		case "registration":
+			return car.getRegistration();
+		case "country":
+			return car.getCountry();
+		case "createdAt":
+			return car.getCreatedAt();
+		case "lastUpdated":
+			return car.getLastUpdated();
+		case "softRemoved":
+			return car.isSoftRemoved();
+		case "softRemovedAt":
+			return car.getSoftRemovedAt();
+		case "version":
+			return car.getVersion();
+		default:
+			throw new IllegalArgumentException("Unknown field of car: " + field);
+		}
+	}
+}
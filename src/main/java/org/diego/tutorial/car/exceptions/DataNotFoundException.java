@@ -22,4 +22,15 @@ public class DataNotFoundException extends RuntimeException {
 	public DataNotFoundException(String message) {
 		super(message);
 	}
+	
+	/**
+	 * Constructs a new DataNotFoundException Exception with the specified detail message, optionally without
+	 * filling in its stack trace. As the missing data is an expected outcome, the exceptions thrown by the
+	 * lookups of data do not need it, and creating them is much cheaper without it.
+	 * @param message Message that describes the exception
+	 * @param writableStackTrace Whether the stack trace should be filled in
+	 */
+	public DataNotFoundException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
 }
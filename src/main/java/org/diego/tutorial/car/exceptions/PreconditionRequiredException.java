@@ -0,0 +1,25 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ejb.ApplicationException;
+
+/**
+ * Exception that can be thrown when the client it is trying to modify data without
+ * the version it read, so the modification could overwrite the one of another client.
+ *
+ */
+@ApplicationException
+public class PreconditionRequiredException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -3712953218690475412L;
+
+	/**
+	 * Constructs a new PreconditionRequired Exception with the specified detail message. 
+	 * @param message Message that describes the exception
+	 */
+	public PreconditionRequiredException(String message) {
+		super(message);
+	}
+}
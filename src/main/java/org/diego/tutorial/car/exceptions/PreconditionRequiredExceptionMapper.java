@@ -0,0 +1,39 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.model.ErrorMessage;
+
+/**
+ * Exception mapper that maps a {@link PreconditionRequiredException} exception to a {@link Response}, 
+ * with a PRECONDITION REQUIRED status code (428).
+ * 
+ */
+@Provider
+public class PreconditionRequiredExceptionMapper implements ExceptionMapper<PreconditionRequiredException> {
+	
+	/**
+	 * Status code of the PRECONDITION REQUIRED responses (RFC 6585), that is not in {@link Response.Status}
+	 */
+	public static final int PRECONDITION_REQUIRED = 428;
+	
+	private final static Logger LOGGER = Logger.getLogger(PreconditionRequiredExceptionMapper.class);
+	
+	@Override
+	public Response toResponse(PreconditionRequiredException exception) {
+		String errorMessage = exception.getMessage();
+		int errorCode = PRECONDITION_REQUIRED;
+		String documentation = "Get the current version of the data and send it with the modification.";
+		ErrorMessage error = new ErrorMessage(errorMessage, errorCode, documentation);
+		
+		LOGGER.warn("Modification without version: " + errorMessage);
+		LOGGER.info("A response with the error is being created by the PreconditionRequiredExceptionMapper");
+		
+		return Response.status(errorCode)
+					.entity(error)
+					.build();
+	}
+}
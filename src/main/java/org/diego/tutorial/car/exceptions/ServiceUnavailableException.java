@@ -0,0 +1,25 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ejb.ApplicationException;
+
+/**
+ * Exception that can be thrown when the application cannot serve a 
+ * request in time, because it is overloaded
+ *
+ */
+@ApplicationException
+public class ServiceUnavailableException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 5107464211337458930L;
+
+	/**
+	 * Constructs a new ServiceUnavailable Exception with the specified detail message. 
+	 * @param message Message that describes the exception
+	 */
+	public ServiceUnavailableException(String message) {
+		super(message);
+	}
+}
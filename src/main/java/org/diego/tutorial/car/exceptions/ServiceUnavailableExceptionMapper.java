@@ -0,0 +1,42 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.model.ErrorMessage;
+
+/**
+ * Exception mapper that maps a {@link ServiceUnavailableException} exception to a {@link Response}, 
+ * with a SERVICE UNAVAILABLE status code. The response asks the client to retry 
+ * the request after {@link #RETRY_AFTER_SECONDS} seconds.
+ * 
+ */
+@Provider
+public class ServiceUnavailableExceptionMapper implements ExceptionMapper<ServiceUnavailableException> {
+
+	private final static Logger LOGGER = Logger.getLogger(ServiceUnavailableExceptionMapper.class);
+	
+	private static final int RETRY_AFTER_SECONDS = 1;
+	
+	@Override
+	public Response toResponse(ServiceUnavailableException exception) {
+		String errorMessage = exception.getMessage();
+		int errorCode = Status.SERVICE_UNAVAILABLE.getStatusCode();
+		String documentation = "Contact to Everis if this error persists.";
+		ErrorMessage error = new ErrorMessage(errorMessage, errorCode, documentation);
+		
+		// No stack trace, this exception is thrown when the application is overloaded
+		LOGGER.warn("The request could not be served: " + errorMessage);
+		LOGGER.info("A response with the error is being created by the ServiceUnavailableExceptionMapper");
+		
+		return Response.status(errorCode)
+					.entity(error)
+					.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+					.build();
+	}
+
+}
@@ -0,0 +1,25 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ejb.ApplicationException;
+
+/**
+ * Exception that can be thrown when the client it is trying to modify data that
+ * has been modified by another client since it was read.
+ *
+ */
+@ApplicationException
+public class VersionConflictException extends RuntimeException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2658016512377493015L;
+
+	/**
+	 * Constructs a new VersionConflict Exception with the specified detail message. 
+	 * @param message Message that describes the exception
+	 */
+	public VersionConflictException(String message) {
+		super(message);
+	}
+}
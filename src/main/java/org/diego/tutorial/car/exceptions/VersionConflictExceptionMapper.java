@@ -0,0 +1,36 @@
+package org.diego.tutorial.car.exceptions;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.model.ErrorMessage;
+
+/**
+ * Exception mapper that maps a {@link VersionConflictException} exception to a {@link Response}, 
+ * with a CONFLICT status code.
+ * 
+ */
+@Provider
+public class VersionConflictExceptionMapper implements ExceptionMapper<VersionConflictException> {
+	
+	private final static Logger LOGGER = Logger.getLogger(VersionConflictExceptionMapper.class);
+	
+	@Override
+	public Response toResponse(VersionConflictException exception) {
+		String errorMessage = exception.getMessage();
+		int errorCode = Status.CONFLICT.getStatusCode();
+		String documentation = "Get the current version of the data and try again.";
+		ErrorMessage error = new ErrorMessage(errorMessage, errorCode, documentation);
+		
+		// A concurrent modification is expected, so the stack trace is not logged
+		LOGGER.warn("Concurrent modification: " + errorMessage);
+		LOGGER.info("A response with the error is being created by the VersionConflictExceptionMapper");
+		
+		return Response.status(errorCode)
+					.entity(error)
+					.build();
+	}
+}
@@ -0,0 +1,20 @@
+package org.diego.tutorial.car.filters;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import javax.ws.rs.NameBinding;
+
+/**
+ * Annotation that marks the resource methods whose responses are compressed by the
+ * {@link CompressionInterceptor}, when the client accepts it. <p>
+ * It should be used in methods that may return large bodies, such as lists of cars.
+ *
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Compress {
+}
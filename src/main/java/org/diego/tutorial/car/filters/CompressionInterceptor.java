@@ -0,0 +1,126 @@
+package org.diego.tutorial.car.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ * Class that compresses the body of the responses of the methods annotated with {@link Compress}. <p>
+ * The encoding is negotiated with the Accept-Encoding header of the request: gzip is preferred, and
+ * deflate is used if it is the only one accepted. If the client does not accept any of them, the body
+ * is not compressed. <p>
+ * The encoding is chosen when filtering the response, and applied when the body is written.
+ *
+ */
+@Provider
+@Compress
+public class CompressionInterceptor implements ContainerResponseFilter, WriterInterceptor {
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	/**
+	 * Method that chooses the encoding of the response, setting the Content-Encoding header.
+	 */
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext)
+			throws IOException {
+		if (!responseContext.hasEntity() || responseContext.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+			return;
+		}
+		// The response depends on the header even if it is not compressed, so caches must take it into account
+		responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		
+		String encoding = negotiateEncoding(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		if (encoding != null) {
+			responseContext.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+		}
+	}
+
+	/**
+	 * Method that compresses the body of the response with the encoding chosen by the filter.
+	 */
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+		Object encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		OutputStream output = context.getOutputStream();
+		DeflaterOutputStream compressedOutput;
+		if (GZIP.equals(encoding)) {
+			compressedOutput = new GZIPOutputStream(output, true);
+		} else if (DEFLATE.equals(encoding)) {
+			compressedOutput = new DeflaterOutputStream(output, true);
+		} else {
+			context.proceed();
+			return;
+		}
+		
+		// Flushes are propagated, so streamed responses are still sent as they are written
+		context.setOutputStream(compressedOutput);
+		try {
+			context.proceed();
+		} finally {
+			compressedOutput.finish();
+		}
+	}
+
+	/**
+	 * Method that chooses the encoding of a response, given the value of the Accept-Encoding header.
+	 * @param acceptEncoding Value of the Accept-Encoding header, such as "gzip, deflate;q=0.5"
+	 * @return "gzip" or "deflate", or null if the client does not accept any of them
+	 */
+	static String negotiateEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		
+		float gzipQuality = -1;
+		float deflateQuality = -1;
+		float anyQuality = -1;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			String name = params[0].trim().toLowerCase();
+			float quality = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(param.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+				}
+			}
+			
+			if (name.equals(GZIP) || name.equals("x-gzip")) {
+				gzipQuality = quality;
+			} else if (name.equals(DEFLATE)) {
+				deflateQuality = quality;
+			} else if (name.equals("*")) {
+				anyQuality = quality;
+			}
+		}
+		
+		// Codings that are not listed take the quality of the wildcard, if any
+		if (gzipQuality < 0)
+			gzipQuality = anyQuality;
+		if (deflateQuality < 0)
+			deflateQuality = anyQuality;
+		
+		if (gzipQuality > 0 && gzipQuality >= deflateQuality) {
+			return GZIP;
+		}
+		if (deflateQuality > 0) {
+			return DEFLATE;
+		}
+		return null;
+	}
+}
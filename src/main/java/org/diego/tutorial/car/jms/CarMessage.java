@@ -0,0 +1,25 @@
+package org.diego.tutorial.car.jms;
+
+import org.diego.tutorial.car.model.Car;
+
+/**
+ * Content of a message of the queue: the car and the operation requested on it
+ *
+ */
+public class CarMessage {
+	private final Car car;
+	private final JMSOperations operation;
+	
+	public CarMessage(Car car, JMSOperations operation) {
+		this.car = car;
+		this.operation = operation;
+	}
+
+	public Car getCar() {
+		return car;
+	}
+
+	public JMSOperations getOperation() {
+		return operation;
+	}
+}
@@ -0,0 +1,287 @@
+package org.diego.tutorial.car.jms;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.ObjectMessage;
+
+import org.diego.tutorial.car.model.Car;
+
+/**
+ * Class that encodes the messages of the queue in a compact binary format, sent as a {@link BytesMessage}
+ * instead of a Java-serialized {@link ObjectMessage}. The fields are written one by one, without reflection. <p>
+ * Format of the version 1, where the numbers are variable-length (7 bits per byte) and the dates are
+ * milliseconds since the epoch:
+ * <ol>
+ * <li>Version of the format (1 byte).</li>
+ * <li>Code of the operation (1 byte), see {@link JMSOperations#getCode()}.</li>
+ * <li>Flags (1 byte): whether the car is soft removed, and which of the nullable fields are present.</li>
+ * <li>ID of the car, and then the present fields, in the order of the flags. The strings are written
+ * as their length followed by their UTF-8 bytes.</li>
+ * </ol>
+ * A new format must have a new version, so the receivers can still read the messages of the previous one.
+ */
+public final class CarMessageCodec {
+	/**
+	 * Version of the format written by the encoder
+	 */
+	public static final byte VERSION = 1;
+
+	/**
+	 * Property of the messages with their group. A broker that honors it delivers the messages of the 
+	 * same group to the same consumer, one after another. The embedded broker (OpenMQ) ignores it
+	 */
+	public static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+
+	private static final int SOFT_REMOVED = 1;
+	private static final int BRAND = 1 << 1;
+	private static final int REGISTRATION = 1 << 2;
+	private static final int COUNTRY = 1 << 3;
+	private static final int CREATED_AT = 1 << 4;
+	private static final int LAST_UPDATED = 1 << 5;
+	private static final int SOFT_REMOVED_AT = 1 << 6;
+	private static final int CAR_VERSION = 1 << 7;
+
+	private CarMessageCodec() {
+	}
+
+	/**
+	 * Method that encodes a car and the operation requested on it.
+	 * @param car Car of the message
+	 * @param operation Operation of the message
+	 * @return Bytes of the message
+	 */
+	public static byte[] encode(Car car, JMSOperations operation) {
+		byte[] brand = toBytes(car.getBrand());
+		byte[] country = toBytes(car.getCountry());
+
+		int flags = 0;
+		if (car.isSoftRemoved())
+			flags |= SOFT_REMOVED;
+		if (brand != null)
+			flags |= BRAND;
+		if (car.getRegistration() != null)
+			flags |= REGISTRATION;
+		if (country != null)
+			flags |= COUNTRY;
+		if (car.getCreatedAt() != null)
+			flags |= CREATED_AT;
+		if (car.getLastUpdated() != null)
+			flags |= LAST_UPDATED;
+		if (car.getSoftRemovedAt() != null)
+			flags |= SOFT_REMOVED_AT;
+		if (car.getVersion() != null)
+			flags |= CAR_VERSION;
+
+		Writer writer = new Writer(64 + (brand != null ? brand.length : 0) + (country != null ? country.length : 0));
+		writer.writeByte(VERSION);
+		writer.writeByte(operation.getCode());
+		writer.writeByte(flags);
+		writer.writeLong(car.getId());
+		if (brand != null)
+			writer.writeBytes(brand);
+		if (car.getRegistration() != null)
+			writer.writeLong(car.getRegistration().getTime());
+		if (country != null)
+			writer.writeBytes(country);
+		if (car.getCreatedAt() != null)
+			writer.writeLong(car.getCreatedAt().getTime());
+		if (car.getLastUpdated() != null)
+			writer.writeLong(car.getLastUpdated().getTime());
+		if (car.getSoftRemovedAt() != null)
+			writer.writeLong(car.getSoftRemovedAt().getTime());
+		if (car.getVersion() != null)
+			writer.writeLong(car.getVersion());
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Method that decodes the bytes of a message.
+	 * @param bytes Bytes of the message
+	 * @return Car and operation of the message
+	 * @throws MessageFormatException If the version of the format is unknown, or the bytes are not valid
+	 */
+	public static CarMessage decode(byte[] bytes) throws MessageFormatException {
+		Reader reader = new Reader(bytes);
+		int version = reader.readByte();
+		if (version != VERSION)
+			throw new MessageFormatException("Unknown version of the car message: " + version);
+		int code = reader.readByte();
+		JMSOperations operation = JMSOperations.fromCode(code);
+		if (operation == null)
+			throw new MessageFormatException("Unknown operation of the car message: " + code);
+		int flags = reader.readByte();
+
+		Car car = new Car();
+		car.setId(reader.readLong());
+		car.setSoftRemoved((flags & SOFT_REMOVED) != 0);
+		if ((flags & BRAND) != 0)
+			car.setBrand(reader.readString());
+		if ((flags & REGISTRATION) != 0)
+			car.setRegistration(new Date(reader.readLong()));
+		if ((flags & COUNTRY) != 0)
+			car.setCountry(reader.readString());
+		if ((flags & CREATED_AT) != 0)
+			car.setCreatedAt(new Date(reader.readLong()));
+		if ((flags & LAST_UPDATED) != 0)
+			car.setLastUpdated(new Date(reader.readLong()));
+		if ((flags & SOFT_REMOVED_AT) != 0)
+			car.setSoftRemovedAt(new Date(reader.readLong()));
+		if ((flags & CAR_VERSION) != 0)
+			car.setVersion(reader.readLong());
+		return new CarMessage(car, operation);
+	}
+
+	/**
+	 * Method that gets the message group of a car. The cars are spread by their identifier over a fixed
+	 * number of groups, so with a broker that honors the groups the messages of a car are consumed in order, 
+	 * the messages of different groups are consumed in parallel, and the broker only keeps track of a bounded 
+	 * number of groups.
+	 * @param car Car of the message
+	 * @param groups Number of groups, at least 1
+	 * @return Group of the car, or null if the car has no identifier yet, as the new cars do not need to be ordered
+	 * @throws IllegalArgumentException If the number of groups is lower than 1
+	 */
+	public static String groupId(Car car, int groups) {
+		if (groups < 1)
+			throw new IllegalArgumentException("The number of message groups must be at least 1, but it is " + groups);
+		if (car.getId() <= 0)
+			return null;
+		return "car-" + Math.floorMod(car.getId(), (long) groups);
+	}
+
+	/**
+	 * Method that creates the message sent to the queue, with the operation also as the property
+	 * {@link JMSGroups#GLOBAL}, so it can be used by the selectors and the receivers of the previous format.
+	 * @param context Context that creates the message
+	 * @param payload Bytes of the message, from {@link #encode(Car, JMSOperations)}
+	 * @param operation Operation of the message
+	 * @param groupId Message group of the car (see {@link #groupId(Car, int)}), or null if it has none
+	 * @return Message with the bytes
+	 * @throws JMSException If the message could not be created
+	 */
+	public static BytesMessage toMessage(JMSContext context, byte[] payload, JMSOperations operation, String groupId) 
+			throws JMSException {
+		BytesMessage message = context.createBytesMessage();
+		message.writeBytes(payload);
+		message.setStringProperty(JMSGroups.GLOBAL.toString(), operation.toString());
+		if (groupId != null)
+			message.setStringProperty(GROUP_ID_PROPERTY, groupId);
+		return message;
+	}
+
+	/**
+	 * Method that reads a message of the queue, either a {@link BytesMessage} of this codec or a
+	 * legacy {@link ObjectMessage} with the serialized car and the operation as a property.
+	 * @param message Message of the queue
+	 * @return Car and operation of the message
+	 * @throws JMSException If the message could not be read
+	 */
+	public static CarMessage fromMessage(Message message) throws JMSException {
+		if (message instanceof BytesMessage) {
+			BytesMessage bytesMessage = (BytesMessage) message;
+			byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+			bytesMessage.readBytes(bytes);
+			return decode(bytes);
+		}
+
+		ObjectMessage objectMessage = (ObjectMessage) message;
+		String operationString = objectMessage.getStringProperty(JMSGroups.GLOBAL.toString());
+		JMSOperations operation = JMSOperations.valueOf(operationString);
+		return new CarMessage((Car) objectMessage.getObject(), operation);
+	}
+
+	private static byte[] toBytes(String value) {
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	/**
+	 * Buffer that grows as the bytes are written
+	 */
+	private static final class Writer {
+		private byte[] buffer;
+		private int position;
+
+		Writer(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) value;
+		}
+
+		/**
+		 * Writes a number in zig-zag encoding, so the small negative numbers are also short
+		 */
+		void writeLong(long value) {
+			ensureCapacity(10);
+			long zigZag = (value << 1) ^ (value >> 63);
+			while ((zigZag & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+				zigZag >>>= 7;
+			}
+			buffer[position++] = (byte) zigZag;
+		}
+
+		void writeBytes(byte[] bytes) {
+			writeLong(bytes.length);
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void ensureCapacity(int length) {
+			if (position + length > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+		}
+	}
+
+	/**
+	 * Reader of the bytes of a message, that fails if they end before the expected fields
+	 */
+	private static final class Reader {
+		private final byte[] buffer;
+		private int position;
+
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		int readByte() throws MessageFormatException {
+			if (position >= buffer.length)
+				throw new MessageFormatException("The car message is truncated");
+			return buffer[position++] & 0xFF;
+		}
+
+		long readLong() throws MessageFormatException {
+			long zigZag = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				zigZag |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return (zigZag >>> 1) ^ -(zigZag & 1);
+			}
+			throw new MessageFormatException("Malformed number in the car message");
+		}
+
+		String readString() throws MessageFormatException {
+			long length = readLong();
+			if (length < 0 || length > buffer.length - position)
+				throw new MessageFormatException("The car message is truncated");
+			String value = new String(buffer, position, (int) length, StandardCharsets.UTF_8);
+			position += (int) length;
+			return value;
+		}
+	}
+}
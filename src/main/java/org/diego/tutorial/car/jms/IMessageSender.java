@@ -1,5 +1,7 @@
 package org.diego.tutorial.car.jms;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.ejb.Local;
 
 import org.diego.tutorial.car.model.Car;
@@ -13,18 +15,21 @@ public interface IMessageSender {
 	/**
 	 * Method that sends a message to the queue, to create a new car
 	 * @param car Car that should be created
+	 * @return Future completed when the message has been sent, or completed exceptionally if it could not be sent
 	 */
-	public void sendCreateCar(Car car);
+	public CompletableFuture<Void> sendCreateCar(Car car);
 	
 	/**
 	 * Method that sends a message to the queue, to update a car
-	 * @param car Car that should be updated
+	 * @param car Car that should be updated, with the version that was read, as the car is only updated if it has not changed
+	 * @return Future completed when the message has been sent, or completed exceptionally if it could not be sent
 	 */
-	public void sendUpdateCar(Car car);
+	public CompletableFuture<Void> sendUpdateCar(Car car);
 	
 	/**
 	 * Method that sends a message to the queue, to remove a car
-	 * @param car Car that should be removed
+	 * @param car Car that should be removed, with the version that was read, as the car is only removed if it has not changed
+	 * @return Future completed when the message has been sent, or completed exceptionally if it could not be sent
 	 */
-	public void sendRemoveCar(Car car);
+	public CompletableFuture<Void> sendRemoveCar(Car car);
 }
@@ -0,0 +1,354 @@
+package org.diego.tutorial.car.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.exceptions.VersionConflictException;
+import org.diego.tutorial.car.metrics.OperationRecorder;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.OperationStatistics;
+import org.diego.tutorial.car.model.service.CarService;
+
+/**
+ * Class that consumes the messages of the queue in batches, to drain a backlog faster than the
+ * {@link JMSReceiver}, that applies every message in its own transaction. <p>
+ * A dedicated thread receives every batch in a new JTA transaction, where the container enlists the
+ * JMSContext: up to a maximum number of messages, or for up to a maximum time since the first one. The 
+ * operations on the same car are collapsed into rounds with a single change per car, and the rounds are 
+ * applied in the same transaction with JDBC batches (see {@link CarService#applyChanges(List, List)}). The 
+ * messages are acknowledged and the changes are stored in the same commit, so a batch is never applied twice nor lost
+ * (the connection factory and the data source must both be XA, or the container must commit the last one 
+ * with the last agent optimization). If the batch cannot be applied, the transaction is rolled back, and the 
+ * redelivered messages are applied one by one, each in its own transaction, so a wrong message does not 
+ * block the rest. A message that still cannot be applied after {@value #MAX_DELIVERIES} deliveries is skipped. <p>
+ * It consumes its own queue (jms/carsBatchQueue), where the {@link JMSSender} sends the messages while it is 
+ * enabled, as the {@link JMSReceiver} would consume them out of order if both competed on the same queue. So 
+ * jms/carsQueue should be drained before enabling it, and jms/carsBatchQueue before disabling it. <p>
+ * It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/jms/consumer/batch/enabled: whether the messages are also consumed in batches.</li>
+ * <li>cars/jms/consumer/batch/maxSize: maximum number of messages of a batch.</li>
+ * <li>cars/jms/consumer/batch/maxWaitMillis: maximum time waiting for more messages after the first one of a batch, in milliseconds.</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class JMSBatchReceiver {
+	/**
+	 * Maximum number of times a message is delivered before it is skipped
+	 */
+	static final int MAX_DELIVERIES = 5;
+	/**
+	 * Property of the messages with the number of times they have been delivered, set by the broker
+	 */
+	private static final String DELIVERY_COUNT_PROPERTY = "JMSXDeliveryCount";
+	/**
+	 * Time waiting for the first message of a batch, in milliseconds
+	 */
+	private static final long RECEIVE_TIMEOUT_MILLIS = 1000;
+	/**
+	 * Time waiting before receiving again after an error that is not caused by the messages, in milliseconds
+	 */
+	private static final long RETRY_DELAY_MILLIS = 1000;
+
+	@Resource(name = "cars/jms/consumer/batch/enabled")
+	private boolean enabled = false;
+	@Resource(name = "cars/jms/consumer/batch/maxSize")
+	private int maxSize = 500;
+	@Resource(name = "cars/jms/consumer/batch/maxWaitMillis")
+	private long maxWaitMillis = 100;
+
+	@EJB
+	private CarService carService;
+	@Inject
+	@JMSConnectionFactory("jms/carsConnectionFactory")
+	private JMSContext context;
+	@Resource(mappedName = "jms/carsBatchQueue")
+	private Queue queue;
+	@Resource
+	private ManagedThreadFactory managedThreadFactory;
+	@Resource
+	private SessionContext sessionContext;
+
+	private Thread receiver;
+	private volatile boolean running;
+	/**
+	 * Number of messages received in the current transaction, so they are known if it is rolled back
+	 */
+	private int received;
+	/**
+	 * Number of messages of the last batch that could not be applied, that are still applied one by one when redelivered
+	 */
+	private int pendingOneByOne;
+
+	private final OperationRecorder batchRecorder = new OperationRecorder();
+
+	private final static Logger LOGGER = Logger.getLogger(JMSBatchReceiver.class);
+
+	/**
+	 * Method that starts the thread that receives the batches. It is created by the container, so it can
+	 * call the EJBs of the application.
+	 */
+	@PostConstruct
+	public void start() {
+		if (!enabled)
+			return;
+		ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+		running = true;
+		receiver = threadFactory.newThread(this::receiveBatches);
+		receiver.start();
+		LOGGER.info("Batch consumer of JMS messages enabled, with up to " + maxSize + " messages and " + maxWaitMillis + " ms of wait");
+	}
+
+	/**
+	 * Method that stops the thread that receives the batches, once the current batch has been applied.
+	 */
+	@PreDestroy
+	public void stop() {
+		running = false;
+		if (receiver == null)
+			return;
+		try {
+			receiver.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		receiver = null;
+	}
+
+	/**
+	 * Method that gets the statistics of the batches received: batches, messages (as rows) and latency of
+	 * applying and committing them.
+	 * @return Statistics of the batches
+	 */
+	public OperationStatistics getBatchStatistics() {
+		return batchRecorder.toStatistics("receivedBatch");
+	}
+
+	/**
+	 * Method executed by the thread of the receiver, that receives the batches through the business object
+	 * of the receiver, so every batch has its own transaction.
+	 */
+	void receiveBatches() {
+		JMSBatchReceiver businessObject = sessionContext.getBusinessObject(JMSBatchReceiver.class);
+		while (running) {
+			receiveBatch(businessObject);
+		}
+		LOGGER.info("Batch consumer of JMS messages stopped");
+	}
+
+	/**
+	 * Method that receives and applies a batch of messages in its own transaction, or a single message if the
+	 * last batch could not be applied. If the transaction is rolled back, the messages are redelivered.
+	 * @param businessObject Business object of the receiver, that starts the transaction
+	 * @return Whether any message was received
+	 */
+	boolean receiveBatch(JMSBatchReceiver businessObject) {
+		boolean oneByOne = pendingOneByOne > 0;
+		long start = System.nanoTime();
+		try {
+			int committed = businessObject.receiveInTransaction(oneByOne);
+			if (committed == 0)
+				return false;
+			batchRecorder.record(System.nanoTime() - start, committed, false);
+			if (oneByOne)
+				pendingOneByOne--;
+			return true;
+		} catch (RuntimeException e) {
+			batchRecorder.record(System.nanoTime() - start, 0, true);
+			if (!oneByOne && received > 0) {
+				LOGGER.warn("Error applying a batch of " + received + " JMS messages, they are applied again one by one: " + e.getMessage());
+				pendingOneByOne = received;
+			} else {
+				LOGGER.warn("Error in the batch receiver JMS, receiving again: " + e.getMessage());
+				sleep(RETRY_DELAY_MILLIS);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Method that receives a batch of messages and applies it, in a new transaction. The messages are
+	 * acknowledged when the transaction is committed, once this method returns.
+	 * @param oneByOne Whether a single message is received, because the last batch could not be applied
+	 * @return Number of messages received
+	 */
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public int receiveInTransaction(boolean oneByOne) {
+		received = 0;
+		try (JMSConsumer consumer = context.createConsumer(queue)) {
+			Message first = consumer.receive(RECEIVE_TIMEOUT_MILLIS);
+			if (first == null)
+				return 0;
+
+			int maxMessages = oneByOne ? 1 : maxSize;
+			List<CarMessage> batch = new ArrayList<CarMessage>(maxMessages);
+			addMessage(batch, first);
+			received = 1;
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+			while (received < maxMessages) {
+				long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				Message next = remainingMillis > 0 ? consumer.receive(remainingMillis) : consumer.receiveNoWait();
+				if (next == null)
+					break;
+				addMessage(batch, next);
+				received++;
+			}
+
+			if (oneByOne)
+				applyOneByOne(batch);
+			else
+				applyBatch(batch);
+			return received;
+		}
+	}
+
+	/**
+	 * Method that collapses the operations of a batch on the same car and applies them, a round of
+	 * changes after another.
+	 */
+	private void applyBatch(List<CarMessage> batch) {
+		List<Car> newCars = new ArrayList<Car>();
+		List<List<Car>> rounds = collapse(batch, newCars);
+		int applied = rounds.isEmpty() ? carService.applyChanges(newCars, Collections.<Car>emptyList()) : 0;
+		for (int i = 0; i < rounds.size(); i++) {
+			List<Car> round = rounds.get(i);
+			applied += carService.applyChanges(i == 0 ? newCars : Collections.<Car>emptyList(), round);
+		}
+		LOGGER.info("Batch of " + batch.size() + " JMS messages applied in " + rounds.size() + " rounds to " + applied + " cars");
+	}
+
+	/**
+	 * Method that applies the messages of a batch one by one. As with the {@link JMSReceiver}, the messages 
+	 * of cars that do not exist, or updates and removals of another version, are skipped, because
+	 * they cannot be applied when redelivered either. Any other error rolls back the transaction.
+	 */
+	private void applyOneByOne(List<CarMessage> batch) {
+		for (CarMessage carMessage : batch) {
+			try {
+				JMSReceiver.apply(carService, carMessage);
+			} catch (DataNotFoundException | VersionConflictException e) {
+				LOGGER.warn("The JMS message " + carMessage.getOperation() + " of the car " + carMessage.getCar().getId()
+						+ " could not be applied: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Method that collapses the operations of a batch into the new cars and rounds of changes of the existing 
+	 * cars, with at most one change per car in every round:
+	 * <ul>
+	 * <li>Every creation is a new car.</li>
+	 * <li>An update is a change with the car, and a removal is a change with only the soft-removed flag and 
+	 * its version.</li>
+	 * <li>An update or a removal without version, as the legacy messages, is applied unconditionally, as
+	 * {@link CarService#updateCar(Car)} and {@link CarService#softRemoveCar(long, Long)} do. So it replaces 
+	 * the previous change of the car when that one has no version either.</li>
+	 * <li>Otherwise, the operation is a change of the car in the round after its previous change. A change with
+	 * version is never merged with the previous one: the stored version is incremented once per change, so
+	 * the following operations of the senders, with the next version, can be applied in the next round, while
+	 * an operation with a version that conflicts with the previous one is skipped by its own round.</li>
+	 * </ul>
+	 * @param batch Messages of the batch, in the order they were received
+	 * @param newCars List where the new cars are added
+	 * @return Rounds of changes of the existing cars, that should be applied in order
+	 */
+	static List<List<Car>> collapse(List<CarMessage> batch, List<Car> newCars) {
+		List<Map<Long, Car>> rounds = new ArrayList<Map<Long, Car>>();
+		Map<Long, Integer> lastRounds = new HashMap<Long, Integer>();
+		for (CarMessage carMessage : batch) {
+			Car car = carMessage.getCar();
+			if (carMessage.getOperation() == JMSOperations.CREATE) {
+				newCars.add(car);
+				continue;
+			}
+			if (car.getId() <= 0) {
+				LOGGER.warn("The JMS message " + carMessage.getOperation() + " of a car that does not exist is skipped");
+				continue;
+			}
+
+			Integer lastRound = lastRounds.get(car.getId());
+			Car previous = lastRound == null ? null : rounds.get(lastRound).get(car.getId());
+			Car change = car;
+			if (carMessage.getOperation() == JMSOperations.DELETE) {
+				if (previous != null && previous.getVersion() == null && car.getVersion() == null) {
+					previous.setSoftRemoved(true);
+					continue;
+				}
+				change = new Car();
+				change.setId(car.getId());
+				change.setSoftRemoved(true);
+				change.setVersion(car.getVersion());
+			} else if (previous != null && previous.getVersion() == null && car.getVersion() == null) {
+				rounds.get(lastRound).put(car.getId(), car);
+				continue;
+			}
+
+			int round = lastRound == null ? 0 : lastRound + 1;
+			if (round == rounds.size())
+				rounds.add(new LinkedHashMap<Long, Car>());
+			rounds.get(round).put(car.getId(), change);
+			lastRounds.put(car.getId(), round);
+		}
+		List<List<Car>> changedCars = new ArrayList<List<Car>>(rounds.size());
+		for (Map<Long, Car> round : rounds) {
+			changedCars.add(new ArrayList<Car>(round.values()));
+		}
+		return changedCars;
+	}
+
+	/**
+	 * Method that reads a message and adds it to the batch. The messages that cannot be read, or that have 
+	 * been delivered too many times, are skipped.
+	 */
+	private void addMessage(List<CarMessage> batch, Message message) {
+		try {
+			if (message.getIntProperty(DELIVERY_COUNT_PROPERTY) > MAX_DELIVERIES) {
+				LOGGER.warn("A JMS message delivered more than " + MAX_DELIVERIES + " times is skipped");
+				return;
+			}
+			batch.add(CarMessageCodec.fromMessage(message));
+		} catch (JMSException | RuntimeException e) {
+			LOGGER.warn("A JMS message that could not be read is skipped: " + e.getMessage());
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+}
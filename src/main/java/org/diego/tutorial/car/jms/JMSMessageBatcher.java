@@ -0,0 +1,326 @@
+package org.diego.tutorial.car.jms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import javax.jms.BytesMessage;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.JMSProducer;
+import javax.jms.Queue;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.metrics.OperationRecorder;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.OperationStatistics;
+
+/**
+ * Class that groups the messages sent to the queue in batches, so a batch of messages pays a single
+ * commit of a JTA transaction instead of one per message. <p>
+ * The messages are kept in a bounded buffer. A message submitted in a transaction only enters the buffer
+ * once that transaction has committed, so the changes rolled back by the caller are not published, and it
+ * is discarded if the transaction is rolled back. A dedicated thread takes the messages and sends a batch 
+ * when it reaches the maximum size, or when the linger time has passed since its first message. The batch
+ * is sent in a new JTA transaction, where the container enlists the JMSContext, so its messages reach the 
+ * queue together when it commits. <p>
+ * Every message has a future that is completed once its batch is committed, or completed exceptionally if 
+ * the transaction is rolled back. The messages are sent at most once, after the commit of the caller: a 
+ * failed batch is not sent again, as its messages may have reached the queue if the commit failed after 
+ * the broker had committed its part. When the buffer is full, because the broker is slower than the 
+ * senders, the senders wait for room, and their messages are rejected if there is none before the timeout. <p>
+ * It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/jms/batch/enabled: whether the messages are sent in batches (true) or one by one (false).</li>
+ * <li>cars/jms/batch/lingerMillis: maximum time a message waits for more messages to fill its batch, in milliseconds.</li>
+ * <li>cars/jms/batch/maxSize: maximum number of messages of a batch.</li>
+ * <li>cars/jms/batch/bufferCapacity: maximum number of messages waiting to be sent.</li>
+ * <li>cars/jms/batch/offerTimeoutMillis: maximum time waiting for room in the buffer, in milliseconds.</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class JMSMessageBatcher {
+	@Resource(name = "cars/jms/batch/enabled")
+	private boolean enabled = false;
+	@Resource(name = "cars/jms/batch/lingerMillis")
+	private long lingerMillis = 5;
+	@Resource(name = "cars/jms/batch/maxSize")
+	private int maxSize = 100;
+	@Resource(name = "cars/jms/batch/bufferCapacity")
+	private int bufferCapacity = 10000;
+	@Resource(name = "cars/jms/batch/offerTimeoutMillis")
+	private long offerTimeoutMillis = 1000;
+
+	@Inject
+	@JMSConnectionFactory("jms/carsConnectionFactory")
+	private JMSContext context;
+	@EJB
+	private JMSMetrics metrics;
+	@Resource
+	private ManagedThreadFactory managedThreadFactory;
+	@Resource
+	private SessionContext sessionContext;
+	@Resource
+	private TransactionSynchronizationRegistry transactionRegistry;
+
+	private BlockingQueue<PendingMessage> buffer;
+	private Thread sender;
+	private volatile boolean running;
+	private volatile boolean stopped;
+
+	private final LongAdder rejectedMessages = new LongAdder();
+	private final OperationRecorder batchRecorder = new OperationRecorder();
+
+	private final static Logger LOGGER = Logger.getLogger(JMSMessageBatcher.class);
+
+	/**
+	 * Method that starts the thread that sends the batches. It is created by the container, so it can
+	 * call the EJBs of the application.
+	 */
+	@PostConstruct
+	public void start() {
+		buffer = new ArrayBlockingQueue<PendingMessage>(bufferCapacity);
+		if (!enabled)
+			return;
+		ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+		running = true;
+		sender = threadFactory.newThread(this::sendBatches);
+		sender.start();
+		LOGGER.info("Batches of JMS messages enabled, with up to " + maxSize + " messages and " + lingerMillis + " ms of linger");
+	}
+
+	/**
+	 * Method that stops the thread that sends the batches, once the messages of the buffer have been sent.
+	 */
+	@PreDestroy
+	public void stop() {
+		stopped = true;
+		running = false;
+		if (sender == null)
+			return;
+		try {
+			sender.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sender = null;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Method that adds a message to the buffer, waiting for room if it is full. If there is an active 
+	 * transaction, the message is added once it commits, and discarded if it is rolled back.
+	 * @param destination Queue where the message is sent
+	 * @param car Car sent in the message
+	 * @param operation Operation requested by the message
+	 * @param groupId Message group of the car, or null if it has none
+	 * @return Future completed when the batch of the message is committed
+	 */
+	public CompletableFuture<Void> submit(Queue destination, Car car, JMSOperations operation, String groupId) {
+		PendingMessage message = new PendingMessage(destination, car, operation, groupId);
+		if (transactionRegistry == null || transactionRegistry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+			enqueue(message);
+			return message.future;
+		}
+		
+		transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				if (status == Status.STATUS_COMMITTED)
+					enqueue(message);
+				else
+					message.future.completeExceptionally(new JMSException("The transaction of the message was rolled back"));
+			}
+		});
+		return message.future;
+	}
+
+	/**
+	 * Method that adds a message to the buffer, waiting for room if it is full, or rejects it.
+	 */
+	private void enqueue(PendingMessage message) {
+		try {
+			if (stopped || !buffer.offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				rejectedMessages.increment();
+				message.future.completeExceptionally(new JMSException("The buffer of JMS messages is full"));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejectedMessages.increment();
+			message.future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Method that gets the number of messages waiting to be sent.
+	 * @return Messages in the buffer
+	 */
+	public int getBufferedMessages() {
+		return buffer.size();
+	}
+
+	/**
+	 * Method that gets the number of messages rejected because the buffer was full.
+	 * @return Messages rejected
+	 */
+	public long getRejectedMessages() {
+		return rejectedMessages.sum();
+	}
+
+	/**
+	 * Method that gets the statistics of the batches sent: batches, messages (as rows) and latency of the commits.
+	 * @return Statistics of the batches
+	 */
+	public OperationStatistics getBatchStatistics() {
+		return batchRecorder.toStatistics("batch");
+	}
+
+	/**
+	 * Method executed by the thread of the batcher, that takes the messages of the buffer in batches and sends them.
+	 */
+	void sendBatches() {
+		List<PendingMessage> batch = new ArrayList<PendingMessage>(maxSize);
+		while (running || !buffer.isEmpty()) {
+			try {
+				if (fillBatch(batch))
+					sendBatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			} catch (RuntimeException e) {
+				LOGGER.error("Unexpected error sending a batch of JMS messages", e);
+				for (PendingMessage message : batch) {
+					message.future.completeExceptionally(e);
+				}
+			}
+			batch.clear();
+		}
+		LOGGER.info("Batches of JMS messages stopped");
+	}
+
+	/**
+	 * Method that waits for the first message of a batch, and then for the next ones until the batch is full
+	 * or the linger time has passed.
+	 * @return Whether the batch has any message
+	 */
+	boolean fillBatch(List<PendingMessage> batch) throws InterruptedException {
+		PendingMessage first = buffer.poll(100, TimeUnit.MILLISECONDS);
+		if (first == null)
+			return false;
+		batch.add(first);
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		while (batch.size() < maxSize) {
+			if (buffer.drainTo(batch, maxSize - batch.size()) > 0)
+				continue;
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				break;
+			PendingMessage next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+			if (next == null)
+				break;
+			batch.add(next);
+		}
+		return true;
+	}
+
+	/**
+	 * Method that sends a batch of messages in its own transaction and completes their futures once it
+	 * has been committed, or exceptionally if it has been rolled back.
+	 */
+	void sendBatch(List<PendingMessage> batch) {
+		long start = System.nanoTime();
+		Exception error = null;
+		try {
+			sessionContext.getBusinessObject(JMSMessageBatcher.class).sendInTransaction(batch);
+		} catch (JMSException | RuntimeException e) {
+			LOGGER.warn("Error in the sender JMS, a batch of " + batch.size() + " messages was not sent: " + e.getMessage());
+			error = e;
+		}
+
+		long elapsedNanos = System.nanoTime() - start;
+		batchRecorder.record(elapsedNanos, error == null ? batch.size() : 0, error != null);
+		metrics.recordSend(elapsedNanos, batch.size(), error != null);
+		for (PendingMessage message : batch) {
+			if (error == null)
+				message.future.complete(null);
+			else
+				message.future.completeExceptionally(error);
+		}
+	}
+
+	/**
+	 * Method that sends the messages of a batch through the context, with a single producer, in a new
+	 * transaction. The messages reach the queue when the transaction is committed, once this method returns.
+	 * @param batch Messages of the batch
+	 * @throws JMSException If a message could not be created. Then, the transaction is rolled back
+	 */
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public void sendInTransaction(List<PendingMessage> batch) throws JMSException {
+		try {
+			JMSProducer producer = context.createProducer();
+			for (PendingMessage message : batch) {
+				BytesMessage bytesMessage = CarMessageCodec.toMessage(context, message.payload, message.operation, message.groupId);
+				producer.send(message.destination, bytesMessage);
+			}
+		} catch (JMSException e) {
+			sessionContext.setRollbackOnly();
+			throw e;
+		}
+	}
+
+	/**
+	 * Message waiting in the buffer, already encoded so the car may change after it is submitted, 
+	 * with the future of its sender
+	 */
+	public static final class PendingMessage {
+		private final Queue destination;
+		private final byte[] payload;
+		private final JMSOperations operation;
+		private final String groupId;
+		private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+		PendingMessage(Queue destination, Car car, JMSOperations operation, String groupId) {
+			this.destination = destination;
+			this.payload = CarMessageCodec.encode(car, operation);
+			this.operation = operation;
+			this.groupId = groupId;
+		}
+
+		CompletableFuture<Void> getFuture() {
+			return future;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package org.diego.tutorial.car.jms;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+
+import org.diego.tutorial.car.metrics.OperationRecorder;
+import org.diego.tutorial.car.model.JMSStatistics;
+
+/**
+ * Class that keeps the latency of the messages sent to the queue, shared by the instances of
+ * {@link JMSSender} and the {@link JMSMessageBatcher}. The connections and sessions are managed 
+ * by the container, through the injected JMSContext.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class JMSMetrics {
+	private final OperationRecorder sendRecorder = new OperationRecorder();
+
+	/**
+	 * Method that records a set of messages sent together (or that could not be sent).
+	 * @param elapsedNanos Time spent sending the messages
+	 * @param messages Number of messages
+	 * @param failed Whether the messages could not be sent
+	 */
+	public void recordSend(long elapsedNanos, int messages, boolean failed) {
+		sendRecorder.record(elapsedNanos, failed ? 0 : messages, failed);
+	}
+
+	/**
+	 * Method that gets the latency of the messages sent.
+	 * @return Statistics of the messages sent
+	 */
+	public JMSStatistics getStatistics() {
+		JMSStatistics statistics = new JMSStatistics();
+		statistics.setSend(sendRecorder.toStatistics("send"));
+		return statistics;
+	}
+}
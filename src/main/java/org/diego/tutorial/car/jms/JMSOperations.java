@@ -1,9 +1,35 @@
 package org.diego.tutorial.car.jms;
 
 /**
- * Set of valid operations that can be used in our JMS
+ * Set of valid operations that can be used in our JMS. Every operation has a fixed code, that
+ * is written in the messages of the {@link CarMessageCodec}, so the operations can be reordered 
+ * or added without changing the meaning of the messages already sent. The code of an operation
+ * must never change, nor be reused.
  *
  */
 public enum JMSOperations {
-	CREATE, UPDATE, DELETE;
+	CREATE(0), UPDATE(1), DELETE(2);
+	
+	private final byte code;
+	
+	private JMSOperations(int code) {
+		this.code = (byte) code;
+	}
+	
+	public byte getCode() {
+		return code;
+	}
+	
+	/**
+	 * Method that gets the operation of a code.
+	 * @param code Code of the operation
+	 * @return Operation with the code, or null if there is none
+	 */
+	public static JMSOperations fromCode(int code) {
+		for (JMSOperations operation : values()) {
+			if (operation.code == code)
+				return operation;
+		}
+		return null;
+	}
 }
@@ -5,15 +5,22 @@ import javax.ejb.MessageDriven;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageListener;
-import javax.jms.ObjectMessage;
 
 import org.apache.log4j.Logger;
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.exceptions.VersionConflictException;
 import org.diego.tutorial.car.model.Car;
 import org.diego.tutorial.car.model.service.CarService;
 
 /**
  * Message driven that it is invoked by the EJB
- * container when there is a new message in the queue
+ * container when there is a new message in the queue. <p>
+ * The pool has as many instances as message groups (max-pool-size of the bean in glassfish-ejb-jar.xml,
+ * and cars/jms/groups). The messages carry a message group per car (see 
+ * {@link CarMessageCodec#groupId(org.diego.tutorial.car.model.Car, int)}), so a broker that honors 
+ * JMSXGroupID delivers the messages of a car in order to a single instance. The embedded broker (OpenMQ)
+ * ignores them, but the updates and removals with a version are only applied to the version of the car 
+ * that was sent, so a message applied out of order is skipped instead of overwriting a newer change.
  *
  */
 @MessageDriven(
@@ -27,34 +34,47 @@ public class JMSReceiver implements MessageListener {
 	
 	/**
 	 * Method that reads a message from the queue, and then call the appropriate method in the 
-	 * {@link CarService} class
+	 * {@link CarService} class. The messages are decoded by the {@link CarMessageCodec}, that also
+	 * accepts the legacy ObjectMessages. <p>
+	 * The messages of cars that do not exist, or updates and removals of another version, cannot be applied
+	 * when redelivered either, so they are skipped. The updates and removals without version, as the legacy
+	 * ObjectMessages, are applied unconditionally.
 	 */
 	@Override
 	public void onMessage(Message message) {
-		ObjectMessage objectMessage = (ObjectMessage) message;
 		try {
-			String operationString = objectMessage.getStringProperty(JMSGroups.GLOBAL.toString());
-			JMSOperations operation = JMSOperations.valueOf(operationString); 
-			Car car = (Car) objectMessage.getObject();
-			
-			LOGGER.info("Received message, Operation: " + operationString + ", Car: " + car);
-			
-			switch (operation) {
-				case CREATE:
-					carService.addCar(car);
-					LOGGER.info("Car added: " + car);
-					break;
-				case UPDATE:
-					carService.updateCar(car);
-					LOGGER.info("Car updated: " + car);
-					break;
-				case DELETE:
-					carService.softRemoveCar(car.getId());
-					LOGGER.info("Car soft-removed: " + car);
-					break;
-			}
+			apply(carService, CarMessageCodec.fromMessage(message));
 		} catch (JMSException e) {
 			LOGGER.warn("Error in the receiver JMS: " + e.getMessage());
+		} catch (DataNotFoundException | VersionConflictException e) {
+			LOGGER.warn("The JMS message could not be applied: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Method that applies the operation of a message through the appropriate method of the {@link CarService} class
+	 * @param carService Service of cars
+	 * @param carMessage Message read from the queue
+	 */
+	static void apply(CarService carService, CarMessage carMessage) {
+		JMSOperations operation = carMessage.getOperation();
+		Car car = carMessage.getCar();
+		
+		LOGGER.info("Received message, Operation: " + operation + ", Car: " + car);
+		
+		switch (operation) {
+			case CREATE:
+				carService.addCar(car);
+				LOGGER.info("Car added: " + car);
+				break;
+			case UPDATE:
+				Car carUpdated = carService.updateCar(car);
+				LOGGER.info("Car updated: " + carUpdated);
+				break;
+			case DELETE:
+				carService.softRemoveCar(car.getId(), car.getVersion());
+				LOGGER.info("Car soft-removed: " + car);
+				break;
 		}
 	}
 
@@ -1,72 +1,104 @@
 package org.diego.tutorial.car.jms;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.Stateless;
-import javax.jms.Connection;
-import javax.jms.ConnectionFactory;
+import javax.inject.Inject;
+import javax.jms.BytesMessage;
+import javax.jms.JMSConnectionFactory;
+import javax.jms.JMSContext;
 import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
+import javax.jms.JMSRuntimeException;
 import javax.jms.Queue;
-import javax.jms.Session;
 
 import org.apache.log4j.Logger;
 import org.diego.tutorial.car.model.Car;
 
 /**
- * Class that creates a connection to the queue and sends a message
- * through it.
+ * Class that sends messages to the queue through the JMSContext managed by the container, or 
+ * in batches through the {@link JMSMessageBatcher} if they are enabled. The container pools the 
+ * connections and enlists the context in the transaction of the caller, if there is one. <p>
+ * The messages carry the version of the car, that the {@link JMSReceiver} requires to update or remove it.
+ * They are also sent with the message group of the car (JMSXGroupID), one of the cars/jms/groups groups, 
+ * so the operations on a car are consumed in order by a broker that honors the groups, even if the 
+ * {@link JMSReceiver} consumes the messages in parallel. <p>
+ * When the {@link JMSBatchReceiver} is enabled, the messages are sent to its own queue instead, as the 
+ * {@link JMSReceiver} would consume them out of order if both competed on the same queue.
  *
  */
 @Stateless
 public class JMSSender implements IMessageSender {
 	
-	@Resource(name = "jms/carsConnectionFactory")
-	private ConnectionFactory connectionFactory;
+	@Inject
+	@JMSConnectionFactory("jms/carsConnectionFactory")
+	private JMSContext context;
+	@EJB
+	private JMSMetrics metrics;
+	@EJB
+	private JMSMessageBatcher messageBatcher;
 	
 	@Resource(mappedName = "jms/carsQueue")
 	private Queue queue;
+	@Resource(mappedName = "jms/carsBatchQueue")
+	private Queue batchQueue;
+	@Resource(name = "cars/jms/consumer/batch/enabled")
+	private boolean batchConsumer = false;
+	@Resource(name = "cars/jms/groups")
+	private int groups = 64;
 	
 	private final static Logger LOGGER = Logger.getLogger(JMSSender.class);
 	
 	@Override
-	public void sendCreateCar(Car car) {
-		sendMessage(car, JMSGroups.GLOBAL, JMSOperations.CREATE);
+	public CompletableFuture<Void> sendCreateCar(Car car) {
+		return sendMessage(car, JMSOperations.CREATE);
 	}
 	
 	@Override
-	public void sendUpdateCar(Car car) {
-		sendMessage(car, JMSGroups.GLOBAL, JMSOperations.UPDATE);
+	public CompletableFuture<Void> sendUpdateCar(Car car) {
+		return sendMessage(car, JMSOperations.UPDATE);
 	}
 	
 	@Override
-	public void sendRemoveCar(Car car) {
-		sendMessage(car, JMSGroups.GLOBAL, JMSOperations.DELETE);
+	public CompletableFuture<Void> sendRemoveCar(Car car) {
+		return sendMessage(car, JMSOperations.DELETE);
 	}
 	
-	private void sendMessage(Car car, JMSGroups group, JMSOperations operation) {
-		Connection connection = null;
-		Session session = null;
+	/**
+	 * Method that sends a message, in a batch if the batches are enabled, or right away through the context.
+	 */
+	private CompletableFuture<Void> sendMessage(Car car, JMSOperations operation) {
+		String groupId = CarMessageCodec.groupId(car, groups);
+		Queue destination = batchConsumer ? batchQueue : queue;
+		if (messageBatcher.isEnabled())
+			return messageBatcher.submit(destination, car, operation, groupId);
+		
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
 		try {
-			connection = connectionFactory.createConnection();
-			session = connection.createSession(true, 0);
-			
-			ObjectMessage message = session.createObjectMessage(car);
-			message.setStringProperty(group.toString(), operation.toString());
-			
-			MessageProducer producer = session.createProducer(queue);
-			producer.send(message);
-		}catch (JMSException e) {
+			sendNow(destination, car, operation, groupId);
+			future.complete(null);
+		} catch (JMSException | JMSRuntimeException e) {
 			LOGGER.warn("Error in the sender JMS: " + e.getMessage());
-		}finally {
-			try {
-				if (connection != null)
-					connection.close();
-				if (session != null)
-					session.close();
-			} catch (JMSException e) {
-				LOGGER.info("JMSException: " + e.getMessage());
-			}
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
+	/**
+	 * Method that sends a message through the context. It is not sent again if it fails, as it may
+	 * have reached the broker anyway.
+	 */
+	private void sendNow(Queue destination, Car car, JMSOperations operation, String groupId) throws JMSException {
+		long start = System.nanoTime();
+		byte[] payload = CarMessageCodec.encode(car, operation);
+		boolean failed = true;
+		try {
+			BytesMessage message = CarMessageCodec.toMessage(context, payload, operation, groupId);
+			context.createProducer().send(destination, message);
+			failed = false;
+		} finally {
+			metrics.recordSend(System.nanoTime() - start, 1, failed);
 		}
 	}
 }
@@ -0,0 +1,110 @@
+package org.diego.tutorial.car.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.diego.tutorial.car.model.OperationStatistics;
+
+/**
+ * Class that keeps the counters of an operation: calls, errors, rows and a histogram of its latency. 
+ * They are updated without locks, so the calls of an operation do not contend with each other.
+ *
+ */
+public final class OperationRecorder {
+	/**
+	 * Upper bounds, in milliseconds, of the buckets of the latency histograms. There is
+	 * one more bucket for the calls slower than the last bound.
+	 */
+	static final long[] BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+	
+	private final LongAdder count = new LongAdder();
+	private final LongAdder errorCount = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+	private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MILLIS.length + 1];
+	
+	public OperationRecorder() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Method that records a call to the operation.
+	 * @param elapsedNanos Duration of the call, in nanoseconds
+	 * @param rows Rows (or items) processed by the call
+	 * @param failed Whether the call failed
+	 */
+	public void record(long elapsedNanos, long rows, boolean failed) {
+		count.increment();
+		if (failed)
+			errorCount.increment();
+		this.rows.add(rows);
+		totalNanos.add(elapsedNanos);
+		maxNanos.accumulate(elapsedNanos);
+		buckets[bucketOf(elapsedNanos)].increment();
+	}
+	
+	/**
+	 * Method that gets the statistics of the calls recorded so far.
+	 * @param operation Name of the operation
+	 * @return Statistics of the operation
+	 */
+	public OperationStatistics toStatistics(String operation) {
+		long[] bucketCounts = new long[buckets.length];
+		long total = 0;
+		Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < buckets.length; i++) {
+			bucketCounts[i] = buckets[i].sum();
+			total += bucketCounts[i];
+			histogram.put(i < BUCKET_BOUNDS_MILLIS.length ? String.valueOf(BUCKET_BOUNDS_MILLIS[i]) : "+Inf", bucketCounts[i]);
+		}
+		
+		OperationStatistics statistics = new OperationStatistics();
+		statistics.setOperation(operation);
+		statistics.setCount(count.sum());
+		statistics.setErrorCount(errorCount.sum());
+		statistics.setRows(rows.sum());
+		statistics.setTotalMillis(toMillis(totalNanos.sum()));
+		double maxMillis = toMillis(maxNanos.get());
+		statistics.setMaxMillis(maxMillis);
+		statistics.setP50Millis(percentile(bucketCounts, total, 0.50, maxMillis));
+		statistics.setP95Millis(percentile(bucketCounts, total, 0.95, maxMillis));
+		statistics.setP99Millis(percentile(bucketCounts, total, 0.99, maxMillis));
+		statistics.setLatencyHistogram(histogram);
+		return statistics;
+	}
+	
+	private static int bucketOf(long elapsedNanos) {
+		for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+			if (elapsedNanos <= TimeUnit.MILLISECONDS.toNanos(BUCKET_BOUNDS_MILLIS[i]))
+				return i;
+		}
+		return BUCKET_BOUNDS_MILLIS.length;
+	}
+	
+	/**
+	 * Method that estimates a percentile of the latency as the upper bound of the bucket where it 
+	 * falls, which is never greater than the maximum latency.
+	 */
+	private static double percentile(long[] bucketCounts, long total, double percentile, double maxMillis) {
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * percentile);
+		long accumulated = 0;
+		for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+			accumulated += bucketCounts[i];
+			if (accumulated >= rank)
+				return Math.min(BUCKET_BOUNDS_MILLIS[i], maxMillis);
+		}
+		return maxMillis;
+	}
+	
+	private static double toMillis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+}
@@ -0,0 +1,104 @@
+package org.diego.tutorial.car.model;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Class that represents the statistics of a cache region, such as the
+ * second-level cache of the {@link Car} entities or the near cache of cars.
+ *
+ */
+@XmlRootElement
+public class CacheStatistics {
+	private String region;
+	private long hitCount;
+	private long missCount;
+	private long putCount;
+	private long elementCount;
+	private Long evictionCount;
+	private Integer maximumSize;
+
+	public CacheStatistics() {
+	}
+
+	public CacheStatistics(String region, long hitCount, long missCount, long putCount, long elementCount) {
+		this.region = region;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.putCount = putCount;
+		this.elementCount = elementCount;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public void setRegion(String region) {
+		this.region = region;
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public void setHitCount(long hitCount) {
+		this.hitCount = hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	public void setMissCount(long missCount) {
+		this.missCount = missCount;
+	}
+
+	public long getPutCount() {
+		return putCount;
+	}
+
+	public void setPutCount(long putCount) {
+		this.putCount = putCount;
+	}
+
+	public long getElementCount() {
+		return elementCount;
+	}
+
+	public void setElementCount(long elementCount) {
+		this.elementCount = elementCount;
+	}
+
+	/**
+	 * Number of elements evicted to keep the cache within its maximum size
+	 * @return Elements evicted, or null if the cache does not count them
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public Long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public void setEvictionCount(Long evictionCount) {
+		this.evictionCount = evictionCount;
+	}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public Integer getMaximumSize() {
+		return maximumSize;
+	}
+
+	public void setMaximumSize(Integer maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * Ratio of lookups served by the cache
+	 * @return Hits divided by lookups, or 0 if there has not been any lookup
+	 */
+	public double getHitRatio() {
+		long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double) hitCount / lookups;
+	}
+
+}
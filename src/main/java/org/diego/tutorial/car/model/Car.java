@@ -2,23 +2,34 @@ package org.diego.tutorial.car.model;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import javax.ws.rs.DefaultValue;
 import javax.validation.constraints.NotNull;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.diego.tutorial.car.validations.AddAndUpdateChecks;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 /**
  * Entity that represents a persistence domain object. This entity is persisted 
@@ -28,15 +39,41 @@ import org.diego.tutorial.car.validations.AddAndUpdateChecks;
  */
 @XmlRootElement
 @Entity
-@Table(name = "car")
+@Table(name = "car", indexes = {
+		// Country lookups are paginated by ID, so both columns are in the index
+		@Index(name = "car_country_id_idx", columnList = "country, id")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Car.CACHE_REGION)
 public class Car implements Serializable {
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = -4239800821516578196L;
+	
+	/**
+	 * Region of the second-level cache where the cars are stored
+	 */
+	public static final String CACHE_REGION = "car";
+	
+	/**
+	 * Number of identifiers reserved from the sequence on each round trip
+	 */
+	public static final int ID_ALLOCATION_SIZE = 50;
+	
+	/**
+	 * Persisted fields of a car, that can be selected individually
+	 */
+	public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+			"id", "brand", "registration", "country", "createdAt", "lastUpdated", "softRemoved", "softRemovedAt", "version"));
 
+	/**
+	 * The identifiers are taken from a sequence in blocks of {@link #ID_ALLOCATION_SIZE}, 
+	 * so Hibernate can batch the inserts (an identity column needs an insert per row to know the ID).
+	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "car_id_generator")
+	@SequenceGenerator(name = "car_id_generator", sequenceName = "car_id_seq", allocationSize = Car.ID_ALLOCATION_SIZE)
 	private long id;
 	
 	@Column(nullable = false)
@@ -62,12 +99,19 @@ public class Car implements Serializable {
 	@NotNull(message = "Updated date cannot be null")
 	private Date lastUpdated;
 
-	@Transient // Links are not stored in database
-	private List<Link> links = new ArrayList<Link>();
+	@Transient // Links are not stored in database. Created when the first link is added
+	private List<Link> links;
 
 	@DefaultValue(value = "false")
 	private boolean softRemoved;
 
+	// Only the soft removed cars have this date, so they are the only ones in its (partial) index
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date softRemovedAt;
+
+	@Version // Incremented on every update, to detect concurrent modifications
+	private Long version;
+
 	public Car() {
 	}
 
@@ -129,6 +173,7 @@ public class Car implements Serializable {
 		this.lastUpdated = lastUpdated;
 	}
 
+	@JsonInclude(JsonInclude.Include.NON_NULL)
 	public List<Link> getLinks() {
 		return links;
 	}
@@ -141,11 +186,25 @@ public class Car implements Serializable {
 		Link link = new Link();
 		link.setLink(url);
 		link.setRel(rel);
+		if (this.links == null)
+			this.links = new ArrayList<Link>(1);
 		this.links.add(link);
 	}
 
 	public void removeLinks() {
-		links.clear();
+		links = null;
+	}
+
+	/**
+	 * Method that normalizes the name of a country, so every car from the same country is
+	 * stored with the same value and can be searched by equality.
+	 * @param country Name of the country
+	 * @return Name of the country without surrounding spaces and in lower case, or null if it is null
+	 */
+	public static String normalizeCountry(String country) {
+		if (country == null)
+			return null;
+		return country.trim().toLowerCase(Locale.ROOT);
 	}
 
 	public boolean isSoftRemoved() {
@@ -156,9 +215,26 @@ public class Car implements Serializable {
 		this.softRemoved = softRemoved;
 	}
 
+	public Date getSoftRemovedAt() {
+		return softRemovedAt;
+	}
+
+	public void setSoftRemovedAt(Date softRemovedAt) {
+		this.softRemovedAt = softRemovedAt;
+	}
+
+	public Long getVersion() {
+		return version;
+	}
+
+	public void setVersion(Long version) {
+		this.version = version;
+	}
+
 	@Override
 	public String toString() {
 		return "Car [id: " + id + ", brand: " + brand + ", country: " + country + ", registration: " + registration
-				+ ", createdAt: " + createdAt + ", lastUpdated: " + lastUpdated + ", softRemoved: " + softRemoved + "]";
+				+ ", createdAt: " + createdAt + ", lastUpdated: " + lastUpdated + ", softRemoved: " + softRemoved 
+				+ ", softRemovedAt: " + softRemovedAt + ", version: " + version + "]";
 	}
 }
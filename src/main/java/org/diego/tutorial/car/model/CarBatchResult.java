@@ -0,0 +1,68 @@
+package org.diego.tutorial.car.model;
+
+import java.util.List;
+
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the result of one of the cars sent in a batch request.
+ * <p>
+ * Each result will have:
+ * <ul>
+ * <li>The position of the car in the batch.</li>
+ * <li>A {@link Status} code, indicating if the car was created or not.</li>
+ * <li>The identifier of the car, if it was created.</li>
+ * <li>The validation errors, if it was not created.</li>
+ * </ul>
+ */
+@XmlRootElement
+public class CarBatchResult {
+	private int index;
+	private int status;
+	private long id;
+	private List<String> errors;
+	
+	public CarBatchResult() {
+	}
+	
+	public CarBatchResult(int index, int status, long id, List<String> errors) {
+		this.index = index;
+		this.status = status;
+		this.id = id;
+		this.errors = errors;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+}
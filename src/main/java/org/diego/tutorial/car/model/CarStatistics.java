@@ -0,0 +1,95 @@
+package org.diego.tutorial.car.model;
+
+import java.util.Date;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the aggregated statistics of the cars stored, computed
+ * in the database instead of counting the cars on the client side.
+ *
+ */
+@XmlRootElement
+public class CarStatistics {
+	private long total;
+	private long softRemoved;
+	private Map<String, Long> countries;
+	private Map<String, Long> brands;
+	private Map<String, Long> createdByDay;
+	private Date generatedAt;
+	private Date expiresAt;
+
+	public CarStatistics() {
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	public long getSoftRemoved() {
+		return softRemoved;
+	}
+
+	public void setSoftRemoved(long softRemoved) {
+		this.softRemoved = softRemoved;
+	}
+
+	/**
+	 * Number of cars of every country, from the country with more cars
+	 * @return Cars by country
+	 */
+	public Map<String, Long> getCountries() {
+		return countries;
+	}
+
+	public void setCountries(Map<String, Long> countries) {
+		this.countries = countries;
+	}
+
+	/**
+	 * Number of cars of every brand, from the brand with more cars
+	 * @return Cars by brand
+	 */
+	public Map<String, Long> getBrands() {
+		return brands;
+	}
+
+	public void setBrands(Map<String, Long> brands) {
+		this.brands = brands;
+	}
+
+	/**
+	 * Number of cars created on every day (yyyy-MM-dd) of the last days, from the oldest day.
+	 * The days without cars created are not included
+	 * @return Cars created by day
+	 */
+	public Map<String, Long> getCreatedByDay() {
+		return createdByDay;
+	}
+
+	public void setCreatedByDay(Map<String, Long> createdByDay) {
+		this.createdByDay = createdByDay;
+	}
+
+	public Date getGeneratedAt() {
+		return generatedAt;
+	}
+
+	public void setGeneratedAt(Date generatedAt) {
+		this.generatedAt = generatedAt;
+	}
+
+	public Date getExpiresAt() {
+		return expiresAt;
+	}
+
+	public void setExpiresAt(Date expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+}
@@ -0,0 +1,88 @@
+package org.diego.tutorial.car.model;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the state of a pool of threads, such as the one that
+ * serves the requests of the REST service.
+ *
+ */
+@XmlRootElement
+public class ExecutorStatistics {
+	private boolean async;
+	private int poolSize;
+	private int activeThreads;
+	private int queueDepth;
+	private int queueCapacity;
+	private long completedTasks;
+	private long rejectedTasks;
+	private long timedOutTasks;
+
+	public ExecutorStatistics() {
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getActiveThreads() {
+		return activeThreads;
+	}
+
+	public void setActiveThreads(int activeThreads) {
+		this.activeThreads = activeThreads;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	public void setCompletedTasks(long completedTasks) {
+		this.completedTasks = completedTasks;
+	}
+
+	public long getRejectedTasks() {
+		return rejectedTasks;
+	}
+
+	public void setRejectedTasks(long rejectedTasks) {
+		this.rejectedTasks = rejectedTasks;
+	}
+
+	public long getTimedOutTasks() {
+		return timedOutTasks;
+	}
+
+	public void setTimedOutTasks(long timedOutTasks) {
+		this.timedOutTasks = timedOutTasks;
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.diego.tutorial.car.model;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the state of the JMS messaging, such as the latency of the messages sent,
+ * and of the batches of messages sent and received.
+ *
+ */
+@XmlRootElement
+public class JMSStatistics {
+	private OperationStatistics send;
+	private int bufferedMessages;
+	private long rejectedMessages;
+	private OperationStatistics batches;
+	private OperationStatistics receivedBatches;
+
+	public JMSStatistics() {
+	}
+
+	public OperationStatistics getSend() {
+		return send;
+	}
+
+	public void setSend(OperationStatistics send) {
+		this.send = send;
+	}
+
+	public int getBufferedMessages() {
+		return bufferedMessages;
+	}
+
+	public void setBufferedMessages(int bufferedMessages) {
+		this.bufferedMessages = bufferedMessages;
+	}
+
+	public long getRejectedMessages() {
+		return rejectedMessages;
+	}
+
+	public void setRejectedMessages(long rejectedMessages) {
+		this.rejectedMessages = rejectedMessages;
+	}
+
+	public OperationStatistics getBatches() {
+		return batches;
+	}
+
+	public void setBatches(OperationStatistics batches) {
+		this.batches = batches;
+	}
+
+	public OperationStatistics getReceivedBatches() {
+		return receivedBatches;
+	}
+
+	public void setReceivedBatches(OperationStatistics receivedBatches) {
+		this.receivedBatches = receivedBatches;
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.diego.tutorial.car.model;
+
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the statistics of an operation of the persistence layer, such as
+ * the number of calls, the rows returned and the distribution of its latency.
+ *
+ */
+@XmlRootElement
+public class OperationStatistics {
+	private String operation;
+	private long count;
+	private long errorCount;
+	private long rows;
+	private double totalMillis;
+	private double maxMillis;
+	private double p50Millis;
+	private double p95Millis;
+	private double p99Millis;
+	private Map<String, Long> latencyHistogram;
+
+	public OperationStatistics() {
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public void setErrorCount(long errorCount) {
+		this.errorCount = errorCount;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public void setRows(long rows) {
+		this.rows = rows;
+	}
+
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+
+	public void setTotalMillis(double totalMillis) {
+		this.totalMillis = totalMillis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	public void setMaxMillis(double maxMillis) {
+		this.maxMillis = maxMillis;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public void setP50Millis(double p50Millis) {
+		this.p50Millis = p50Millis;
+	}
+
+	public double getP95Millis() {
+		return p95Millis;
+	}
+
+	public void setP95Millis(double p95Millis) {
+		this.p95Millis = p95Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public void setP99Millis(double p99Millis) {
+		this.p99Millis = p99Millis;
+	}
+
+	/**
+	 * Number of calls by latency. Every key is the upper bound of a bucket in milliseconds
+	 * ("+Inf" for the last one), and the calls of a bucket are not included in the following ones.
+	 * @return Calls of every bucket of latency
+	 */
+	public Map<String, Long> getLatencyHistogram() {
+		return latencyHistogram;
+	}
+
+	public void setLatencyHistogram(Map<String, Long> latencyHistogram) {
+		this.latencyHistogram = latencyHistogram;
+	}
+
+	/**
+	 * Mean latency of the operation
+	 * @return Total time divided by calls, or 0 if there has not been any call
+	 */
+	public double getMeanMillis() {
+		return count == 0 ? 0 : totalMillis / count;
+	}
+
+}
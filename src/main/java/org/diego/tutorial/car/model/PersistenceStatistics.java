@@ -0,0 +1,162 @@
+package org.diego.tutorial.car.model;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents the statistics of the persistence layer: the ones measured on every
+ * operation of the application, and the counters kept by Hibernate.
+ *
+ */
+@XmlRootElement
+public class PersistenceStatistics {
+	private List<OperationStatistics> operations;
+	private long entityLoadCount;
+	private long entityFetchCount;
+	private long entityInsertCount;
+	private long entityUpdateCount;
+	private long entityDeleteCount;
+	private long flushCount;
+	private long prepareStatementCount;
+	private long queryExecutionCount;
+	private long queryExecutionMaxTime;
+	private String queryExecutionMaxTimeQueryString;
+	private long secondLevelCacheHitCount;
+	private long secondLevelCacheMissCount;
+	private long secondLevelCachePutCount;
+	private long optimisticFailureCount;
+	private long transactionCount;
+
+	public PersistenceStatistics() {
+	}
+
+	public List<OperationStatistics> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(List<OperationStatistics> operations) {
+		this.operations = operations;
+	}
+
+	public long getEntityLoadCount() {
+		return entityLoadCount;
+	}
+
+	public void setEntityLoadCount(long entityLoadCount) {
+		this.entityLoadCount = entityLoadCount;
+	}
+
+	public long getEntityFetchCount() {
+		return entityFetchCount;
+	}
+
+	public void setEntityFetchCount(long entityFetchCount) {
+		this.entityFetchCount = entityFetchCount;
+	}
+
+	public long getEntityInsertCount() {
+		return entityInsertCount;
+	}
+
+	public void setEntityInsertCount(long entityInsertCount) {
+		this.entityInsertCount = entityInsertCount;
+	}
+
+	public long getEntityUpdateCount() {
+		return entityUpdateCount;
+	}
+
+	public void setEntityUpdateCount(long entityUpdateCount) {
+		this.entityUpdateCount = entityUpdateCount;
+	}
+
+	public long getEntityDeleteCount() {
+		return entityDeleteCount;
+	}
+
+	public void setEntityDeleteCount(long entityDeleteCount) {
+		this.entityDeleteCount = entityDeleteCount;
+	}
+
+	public long getFlushCount() {
+		return flushCount;
+	}
+
+	public void setFlushCount(long flushCount) {
+		this.flushCount = flushCount;
+	}
+
+	public long getPrepareStatementCount() {
+		return prepareStatementCount;
+	}
+
+	public void setPrepareStatementCount(long prepareStatementCount) {
+		this.prepareStatementCount = prepareStatementCount;
+	}
+
+	public long getQueryExecutionCount() {
+		return queryExecutionCount;
+	}
+
+	public void setQueryExecutionCount(long queryExecutionCount) {
+		this.queryExecutionCount = queryExecutionCount;
+	}
+
+	public long getQueryExecutionMaxTime() {
+		return queryExecutionMaxTime;
+	}
+
+	public void setQueryExecutionMaxTime(long queryExecutionMaxTime) {
+		this.queryExecutionMaxTime = queryExecutionMaxTime;
+	}
+
+	public String getQueryExecutionMaxTimeQueryString() {
+		return queryExecutionMaxTimeQueryString;
+	}
+
+	public void setQueryExecutionMaxTimeQueryString(String queryExecutionMaxTimeQueryString) {
+		this.queryExecutionMaxTimeQueryString = queryExecutionMaxTimeQueryString;
+	}
+
+	public long getSecondLevelCacheHitCount() {
+		return secondLevelCacheHitCount;
+	}
+
+	public void setSecondLevelCacheHitCount(long secondLevelCacheHitCount) {
+		this.secondLevelCacheHitCount = secondLevelCacheHitCount;
+	}
+
+	public long getSecondLevelCacheMissCount() {
+		return secondLevelCacheMissCount;
+	}
+
+	public void setSecondLevelCacheMissCount(long secondLevelCacheMissCount) {
+		this.secondLevelCacheMissCount = secondLevelCacheMissCount;
+	}
+
+	public long getSecondLevelCachePutCount() {
+		return secondLevelCachePutCount;
+	}
+
+	public void setSecondLevelCachePutCount(long secondLevelCachePutCount) {
+		this.secondLevelCachePutCount = secondLevelCachePutCount;
+	}
+
+	public long getOptimisticFailureCount() {
+		return optimisticFailureCount;
+	}
+
+	public void setOptimisticFailureCount(long optimisticFailureCount) {
+		this.optimisticFailureCount = optimisticFailureCount;
+	}
+
+	public long getTransactionCount() {
+		return transactionCount;
+	}
+
+	public void setTransactionCount(long transactionCount) {
+		this.transactionCount = transactionCount;
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.diego.tutorial.car.model;
+
+import java.util.Date;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Class that represents a call to the persistence layer that took longer than
+ * the threshold of the slow-query log.
+ *
+ */
+@XmlRootElement
+public class SlowQuery {
+	private String operation;
+	private String parameters;
+	private Date startedAt;
+	private double elapsedMillis;
+	private long rows;
+	private boolean failed;
+
+	public SlowQuery() {
+	}
+
+	public SlowQuery(String operation, String parameters, Date startedAt, double elapsedMillis, long rows, boolean failed) {
+		this.operation = operation;
+		this.parameters = parameters;
+		this.startedAt = startedAt;
+		this.elapsedMillis = elapsedMillis;
+		this.rows = rows;
+		this.failed = failed;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	public String getParameters() {
+		return parameters;
+	}
+
+	public void setParameters(String parameters) {
+		this.parameters = parameters;
+	}
+
+	public Date getStartedAt() {
+		return startedAt;
+	}
+
+	public void setStartedAt(Date startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	public double getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(double elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public void setRows(long rows) {
+		this.rows = rows;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQuery [operation: " + operation + ", elapsedMillis: " + elapsedMillis + ", rows: " + rows 
+				+ ", failed: " + failed + ", parameters: " + parameters + "]";
+	}
+}
@@ -0,0 +1,230 @@
+package org.diego.tutorial.car.model.service;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.cache.LongBloomFilter;
+import org.diego.tutorial.car.databases.ICarDatabase;
+
+/**
+ * Class that keeps a {@link LongBloomFilter} with the identifiers of the cars, so the cars that are in it can be
+ * read from the replica, while the ones that are not are looked up in the primary database. An identifier
+ * that is not in the filter is not trusted to be missing: the cars added by other nodes, that take their 
+ * identifiers from blocks of the sequence, or directly in the database, are not in it until it is built again
+ * or they are found in the primary database. <p>
+ * The filter is built with the identifiers of the database at startup and by a timer, and every car added 
+ * through this node is put in it before its transaction commits. The identifiers greater than the highest one
+ * read in the last build may always exist, and the filter is built again periodically. The removed cars cannot be taken out of the
+ * filter, so it is also built again when too many cars have been removed or added. Until the first filter is
+ * built, every identifier may exist. It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/idFilter/enabled: whether the identifiers are checked in the filter.</li>
+ * <li>cars/idFilter/expectedCars: minimum number of cars the filter is sized for.</li>
+ * <li>cars/idFilter/falsePositiveRate: ratio of identifiers that do not exist and still have to be checked in the database.</li>
+ * <li>cars/idFilter/rebuildMinutes: minutes after which the filter is built again, to include the cars added by other nodes.</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CarIdFilter {
+	/**
+	 * Ratio of the cars in the filter that can be removed before building it again
+	 */
+	private static final double MAX_REMOVED_RATIO = 0.1;
+
+	@Resource(name = "cars/idFilter/enabled")
+	private boolean enabled = true;
+	@Resource(name = "cars/idFilter/expectedCars")
+	private long expectedCars = 1000000;
+	@Resource(name = "cars/idFilter/falsePositiveRate")
+	private double falsePositiveRate = 0.01;
+	@Resource(name = "cars/idFilter/rebuildMinutes")
+	private long rebuildMinutes = 10;
+
+	@EJB(name = "cars/database", beanName = "JPAImplCar")
+	private ICarDatabase carDatabase;
+	@Resource
+	private TransactionSynchronizationRegistry transactionRegistry;
+
+	private volatile LongBloomFilter filter;
+	/**
+	 * Highest identifier read in the last build. The greater ones may have been added by other nodes
+	 */
+	private volatile long highestBuiltId = Long.MAX_VALUE;
+	/**
+	 * Time of the last build, in milliseconds since the epoch
+	 */
+	private volatile long builtAt;
+	/**
+	 * Filter being built, that also receives the cars added meanwhile
+	 */
+	private LongBloomFilter building;
+	/**
+	 * Cars added by the transactions that have not completed yet
+	 */
+	private final Set<Long> pending = ConcurrentHashMap.newKeySet();
+	private final ReadWriteLock buildLock = new ReentrantReadWriteLock();
+	private final AtomicLong removedSinceBuild = new AtomicLong();
+
+	private final static Logger LOGGER = Logger.getLogger(CarIdFilter.class);
+
+	/**
+	 * Method that checks if a car may exist, according to the cars known by this node.
+	 * @param id Identifier of the car
+	 * @return False if the car is not known by this node, so it must be looked up in the primary database, true if it may exist
+	 */
+	public boolean mightExist(long id) {
+		LongBloomFilter current = filter;
+		return !enabled || current == null || id > highestBuiltId || current.mightContain(id);
+	}
+
+	/**
+	 * Method that records a car added. It must be called before the transaction that adds the car commits.
+	 * @param id Identifier of the car
+	 */
+	public void add(long id) {
+		if (!enabled)
+			return;
+		buildLock.readLock().lock();
+		try {
+			LongBloomFilter current = filter;
+			if (current != null)
+				current.put(id);
+			if (building != null)
+				building.put(id);
+			trackUntilCompletion(id);
+		} finally {
+			buildLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method that records that some cars have been removed, so the filter is built again when they are too many.
+	 * @param count Number of cars removed
+	 */
+	public void recordRemovals(int count) {
+		removedSinceBuild.addAndGet(count);
+	}
+
+	/**
+	 * Method that builds the first filter when the application starts, so it does not wait for the timer.
+	 */
+	@PostConstruct
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void start() {
+		buildIfNeeded();
+	}
+
+	/**
+	 * Method executed every minute, that builds the filter if it has not been built yet or it is no longer
+	 * accurate: too many cars have been removed, there are more cars than the ones it was sized for, or it
+	 * was built before the rebuild period, so it may miss cars added by other nodes.
+	 */
+	@Schedule(hour = "*", minute = "*", persistent = false)
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void buildIfNeeded() {
+		if (enabled && needsBuild())
+			build();
+	}
+
+	boolean needsBuild() {
+		LongBloomFilter current = filter;
+		return current == null
+				|| current.getInsertions() > current.getExpectedInsertions()
+				|| removedSinceBuild.get() > current.getInsertions() * MAX_REMOVED_RATIO
+				|| System.currentTimeMillis() - builtAt >= TimeUnit.MINUTES.toMillis(rebuildMinutes);
+	}
+
+	/**
+	 * Method that builds a new filter with the identifiers of the database and replaces the current one. <p>
+	 * The cars added while it is built are also put in the new filter, and so are the cars added before by
+	 * transactions that had not completed yet, as the database may not return them.
+	 */
+	void build() {
+		long start = System.currentTimeMillis();
+		LongBloomFilter current = filter;
+		long expected = Math.max(expectedCars, current == null ? 0 : 2 * (current.getInsertions() - removedSinceBuild.get()));
+		LongBloomFilter newFilter = new LongBloomFilter(expected, falsePositiveRate);
+
+		buildLock.writeLock().lock();
+		try {
+			building = newFilter;
+			removedSinceBuild.set(0);
+			for (long id : new ArrayList<Long>(pending)) {
+				newFilter.put(id);
+			}
+		} finally {
+			buildLock.writeLock().unlock();
+		}
+
+		long ids;
+		AtomicLong highestId = new AtomicLong();
+		try {
+			ids = carDatabase.streamCarIds(id -> {
+				newFilter.put(id);
+				highestId.accumulateAndGet(id, Math::max);
+			});
+		} catch (RuntimeException e) {
+			buildLock.writeLock().lock();
+			try {
+				building = null;
+			} finally {
+				buildLock.writeLock().unlock();
+			}
+			LOGGER.error("The filter of the identifiers of the cars could not be built", e);
+			return;
+		}
+
+		buildLock.writeLock().lock();
+		try {
+			highestBuiltId = highestId.get();
+			builtAt = start;
+			filter = newFilter;
+			building = null;
+		} finally {
+			buildLock.writeLock().unlock();
+		}
+		LOGGER.info("Filter of the identifiers of the cars built with " + ids + " cars and " + newFilter.getBitCount()
+				+ " bits in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Method that keeps a car added as pending until its transaction completes, so a filter that
+	 * starts to be built meanwhile includes it.
+	 */
+	private void trackUntilCompletion(long id) {
+		if (transactionRegistry == null || transactionRegistry.getTransactionKey() == null)
+			return;
+		pending.add(id);
+		transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				pending.remove(id);
+			}
+		});
+	}
+}
@@ -0,0 +1,192 @@
+package org.diego.tutorial.car.model.service;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.cache.TinyLfuCache;
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.Car;
+
+/**
+ * Class that keeps in memory the cars read by their identifier, so the repeated reads of the same
+ * cars do not reach the persistence layer. <p>
+ * The cars are stored as immutable snapshots, and every read gets its own copy. The cache is bounded
+ * by a {@link TinyLfuCache}, so a scan of many cars read once does not evict the cars read often. <p>
+ * The writes invalidate the car when they are done and again when their transaction completes, and a
+ * car loaded before an invalidation is not stored, so the cache never keeps the data previous to a
+ * committed write. <p>
+ * The invalidations are local to the node: the writes of other nodes do not reach its cache, that would
+ * serve their stale cars (and ETags) for up to the TTL. So it is only meant for deployments of a single 
+ * node, and it is disabled by default. It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/nearCache/enabled: whether the cars are cached. Only for deployments of a single node.</li>
+ * <li>cars/nearCache/maximumSize: maximum number of cars kept.</li>
+ * <li>cars/nearCache/ttlMillis: time a car is kept since it was read, in milliseconds.</li>
+ * </ul>
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CarNearCache {
+	/**
+	 * Name of the cache in its statistics
+	 */
+	public static final String REGION = "car-near-cache";
+
+	@Resource(name = "cars/nearCache/enabled")
+	private boolean enabled = false;
+	@Resource(name = "cars/nearCache/maximumSize")
+	private int maximumSize = 10000;
+	@Resource(name = "cars/nearCache/ttlMillis")
+	private long ttlMillis = 60000;
+
+	@Resource
+	private TransactionSynchronizationRegistry transactionRegistry;
+
+	private TinyLfuCache<CarSnapshot> cache;
+	/**
+	 * Number of invalidations so far. A car is only stored if there has not been any invalidation since it was loaded
+	 */
+	private final AtomicLong invalidations = new AtomicLong();
+	private final AtomicLong putCount = new AtomicLong();
+
+	private final static Logger LOGGER = Logger.getLogger(CarNearCache.class);
+
+	@PostConstruct
+	public void init() {
+		cache = new TinyLfuCache<CarSnapshot>(maximumSize, ttlMillis);
+		LOGGER.info("Near cache of cars " + (enabled ? "enabled, with up to " + maximumSize + " cars for " + ttlMillis + " ms" : "disabled"));
+	}
+
+	/**
+	 * Method that gets a copy of a cached car.
+	 * @param id Identifier of the car
+	 * @return Copy of the car, or null if it is not cached
+	 */
+	public Car get(long id) {
+		if (!enabled)
+			return null;
+		CarSnapshot snapshot = cache.get(id);
+		return snapshot == null ? null : snapshot.toCar();
+	}
+
+	/**
+	 * Method that gets the stamp that has to be taken before loading a car that is going to be stored,
+	 * to know later if it has been invalidated meanwhile.
+	 * @return Current stamp
+	 */
+	public long getStamp() {
+		return invalidations.get();
+	}
+
+	/**
+	 * Method that stores a car loaded from the persistence layer, unless there has been an invalidation
+	 * since it was loaded, as it could be older than the data written.
+	 * @param car Car loaded
+	 * @param stamp Stamp taken before loading the car
+	 */
+	public void put(Car car, long stamp) {
+		if (!enabled || car == null)
+			return;
+		CarSnapshot snapshot = new CarSnapshot(car);
+		if (invalidations.get() != stamp)
+			return;
+		cache.put(snapshot.id, snapshot);
+		// An invalidation may have happened while the car was being stored
+		if (invalidations.get() != stamp)
+			cache.invalidate(snapshot.id);
+		else
+			putCount.incrementAndGet();
+	}
+
+	/**
+	 * Method that removes a car from the cache, now and when the current transaction (if any) completes,
+	 * so a read done before the write is committed does not leave the previous data in the cache.
+	 * @param id Identifier of the car
+	 */
+	public void invalidate(long id) {
+		if (!enabled)
+			return;
+		invalidateNow(id);
+		if (transactionRegistry != null && transactionRegistry.getTransactionKey() != null) {
+			transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+				@Override
+				public void beforeCompletion() {
+				}
+
+				@Override
+				public void afterCompletion(int status) {
+					invalidateNow(id);
+				}
+			});
+		}
+	}
+
+	private void invalidateNow(long id) {
+		invalidations.incrementAndGet();
+		cache.invalidate(id);
+	}
+
+	/**
+	 * Method that gets the statistics of the cache.
+	 * @return Hits, misses, cars stored, cars kept and cars evicted
+	 */
+	public CacheStatistics getStatistics() {
+		CacheStatistics statistics = new CacheStatistics(REGION, cache.getHitCount(), cache.getMissCount(),
+				putCount.get(), cache.size());
+		statistics.setEvictionCount(cache.getEvictionCount());
+		statistics.setMaximumSize(cache.getMaximumSize());
+		return statistics;
+	}
+
+	/**
+	 * Immutable copy of the persisted fields of a car
+	 */
+	private static final class CarSnapshot {
+		private final long id;
+		private final String brand;
+		private final long registration;
+		private final String country;
+		private final long createdAt;
+		private final long lastUpdated;
+		private final boolean softRemoved;
+		private final Long softRemovedAt;
+		private final Long version;
+
+		CarSnapshot(Car car) {
+			id = car.getId();
+			brand = car.getBrand();
+			registration = toTime(car.getRegistration());
+			country = car.getCountry();
+			createdAt = toTime(car.getCreatedAt());
+			lastUpdated = toTime(car.getLastUpdated());
+			softRemoved = car.isSoftRemoved();
+			softRemovedAt = car.getSoftRemovedAt() == null ? null : car.getSoftRemovedAt().getTime();
+			version = car.getVersion();
+		}
+
+		Car toCar() {
+			Car car = new Car(id, brand, toDate(registration), country, toDate(createdAt), toDate(lastUpdated));
+			car.setSoftRemoved(softRemoved);
+			car.setSoftRemovedAt(softRemovedAt == null ? null : new Date(softRemovedAt));
+			car.setVersion(version);
+			return car;
+		}
+
+		private static long toTime(Date date) {
+			return date == null ? Long.MIN_VALUE : date.getTime();
+		}
+
+		private static Date toDate(long time) {
+			return time == Long.MIN_VALUE ? null : new Date(time);
+		}
+	}
+}
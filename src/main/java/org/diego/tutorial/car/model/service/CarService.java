@@ -2,13 +2,21 @@ package org.diego.tutorial.car.model.service;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
-import org.diego.tutorial.car.databases.jpa.JPAImplCar;
+import org.diego.tutorial.car.databases.ICarDatabase;
 import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.exceptions.VersionConflictException;
+import org.diego.tutorial.car.model.CacheStatistics;
 import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.CarStatistics;
+import org.diego.tutorial.car.model.PersistenceStatistics;
 
 /**
  * Class that represents the service of Cars, in charge of doing the operations involving cars, 
@@ -17,8 +25,19 @@ import org.diego.tutorial.car.model.Car;
  */
 @Stateless
 public class CarService {
+	@EJB(name = "cars/database", beanName = "JPAImplCar")
+	private ICarDatabase carDatabase;
 	@EJB
-	private JPAImplCar jpaImpl;
+	private CarStatisticsCache statisticsCache;
+	@EJB
+	private CarNearCache nearCache;
+	@EJB
+	private CarIdFilter idFilter;
+	
+	/**
+	 * Number of cars read in every transaction of a stream of cars
+	 */
+	static final int STREAM_CHUNK_SIZE = 1000;
 	
 	private final static Logger LOGGER = Logger.getLogger(CarService.class);
 	
@@ -27,66 +46,168 @@ public class CarService {
 	}
 	
 	/**
-	 * Retrieves all cars from the database
-	 * @return All cars.
-	 */
-	public List<Car> getAllCars() {
-		LOGGER.info("Getting all the cars from the database.");
-		List<Car> cars = jpaImpl.getAll(Car.class);
-		LOGGER.info("All the cars retrieved from the database.");
-		return cars;
-	}
-	
-	/**
-	 * Retrieves a requested car given by an identifier.
+	 * Retrieves a requested car given by an identifier. The car is read from the near cache,
+	 * and only retrieved from the database (and then cached) if it is not there. It is retrieved from the
+	 * primary database, as a car read from a lagging replica would be cached until it is written again. A car
+	 * that is not in the filter of identifiers, as it was added by another node or directly in the database, is
+	 * put in it. <p>
+	 * If the car does not exist, an {@link DataNotFoundException} exception is thrown.
 	 * @param id Identifier of the requested car
 	 * @return Requested car
 	 */
 	public Car getCar(long id) {
+		Car car = nearCache.get(id);
+		if (car != null) {
+			LOGGER.debug("The car with ID " + id + " was retrieved from the near cache.");
+			return car;
+		}
+		
 		LOGGER.info("Getting the car with ID " + id + " from the database.");
-		Car car = null;
-		car = jpaImpl.get(Car.class, id);
+		long stamp = nearCache.getStamp();
+		car = carDatabase.getCarFromPrimary(id);
+		if (car == null) {
+			LOGGER.debug("The car with ID " + id + " does not exist.");
+			throw new DataNotFoundException(createErrorMessageCarDoesNotExist("get", id), false);
+		}
+		if (!idFilter.mightExist(id)) {
+			LOGGER.debug("The car with ID " + id + " was not in the filter of identifiers.");
+			idFilter.add(id);
+		}
+		nearCache.put(car, stamp);
 		LOGGER.info("The car with ID " + id + " was retrieved from the database.");
 		
 		return car;
 	}
 	
 	/**
-	 * Retrieves all cars from an specific country
-	 * @param country Requested country
-	 * @return List of car objects, whose country field is the same as the requested.
+	 * Retrieves the date of the last update of a car, from the near cache or without loading the whole car. <p>
+	 * A car that is not in the filter of identifiers may have been added by another node, and not have reached
+	 * the replica yet, so it is retrieved from the primary database, and put in the filter if it exists.
+	 * @param id Identifier of the car
+	 * @return Date of the last update, or null if the car does not exist
 	 */
-	public List<Car> getAllCarsFromCountry(String country){
-		LOGGER.info("Getting all the cars from the country '" + country + "'.");
-		List<Car> carsForCountry = jpaImpl.getAllCarsFromCountry(country);
-		LOGGER.info("All the cars from country '" + country + "' retrieved from the database.");
+	public Date getCarLastUpdated(long id) {
+		Car car = nearCache.get(id);
+		if (car != null)
+			return car.getLastUpdated();
+		if (idFilter.mightExist(id))
+			return carDatabase.getLastUpdated(id);
 		
+		car = carDatabase.getCarFromPrimary(id);
+		if (car == null)
+			return null;
+		LOGGER.debug("The car with ID " + id + " was not in the filter of identifiers.");
+		idFilter.add(id);
+		return car.getLastUpdated();
+	}
+	
+	/**
+	 * Retrieves a page of cars, ordered by their identifier.
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars to retrieve
+	 * @return Page of cars whose identifier is greater than afterId
+	 */
+	public List<Car> getCars(long afterId, int limit) {
+		LOGGER.info("Getting a page of " + limit + " cars after the ID " + afterId + " from the database.");
+		List<Car> cars = carDatabase.getCarsPage(afterId, limit);
+		LOGGER.info(cars.size() + " cars retrieved from the database.");
+		return cars;
+	}
+
+	/**
+	 * Retrieves a page of cars from an specific country, ordered by their identifier.
+	 * @param country Requested country
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars to retrieve
+	 * @return Page of cars from the requested country whose identifier is greater than afterId
+	 */
+	public List<Car> getCarsFromCountry(String country, long afterId, int limit) {
+		LOGGER.info("Getting a page of " + limit + " cars from the country '" + country + "' after the ID " + afterId + ".");
+		List<Car> carsForCountry = carDatabase.getCarsFromCountryPage(country, afterId, limit);
+		LOGGER.info(carsForCountry.size() + " cars from country '" + country + "' retrieved from the database.");
 		return carsForCountry;
 	}
+
+	/**
+	 * Searches a page of cars by their brand, ordered by their identifier. The brands that start with 
+	 * the term are found and, optionally, the ones similar to it.
+	 * @param brand Term searched
+	 * @param fuzzy Whether the brands similar to the term are also found
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars to retrieve
+	 * @return Page of cars found whose identifier is greater than afterId
+	 */
+	public List<Car> searchCarsByBrand(String brand, boolean fuzzy, long afterId, int limit) {
+		LOGGER.info("Searching a page of " + limit + " cars of the brand '" + brand + "'" + (fuzzy ? " or similar" : "")
+				+ " after the ID " + afterId + ".");
+		List<Car> cars = carDatabase.searchCarsByBrand(brand, fuzzy, afterId, limit);
+		LOGGER.info(cars.size() + " cars found in the database.");
+		return cars;
+	}
+
+	/**
+	 * Retrieves a page of cars (optionally, only the ones from a certain country), ordered by their identifier,
+	 * with only the requested fields.
+	 * @param fields Fields of the car that should be retrieved
+	 * @param country Requested country, or null to retrieve the cars from every country
+	 * @param afterId Identifier of the last car of the previous page (0 for the first page)
+	 * @param limit Maximum number of cars to retrieve
+	 * @return Page of cars, each one as a map from the name of the field to its value
+	 */
+	public List<Map<String, Object>> getCarFields(List<String> fields, String country, long afterId, int limit) {
+		LOGGER.info("Getting the fields " + fields + " of a page of " + limit + " cars after the ID " + afterId + ".");
+		List<Map<String, Object>> cars = carDatabase.getCarFieldsPage(fields, country, afterId, limit);
+		LOGGER.info(cars.size() + " cars retrieved from the database.");
+		return cars;
+	}
 	
 	/**
-	 * Gets all the soft removed cars from the system
-	 * @return Soft removed cars
+	 * Reads all the cars (optionally, only the ones from a certain country), ordered by their identifier, 
+	 * handing them one by one to the consumer, without keeping more than a chunk of them in memory. <p>
+	 * The cars are read in chunks of {@value #STREAM_CHUNK_SIZE} through keyset pagination, each one in its
+	 * own short transaction, and handed to the consumer outside of any transaction. So a long export, such as
+	 * one written to a slow client, does not reach the timeout of a transaction, that would end it with a 
+	 * truncated response.
+	 * @param country Requested country, or null to read all the cars
+	 * @param consumer Consumer that receives every car read
+	 * @return Number of cars read
 	 */
-	public List<Car> getAllSoftRemovedCars(){
-		LOGGER.info("Getting all the soft removed cars");
-		List<Car> carsSoftRemoved = jpaImpl.getAllSoftRemovedCars();
-		LOGGER.info("All the soft removed cars have been retrieved");
-		return carsSoftRemoved;
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED) // Every chunk has its own transaction
+	public long streamCars(String country, Consumer<Car> consumer) {
+		LOGGER.info("Streaming the cars" + (country != null ? " from the country '" + country + "'." : "."));
+		long carsRead = 0;
+		long afterId = 0;
+		List<Car> chunk;
+		do {
+			chunk = country != null ? carDatabase.getCarsFromCountryPage(country, afterId, STREAM_CHUNK_SIZE)
+					: carDatabase.getCarsPage(afterId, STREAM_CHUNK_SIZE);
+			for (Car car : chunk) {
+				consumer.accept(car);
+			}
+			carsRead += chunk.size();
+			if (!chunk.isEmpty())
+				afterId = chunk.get(chunk.size() - 1).getId();
+		} while (chunk.size() == STREAM_CHUNK_SIZE);
+		LOGGER.info(carsRead + " cars streamed from the database.");
+		return carsRead;
 	}
 	
 	/**
-	 * Method that adds a new car to the database
+	 * Method that adds a new car to the database. The country of the car is stored normalized
 	 * @param car Car that should be added
 	 * @return Car added
 	 */
 	public Car addCar(Car car) {
+		car.setCountry(Car.normalizeCountry(car.getCountry()));
 		car.setCreatedAt(new Date());
 		car.setLastUpdated(new Date());
 		car.setRegistration(new Date());
+		car.setSoftRemovedAt(car.isSoftRemoved() ? car.getLastUpdated() : null);
+		car.setVersion(null); // The version is assigned by the database
 		LOGGER.info("Adding the car: " + car);
 		
-		Car carAdded = jpaImpl.add(car);
+		Car carAdded = carDatabase.add(car);
+		idFilter.add(carAdded.getId());
 		
 		LOGGER.info("Car " + car + " added to the database.");
 		
@@ -94,79 +215,214 @@ public class CarService {
 	}
 	
 	/**
-	 * Method that updates an existing car in the database. <p>
-	 * If the car already exists, an {@link DataNotFoundException} exception is thrown.
+	 * Method that adds a list of new cars to the database in a single transaction. The cars
+	 * are inserted in JDBC batches.
+	 * @param cars Cars that should be added
+	 * @return Cars added, in the same order
+	 */
+	public List<Car> addCars(List<Car> cars) {
+		LOGGER.info("Adding " + cars.size() + " cars.");
+		for (Car car : cars) {
+			Date now = new Date();
+			car.setCountry(Car.normalizeCountry(car.getCountry()));
+			car.setCreatedAt(now);
+			car.setLastUpdated(now);
+			car.setRegistration(now);
+			car.setSoftRemovedAt(car.isSoftRemoved() ? now : null);
+			car.setVersion(null);
+		}
+		
+		List<Car> carsAdded = carDatabase.addAll(cars);
+		for (Car carAdded : carsAdded) {
+			idFilter.add(carAdded.getId());
+		}
+		
+		LOGGER.info(carsAdded.size() + " cars added to the database.");
+		
+		return carsAdded;
+	}
+	
+	/**
+	 * Method that updates an existing car in the database. The creation and registration dates of 
+	 * the car are not modified. <p>
+	 * When the car has the version that was read, it is only updated if it has not been modified since
+	 * that version was read. Otherwise, a {@link VersionConflictException} exception is thrown. A car without
+	 * version, as the legacy messages of the queue, is updated unconditionally. If the car does not exist, 
+	 * an {@link DataNotFoundException} exception is thrown.
 	 * @param car Car object that should be updated
-	 * @return Car updated
+	 * @return Car stored after the update, with its new version
 	 */
 	public Car updateCar(Car car) {
 		LOGGER.info("Updating the car: " + car);
 		long idCar = car.getId();
-		if (idCar <= 0 || !carAlreadyExists(idCar)) {
+		if (idCar <= 0) {
 			LOGGER.warn("The car that it is trying to get updated does not exist.");
 			throw new DataNotFoundException(createErrorMessageCarDoesNotExist("update", idCar));
 		}
-		Car carOld = getCar(idCar);
-		car.setCreatedAt(carOld.getCreatedAt());
-		car.setRegistration(carOld.getRegistration());
+		car.setCountry(Car.normalizeCountry(car.getCountry()));
 		car.setLastUpdated(new Date());
-		LOGGER.info("Car " + car + " updated");
-		return jpaImpl.update(car);
+		nearCache.invalidate(idCar);
+		
+		Car carUpdated = carDatabase.updateCar(car);
+		if (carUpdated == null) {
+			throwCarNotFoundOrConflict("update", idCar, car.getVersion());
+		}
+		LOGGER.info("Car " + carUpdated + " updated");
+		return carUpdated;
 	}
 	
 	/**
 	 * Method that soft-removes an existing car from the database. <p>
 	 * If the car does not exists, an {@link DataNotFoundException} exception is thrown.
 	 * @param id Identifier of the car that should be removed
-	 * @return Car soft-removed
+	 * @return Car soft-removed, with its new version
 	 */
 	public Car softRemoveCar(long id) {
 		LOGGER.info("Soft-removing the car with ID: " + id);
-		if (id <= 0 || !carAlreadyExists(id)) {
+		nearCache.invalidate(id);
+		Car carRemoved = id > 0 ? carDatabase.softRemoveCar(id, null, new Date()) : null;
+		if (carRemoved == null) {
 			LOGGER.warn("The car that it is trying to be soft-removed does not exist.");
 			throw new DataNotFoundException(createErrorMessageCarDoesNotExist("soft-remove", id));
 		}
-		
-		Car carSoftRemoved = getCar(id);
-		carSoftRemoved.setSoftRemoved(true);
 		LOGGER.info("The car with ID: " + id + " was soft-removed from the database");
-		return carSoftRemoved;
+		return carRemoved;
 	}
 	
 	/**
-	 * Method that completely removes an existing car from the database. <p>
-	 * If the car does not exists, an {@link DataNotFoundException} exception is thrown.
-	 * @param car Car object that should be removed
-	 * @return Car removed
-	 */
-	public Car removeCar(Car car) {
-		long id = car.getId();
-		LOGGER.info("Removing the car with ID: " + id);
-		if (id <= 0 || !carAlreadyExists(id)) {
-			LOGGER.warn("The car that it is trying to be removed does not exist.");
-			throw new DataNotFoundException(createErrorMessageCarDoesNotExist("remove", id));
+	 * Method that soft-removes an existing car from the database, only if it has not been modified
+	 * since the given version was read. Without version, as in the legacy messages of the queue, 
+	 * the car is soft-removed unconditionally. <p>
+	 * If the car does not exists, an {@link DataNotFoundException} exception is thrown. If the car has been
+	 * modified since that version, an {@link VersionConflictException} exception is thrown.
+	 * @param id Identifier of the car that should be removed
+	 * @param version Version of the car that was read
+	 * @return Car soft-removed, with its new version
+	 */
+	public Car softRemoveCar(long id, Long version) {
+		LOGGER.info("Soft-removing the version " + version + " of the car with ID: " + id);
+		if (id <= 0) {
+			LOGGER.warn("The car that it is trying to be soft-removed does not exist.");
+			throw new DataNotFoundException(createErrorMessageCarDoesNotExist("soft-remove", id));
 		}
-		
-		Car carRemoved = jpaImpl.delete(car);
-		LOGGER.info("The car with ID: " + id + " was removed from the database");
+		if (version == null) {
+			return softRemoveCar(id);
+		}
+		nearCache.invalidate(id);
+		Car carRemoved = carDatabase.softRemoveCar(id, version, new Date());
+		if (carRemoved == null) {
+			throwCarNotFoundOrConflict("soft-remove", id, version);
+		}
+		LOGGER.info("The car with ID: " + id + " was soft-removed from the database");
 		return carRemoved;
 	}
 	
 	/**
-	 * Method that checks if a car given by an identifier exists in the database
+	 * Method that applies a batch of changes in a single transaction: the new cars are inserted 
+	 * and the existing ones are updated in JDBC batches. A changed car without brand or country keeps 
+	 * the stored one, so a soft removal is a change with only the soft-removed flag. <p>
+	 * Unlike {@link #updateCar(Car)}, the changes of cars that do not exist or whose version has 
+	 * changed are skipped, so they do not roll back the rest of the batch.
+	 * @param newCars Cars that should be added
+	 * @param changedCars Cars that should be updated, at most one per identifier
+	 * @return Number of cars added or updated
+	 */
+	public int applyChanges(List<Car> newCars, List<Car> changedCars) {
+		if (!newCars.isEmpty())
+			addCars(newCars);
+		if (changedCars.isEmpty())
+			return newCars.size();
+		
+		Date now = new Date();
+		for (Car car : changedCars) {
+			car.setCountry(Car.normalizeCountry(car.getCountry()));
+			car.setLastUpdated(now);
+			nearCache.invalidate(car.getId());
+		}
+		int updated = carDatabase.updateCars(changedCars);
+		if (updated < changedCars.size())
+			LOGGER.warn((changedCars.size() - updated) + " changed cars were skipped, because they do not exist or their version has changed");
+		LOGGER.info(updated + " cars updated.");
+		return newCars.size() + updated;
+	}
+	
+	/**
+	 * Method that completely removes a chunk of the cars soft removed before a date, in its own
+	 * transaction, so the locks of the deleted rows are released as soon as the chunk is done.
+	 * @param removedBefore Date before which the cars were soft removed
+	 * @param chunkSize Maximum number of cars removed
+	 * @return Number of soft removed cars found for the chunk. If it is lower than the size of the chunk, there are no 
+	 * more soft removed cars. Some of them may not be removed, if they were restored or removed again meanwhile
+	 */
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public int removeSoftRemovedCars(Date removedBefore, int chunkSize) {
+		List<Long> ids = carDatabase.getSoftRemovedCarIds(removedBefore, chunkSize);
+		if (ids.isEmpty())
+			return 0;
+		
+		for (long id : ids) {
+			nearCache.invalidate(id);
+		}
+		int removed = carDatabase.deleteSoftRemovedCars(ids, removedBefore);
+		idFilter.recordRemovals(removed);
+		LOGGER.info(removed + " soft removed cars were removed from the database");
+		return ids.size();
+	}
+	
+	/**
+	 * Gets the aggregated statistics of the cars: cars by country and by brand, soft removed cars
+	 * and cars created by day. They are computed at most once per period of the cache.
+	 * @return Statistics of the cars
+	 */
+	public CarStatistics getCarStatistics() {
+		return statisticsCache.getStatistics();
+	}
+	
+	/**
+	 * Gets the statistics of the second-level cache where the cars are stored.
+	 * @return Statistics of the cache of cars
+	 */
+	public CacheStatistics getCacheStatistics() {
+		CacheStatistics statistics = carDatabase.getCacheStatistics(Car.CACHE_REGION);
+		if (statistics == null) {
+			throw new DataNotFoundException("The second-level cache of cars is not enabled");
+		}
+		return statistics;
+	}
+	
+	/**
+	 * Gets the statistics of the near cache of cars read by their identifier.
+	 * @return Statistics of the near cache
+	 */
+	public CacheStatistics getNearCacheStatistics() {
+		return nearCache.getStatistics();
+	}
+	
+	/**
+	 * Gets the counters kept by Hibernate, such as the entities loaded or the queries executed.
+	 * @return Statistics of the persistence layer
+	 */
+	public PersistenceStatistics getPersistenceStatistics() {
+		return carDatabase.getPersistenceStatistics();
+	}
+	
+	/**
+	 * Method that finds out why a car could not be written: it does not exist, or it has been modified
+	 * since the given version was read. This is only checked once the write has failed, so the writes
+	 * that succeed do not pay for it.
+	 * @param operation Operation (update/remove) that failed
 	 * @param id Identifier of the car
-	 * @return Boolean indicating if the car exists.
-	 */
-	private boolean carAlreadyExists(long id) {
-		LOGGER.info("Checking if the car with ID: " + id + " exists.");
-		try {
-			jpaImpl.get(Car.class, id);
-			LOGGER.info("The car with ID: " + id + " exists.");
-			return true;
-		} catch (DataNotFoundException e) {
-			LOGGER.info("The car with ID: " + id + " does not exist.");
-			return false;
+	 * @param version Version of the car expected by the operation
+	 */
+	private void throwCarNotFoundOrConflict(String operation, long id, Long version) {
+		Long currentVersion = carDatabase.getVersion(id);
+		if (currentVersion == null) {
+			LOGGER.warn("The car that it is trying to " + operation + " does not exist.");
+			throw new DataNotFoundException(createErrorMessageCarDoesNotExist(operation, id));
 		}
+		LOGGER.warn("The car that it is trying to " + operation + " has been modified concurrently.");
+		throw new VersionConflictException("Trying to " + operation + " the version " + version + " of the car with ID: " 
+				+ id + ", but its current version is " + currentVersion + ".");
 	}
 	
 	/**
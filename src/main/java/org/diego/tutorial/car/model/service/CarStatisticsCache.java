@@ -0,0 +1,101 @@
+package org.diego.tutorial.car.model.service;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.diego.tutorial.car.model.CarStatistics;
+
+/**
+ * Class that keeps the last statistics of the cars computed, so the repeated requests 
+ * of the statistics do not query the database. <p>
+ * The statistics are computed again by the first request after they expire, while the other 
+ * requests wait for them. It is configured through the following environment entries:
+ * <ul>
+ * <li>cars/stats/ttlMillis: time the statistics are kept, in milliseconds.</li>
+ * <li>cars/stats/days: number of days of the count of cars created by day.</li>
+ * </ul>
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CarStatisticsCache {
+	@Resource(name = "cars/stats/ttlMillis")
+	private long ttlMillis = 10000;
+	@Resource(name = "cars/stats/days")
+	private int days = 30;
+	
+	@EJB(name = "cars/database", beanName = "JPAImplCar")
+	private ICarDatabase carDatabase;
+	
+	private volatile CarStatistics statistics;
+	private final Object refreshLock = new Object();
+	
+	private final static Logger LOGGER = Logger.getLogger(CarStatisticsCache.class);
+	
+	/**
+	 * Method that gets the statistics of the cars, computing them if they have expired.
+	 * @return Statistics of the cars. They must not be modified, as they are shared by every request
+	 */
+	public CarStatistics getStatistics() {
+		CarStatistics current = statistics;
+		if (isFresh(current))
+			return current;
+		
+		synchronized (refreshLock) {
+			// Another request may have computed them while this one was waiting
+			current = statistics;
+			if (!isFresh(current)) {
+				current = computeStatistics();
+				statistics = current;
+			}
+			return current;
+		}
+	}
+	
+	private boolean isFresh(CarStatistics statistics) {
+		return statistics != null && statistics.getExpiresAt().getTime() > System.currentTimeMillis();
+	}
+	
+	/**
+	 * Method that computes the statistics of the cars with aggregate queries.
+	 * @return Statistics of the cars
+	 */
+	private CarStatistics computeStatistics() {
+		long start = System.currentTimeMillis();
+		Date since = new Date(start - TimeUnit.DAYS.toMillis(days));
+		
+		CarStatistics computed = new CarStatistics();
+		Map<String, Long> countries = carDatabase.countCarsByCountry();
+		long total = 0;
+		for (long count : countries.values()) {
+			total += count;
+		}
+		computed.setTotal(total);
+		computed.setCountries(countries);
+		computed.setBrands(carDatabase.countCarsByBrand());
+		computed.setSoftRemoved(carDatabase.countSoftRemovedCars());
+		
+		SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+		Map<String, Long> createdByDay = new LinkedHashMap<String, Long>();
+		for (Map.Entry<Date, Long> day : carDatabase.countCarsCreatedByDay(since).entrySet()) {
+			createdByDay.put(dayFormat.format(day.getKey()), day.getValue());
+		}
+		computed.setCreatedByDay(createdByDay);
+		
+		long end = System.currentTimeMillis();
+		computed.setGeneratedAt(new Date(end));
+		computed.setExpiresAt(new Date(end + ttlMillis));
+		LOGGER.info("Statistics of the cars computed in " + (end - start) + " ms");
+		return computed;
+	}
+}
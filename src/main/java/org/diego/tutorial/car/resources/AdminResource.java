@@ -0,0 +1,226 @@
+package org.diego.tutorial.car.resources;
+
+import java.util.List;
+
+import javax.ejb.EJB;
+import javax.ejb.Stateless;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.diego.tutorial.car.databases.jpa.PersistenceMetrics;
+import org.diego.tutorial.car.jms.JMSBatchReceiver;
+import org.diego.tutorial.car.jms.JMSMessageBatcher;
+import org.diego.tutorial.car.jms.JMSMetrics;
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.ExecutorStatistics;
+import org.diego.tutorial.car.model.JMSStatistics;
+import org.diego.tutorial.car.model.PersistenceStatistics;
+import org.diego.tutorial.car.model.SlowQuery;
+import org.diego.tutorial.car.model.service.CarService;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+
+/**
+ * Endpoint of our REST service with the administration methods, that
+ * expose information about the internal state of the application.
+ *
+ */
+@Path("/admin")
+@Produces(value = { MediaType.APPLICATION_JSON, MediaType.TEXT_XML })
+@Stateless
+public class AdminResource {
+	@EJB
+	private CarService carService;
+	@EJB
+	private CarResourceExecutor executor;
+	@EJB
+	private PersistenceMetrics persistenceMetrics;
+	@EJB
+	private JMSMetrics jmsMetrics;
+	@EJB
+	private JMSMessageBatcher messageBatcher;
+	@EJB
+	private JMSBatchReceiver batchReceiver;
+
+	/**
+	 * Method that retrieves the statistics of the second-level cache of cars.
+	 * @return Statistics of the cache
+	 */
+	@GET
+	@Path("/cache")
+	@Operation(summary = "Get the cache statistics",
+			description = "Retrieves the hits, misses and size of the second-level cache of cars",
+			responses = {
+					@ApiResponse(
+							description = "Cache statistics",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = CacheStatistics.class)
+				            )),
+					@ApiResponse(responseCode = "404", description = "Cache not enabled"),
+			})
+	public Response getCacheStatistics() {
+		CacheStatistics statistics = carService.getCacheStatistics();
+
+		return Response.ok()
+				.entity(statistics)
+				.build();
+	}
+	
+	/**
+	 * Method that retrieves the statistics of the near cache of cars read by their identifier.
+	 * @return Statistics of the near cache
+	 */
+	@GET
+	@Path("/near-cache")
+	@Operation(summary = "Get the near cache statistics",
+			description = "Retrieves the hits, misses, size and evictions of the near cache of cars read by their identifier",
+			responses = {
+					@ApiResponse(
+							description = "Near cache statistics",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = CacheStatistics.class)
+				            )),
+			})
+	public Response getNearCacheStatistics() {
+		CacheStatistics statistics = carService.getNearCacheStatistics();
+
+		return Response.ok()
+				.entity(statistics)
+				.build();
+	}
+	
+	/**
+	 * Method that retrieves the state of the pool of threads that serves the requests of cars.
+	 * @return Statistics of the pool
+	 */
+	@GET
+	@Path("/executor")
+	@Operation(summary = "Get the executor statistics",
+			description = "Retrieves the active threads, queue depth, rejected and timed out requests of the "
+					+ "pool of threads that serves the requests of cars",
+			responses = {
+					@ApiResponse(
+							description = "Executor statistics",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = ExecutorStatistics.class)
+				            )),
+			})
+	public Response getExecutorStatistics() {
+		ExecutorStatistics statistics = executor.getStatistics();
+
+		return Response.ok()
+				.entity(statistics)
+				.build();
+	}
+	
+	/**
+	 * Method that retrieves the latency of the JMS messages sent, and the batches sent and received.
+	 * @return Statistics of the JMS messages
+	 */
+	@GET
+	@Path("/jms")
+	@Operation(summary = "Get the JMS statistics",
+			description = "Retrieves the latency of the JMS messages sent, and the buffered messages and "
+					+ "batches sent and received when the batches are enabled",
+			responses = {
+					@ApiResponse(
+							description = "JMS statistics",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = JMSStatistics.class)
+				            )),
+			})
+	public Response getJMSStatistics() {
+		JMSStatistics statistics = jmsMetrics.getStatistics();
+		statistics.setBufferedMessages(messageBatcher.getBufferedMessages());
+		statistics.setRejectedMessages(messageBatcher.getRejectedMessages());
+		statistics.setBatches(messageBatcher.getBatchStatistics());
+		statistics.setReceivedBatches(batchReceiver.getBatchStatistics());
+
+		return Response.ok()
+				.entity(statistics)
+				.build();
+	}
+	
+	/**
+	 * Method that retrieves the metrics of the operations of the persistence layer, together
+	 * with the counters kept by Hibernate.
+	 * @return Statistics of the persistence layer
+	 */
+	@GET
+	@Path("/persistence")
+	@Operation(summary = "Get the persistence statistics",
+			description = "Retrieves the calls, rows and latency histogram of every operation of the persistence "
+					+ "layer, and the entity loads, flushes, queries and cache lookups counted by Hibernate",
+			responses = {
+					@ApiResponse(
+							description = "Persistence statistics",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = PersistenceStatistics.class)
+				            )),
+			})
+	public Response getPersistenceStatistics() {
+		PersistenceStatistics statistics = carService.getPersistenceStatistics();
+		statistics.setOperations(persistenceMetrics.getOperationStatistics());
+
+		return Response.ok()
+				.entity(statistics)
+				.build();
+	}
+	
+	/**
+	 * Method that retrieves the last calls to the persistence layer that were slower than the threshold.
+	 * @return List of slow calls, the most recent first
+	 */
+	@GET
+	@Path("/persistence/slow-queries")
+	@Operation(summary = "Get the slow queries",
+			description = "Retrieves the last calls to the persistence layer slower than the threshold "
+					+ "(cars/metrics/slowQueryMillis), the most recent first",
+			responses = {
+					@ApiResponse(
+							description = "Slow queries",
+							responseCode = "200",
+							content = @Content(
+									array = @ArraySchema(schema = @Schema(implementation = SlowQuery.class))
+				            )),
+			})
+	public Response getSlowQueries() {
+		List<SlowQuery> slowQueries = persistenceMetrics.getSlowQueries();
+
+		return Response.ok()
+				.entity(new GenericEntity<List<SlowQuery>>(slowQueries) {})
+				.build();
+	}
+	
+	/**
+	 * Method that discards the metrics of the persistence layer and the slow queries recorded so far.
+	 * @return Empty response
+	 */
+	@DELETE
+	@Path("/persistence")
+	@Operation(summary = "Reset the persistence statistics",
+			description = "Discards the metrics of the operations of the persistence layer and the slow queries",
+			responses = {
+					@ApiResponse(responseCode = "204", description = "Statistics discarded"),
+			})
+	public Response resetPersistenceStatistics() {
+		persistenceMetrics.reset();
+
+		return Response.noContent()
+				.build();
+	}
+}
@@ -0,0 +1,65 @@
+package org.diego.tutorial.car.resources;
+
+import java.util.List;
+
+import javax.ws.rs.core.UriInfo;
+
+import org.diego.tutorial.car.model.Car;
+
+/**
+ * Class that adds the links of the cars of a response. <p>
+ * The URI of the cars is built once per request, so the link of every car is just its
+ * identifier appended to that URI, without building it again.
+ *
+ */
+final class CarLinks {
+	private final String carsUri;
+
+	/**
+	 * Constructs the links of the cars under the given URI.
+	 * @param carsUri URI of the collection of cars, such as "http://localhost:8080/car/webapi/cars"
+	 */
+	CarLinks(String carsUri) {
+		this.carsUri = carsUri.endsWith("/") ? carsUri : carsUri + "/";
+	}
+
+	/**
+	 * Method that creates the links of the cars of a request.
+	 * @param uriInfo Information of the URI of the request
+	 * @return Links of the cars of the request
+	 */
+	static CarLinks of(UriInfo uriInfo) {
+		String carsUri = uriInfo.getBaseUriBuilder()
+				.path(CarResource.PATH)
+				.build()
+				.toString();
+		return new CarLinks(carsUri);
+	}
+
+	/**
+	 * Method that gets the URI of the car with the given ID.
+	 * @param id Identifier of the car
+	 * @return URI of the car
+	 */
+	String getSelf(long id) {
+		return carsUri + id;
+	}
+
+	/**
+	 * Method that adds the "self" link to a car.
+	 * @param car Car of the response
+	 */
+	void addSelfLink(Car car) {
+		car.addLink(getSelf(car.getId()), "self");
+	}
+
+	/**
+	 * Method that adds the "self" link to every car of a list.
+	 * @param cars Cars of the response
+	 */
+	void addSelfLinks(List<Car> cars) {
+		for (Car car : cars) {
+			addSelfLink(car);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.diego.tutorial.car.resources;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Media types used by the REST service, that are not included in {@link MediaType}.
+ *
+ */
+public final class CarMediaType {
+	/**
+	 * Newline delimited JSON, where every line of the body is a JSON object
+	 */
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+	public static final MediaType APPLICATION_NDJSON_TYPE = new MediaType("application", "x-ndjson");
+	/**
+	 * Concise Binary Object Representation (RFC 7049), a binary equivalent of JSON
+	 */
+	public static final String APPLICATION_CBOR = "application/cbor";
+	public static final MediaType APPLICATION_CBOR_TYPE = new MediaType("application", "cbor");
+	/**
+	 * Smile, the binary equivalent of JSON defined by Jackson
+	 */
+	public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+	public static final MediaType APPLICATION_SMILE_TYPE = new MediaType("application", "x-jackson-smile");
+
+	private CarMediaType() {
+	}
+}
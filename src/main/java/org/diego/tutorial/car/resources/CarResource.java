@@ -1,27 +1,49 @@
 package org.diego.tutorial.car.resources;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 
 import org.diego.tutorial.car.exceptions.BadRequestException;
+import org.diego.tutorial.car.exceptions.PreconditionRequiredException;
+import org.diego.tutorial.car.filters.Compress;
 import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.CarBatchResult;
+import org.diego.tutorial.car.model.CarStatistics;
 import org.diego.tutorial.car.model.service.CarService;
 import org.diego.tutorial.car.validations.CarValidator;
 
@@ -35,27 +57,72 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 
 /**
  * Endpoint of our REST service, that provides all the necessary methods
- * regarding cars.
+ * regarding cars. <p>
+ * The requests are served asynchronously by the {@link CarResourceExecutor}, so the threads
+ * of the HTTP listener are not blocked while the database is queried. Every endpoint delegates in a 
+ * synchronous method, that receives the context of the request as params, as the injected context
+ * is not available in the threads of the executor. <p>
+ * Besides JSON and XML, the cars can be represented in the binary formats CBOR and Smile, and the
+ * methods that return lists of cars compress their responses when the client accepts it.
  *
  */
-@Path("/cars")
-@Consumes(value = { MediaType.APPLICATION_JSON, MediaType.TEXT_XML })
-@Produces(value = { MediaType.APPLICATION_JSON, MediaType.TEXT_XML })
+@Path(CarResource.PATH)
+@Consumes(value = { MediaType.APPLICATION_JSON, MediaType.TEXT_XML, CarMediaType.APPLICATION_CBOR, CarMediaType.APPLICATION_SMILE })
+@Produces(value = { MediaType.APPLICATION_JSON, MediaType.TEXT_XML, CarMediaType.APPLICATION_CBOR, CarMediaType.APPLICATION_SMILE })
 @Stateless
 public class CarResource {
+	/**
+	 * Path of the collection of cars, relative to the base URI of the application
+	 */
+	static final String PATH = "/cars";
+	/**
+	 * Number of cars returned in a page when the client does not provide a limit
+	 */
+	static final String DEFAULT_PAGE_SIZE = "100";
+	/**
+	 * Maximum number of cars that can be requested in a single page
+	 */
+	static final int MAX_PAGE_SIZE = 1000;
+	/**
+	 * Maximum number of cars that can be added in a single batch
+	 */
+	static final int MAX_BATCH_SIZE = 10000;
+	/**
+	 * Representations of the cars with only some fields. They are maps, that JAXB cannot marshal to XML
+	 */
+	static final List<Variant> FIELDS_VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE, 
+			CarMediaType.APPLICATION_CBOR_TYPE, CarMediaType.APPLICATION_SMILE_TYPE).build();
+	
 	@EJB
 	private CarService carService;
-	private @Context UriInfo uriInfo;
+	@EJB
+	private CarResourceExecutor executor;
+	/**
+	 * Whether the cars that are updated must have the version that was read. Disabled by default,
+	 * so the clients that do not send it keep overwriting the car unconditionally
+	 */
+	@Resource(name = "cars/rest/requireVersion")
+	private boolean requireVersion = false;
 	
 	/**
-	 * Method that retrieves all the cars from the database. <p>
-	 * Optionally, the country param can be provided.
+	 * Method that retrieves a page of cars from the database, ordered by their identifier. <p>
+	 * Optionally, the country param can be provided. The cars are paginated through a cursor:
+	 * when there are more cars, a "next" link with the cursor of the following page is
+	 * returned in the headers of the response.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
+	 * @param request Request, used to evaluate its preconditions
 	 * @param country Country of the cars
-	 * @return List of cars retrieved
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 * @param stream Whether all the cars should be streamed instead of paginated
+	 * @param fields Comma separated list of the fields of the cars to retrieve. By default, all the fields
 	 */
 	@GET
+	@Compress
 	@Operation(summary = "Get all the cars",
-			description = "Retrieves all the cars from the system",
+			description = "Retrieves a page of cars from the system, ordered by ID. The link to the next page, "
+					+ "if any, is returned in the 'Link' header with the relation 'next'",
 			responses = {
 					@ApiResponse(
 							description = "Cars",
@@ -63,25 +130,275 @@ public class CarResource {
 							content = @Content(
 									array = @ArraySchema(schema = @Schema(implementation = Car.class))
 				            )),
+					@ApiResponse(responseCode = "400", description = "Non valid pagination params"),
+					@ApiResponse(responseCode = "406", description = "Fields requested in XML, that is only available for all the fields"),
+					@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
 			})
-	public Response getCars(@QueryParam("country") String country){
+	public void getCars(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo, @Context Request request,
+			@QueryParam("country") String country,
+			@Parameter(description = "ID of the last car of the previous page") @QueryParam("after") @DefaultValue("0") long after,
+			@Parameter(description = "maximum number of cars in the page") @QueryParam("limit") @DefaultValue(DEFAULT_PAGE_SIZE) int limit,
+			@Parameter(description = "stream all the cars as newline delimited JSON") @QueryParam("stream") @DefaultValue("false") boolean stream,
+			@Parameter(description = "comma separated list of the fields to retrieve, e.g. brand,country") @QueryParam("fields") String fields){
+		if (stream) {
+			// The stream is written by the thread that resumes the response, so it does not hold a thread of the pool
+			asyncResponse.resume(streamCars(uriInfo, country));
+			return;
+		}
+		executor.submit(asyncResponse, () -> getCars(uriInfo, request, country, after, limit, stream, fields));
+	}
+	
+	/**
+	 * Method that retrieves a page of cars from the database, in the thread that calls it.
+	 * @param uriInfo Information of the URI of the request
+	 * @param request Request, used to evaluate its preconditions
+	 * @param country Country of the cars
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 * @param stream Whether all the cars should be streamed instead of paginated
+	 * @param fields Comma separated list of the fields of the cars to retrieve. By default, all the fields
+	 * @return List of cars retrieved
+	 */
+	Response getCars(UriInfo uriInfo, Request request, String country, long after, int limit, boolean stream, String fields) {
+		if (stream) {
+			return streamCars(uriInfo, country);
+		}
+		checkPaginationParams(after, limit);
+		if (fields != null && !fields.isEmpty()) {
+			return getCarFields(uriInfo, request, country, after, limit, fields);
+		}
+		
 		List<Car> cars = null;
+		// One more car than requested is retrieved to know if there is a next page
 		if (country != null && !country.isEmpty()) { // If "country" in the query
-			cars = carService.getAllCarsFromCountry(country);
+			cars = carService.getCarsFromCountry(country, after, limit + 1);
 		}else{
-			cars = carService.getAllCars();
+			cars = carService.getCars(after, limit + 1);
 		}
+		
+		// The tag includes the extra car, so it changes when a next page appears or disappears
+		EntityTag entityTag = getEntityTag(cars);
+		ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+		if (notModified != null) {
+			return notModified.build();
+		}
+		
+		URI next = null;
+		if (cars.size() > limit) {
+			cars = cars.subList(0, limit);
+			next = getUriForNextPage(uriInfo, cars.get(limit - 1).getId(), limit);
+		}
+		
+		CarLinks.of(uriInfo).addSelfLinks(cars);
+		
 		// Mapping the List in a generic entity to be able to return it
 		GenericEntity<List<Car>> carsGeneric = new GenericEntity<List<Car>>(cars) {};
-		return Response.ok()
+		ResponseBuilder response = Response.ok()
 				.entity(carsGeneric)
+				.tag(entityTag);
+		if (next != null)
+			response.link(next, "next");
+		return response.build();
+	}
+	
+	/**
+	 * Method that retrieves a page of cars with only the requested fields. The ID of the cars
+	 * is always included, as it is the cursor of the pagination. They are not available in XML
+	 * (see {@link #FIELDS_VARIANTS}), so if the client only accepts XML the response is 406 Not Acceptable.
+	 * @param uriInfo Information of the URI of the request
+	 * @param request Request, used to select the representation of the cars
+	 * @param country Country of the cars
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 * @param fields Comma separated list of the fields of the cars to retrieve
+	 * @return List of cars retrieved, each one as an object with the requested fields
+	 */
+	private Response getCarFields(UriInfo uriInfo, Request request, String country, long after, int limit, String fields) {
+		Variant variant = request.selectVariant(FIELDS_VARIANTS);
+		if (variant == null) {
+			return Response.notAcceptable(FIELDS_VARIANTS).build();
+		}
+		
+		List<String> fieldList = new ArrayList<String>();
+		fieldList.add("id");
+		for (String field : fields.split(",")) {
+			field = field.trim();
+			if (!Car.FIELDS.contains(field)) {
+				throw new BadRequestException("Request to get cars with a non valid field: '" + field 
+						+ "'. Valid fields: " + Car.FIELDS);
+			}
+			if (!fieldList.contains(field))
+				fieldList.add(field);
+		}
+		
+		if (country != null && country.isEmpty()) {
+			country = null;
+		}
+		List<Map<String, Object>> cars = carService.getCarFields(fieldList, country, after, limit + 1);
+		
+		URI next = null;
+		if (cars.size() > limit) {
+			cars = cars.subList(0, limit);
+			next = getUriForNextPage(uriInfo, (Long) cars.get(limit - 1).get("id"), limit);
+		}
+		
+		GenericEntity<List<Map<String, Object>>> carsGeneric = new GenericEntity<List<Map<String, Object>>>(cars) {};
+		ResponseBuilder response = Response.ok()
+				.entity(carsGeneric)
+				.type(variant.getMediaType());
+		if (next != null)
+			response.link(next, "next");
+		return response.build();
+	}
+	
+	/**
+	 * Method that streams all the cars from the database as newline delimited JSON, one car per line. 
+	 * The cars are written as they are read, so there is no pagination. This method is not served by
+	 * the executor, as the cars are written by the container once the method returns. <p>
+	 * Optionally, the country param can be provided.
+	 * @param uriInfo Information of the URI of the request
+	 * @param country Country of the cars
+	 * @return Stream of cars
+	 */
+	@GET
+	@Compress
+	@Produces(CarMediaType.APPLICATION_NDJSON + ";qs=0.5")
+	@Operation(summary = "Stream all the cars",
+			description = "Streams all the cars from the system as newline delimited JSON, ordered by ID",
+			responses = {
+					@ApiResponse(
+							description = "Cars",
+							responseCode = "200",
+							content = @Content(
+									mediaType = CarMediaType.APPLICATION_NDJSON,
+									schema = @Schema(implementation = Car.class)
+				            )),
+			})
+	public Response streamCars(@Context UriInfo uriInfo, @QueryParam("country") String country) {
+		if (country != null && country.isEmpty()) {
+			country = null;
+		}
+		StreamingOutput output = new CarStreamingOutput(carService, country, CarLinks.of(uriInfo));
+		return Response.ok(output, CarMediaType.APPLICATION_NDJSON_TYPE)
+				.build();
+	}
+	
+	/**
+	 * Method that searches a page of cars by their brand, ordered by their identifier. The brands that 
+	 * start with the term are found (without case) and, if requested, the ones similar to it, such as the
+	 * brands with a typo. The cars are paginated through a cursor, as in {@link #getCars}.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
+	 * @param brand Term searched
+	 * @param fuzzy Whether the brands similar to the term are also found
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 */
+	@GET
+	@Path("/search")
+	@Compress
+	@Operation(summary = "Search cars by brand",
+			description = "Retrieves a page of cars whose brand starts with the term, or is similar to it when fuzzy "
+					+ "is true, ordered by ID. The link to the next page, if any, is returned in the 'Link' header "
+					+ "with the relation 'next'",
+			responses = {
+					@ApiResponse(
+							description = "Cars found",
+							responseCode = "200",
+							content = @Content(
+									array = @ArraySchema(schema = @Schema(implementation = Car.class))
+				            )),
+					@ApiResponse(responseCode = "400", description = "Empty term or non valid pagination params"),
+					@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
+			})
+	public void searchCars(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo,
+			@Parameter(description = "term searched in the brand of the cars", required = true) @QueryParam("brand") String brand,
+			@Parameter(description = "find also the brands similar to the term") @QueryParam("fuzzy") @DefaultValue("false") boolean fuzzy,
+			@Parameter(description = "ID of the last car of the previous page") @QueryParam("after") @DefaultValue("0") long after,
+			@Parameter(description = "maximum number of cars in the page") @QueryParam("limit") @DefaultValue(DEFAULT_PAGE_SIZE) int limit) {
+		executor.submit(asyncResponse, () -> searchCars(uriInfo, brand, fuzzy, after, limit));
+	}
+	
+	/**
+	 * Method that searches a page of cars by their brand, in the thread that calls it.
+	 * @param uriInfo Information of the URI of the request
+	 * @param brand Term searched
+	 * @param fuzzy Whether the brands similar to the term are also found
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 * @return List of cars found
+	 */
+	Response searchCars(UriInfo uriInfo, String brand, boolean fuzzy, long after, int limit) {
+		if (brand == null || brand.trim().isEmpty()) {
+			throw new BadRequestException("Request to search cars without a brand");
+		}
+		checkPaginationParams(after, limit);
+		
+		// One more car than requested is retrieved to know if there is a next page
+		List<Car> cars = carService.searchCarsByBrand(brand, fuzzy, after, limit + 1);
+		
+		URI next = null;
+		if (cars.size() > limit) {
+			cars = cars.subList(0, limit);
+			next = getUriForNextPage(uriInfo, cars.get(limit - 1).getId(), limit);
+		}
+		
+		CarLinks.of(uriInfo).addSelfLinks(cars);
+		
+		GenericEntity<List<Car>> carsGeneric = new GenericEntity<List<Car>>(cars) {};
+		ResponseBuilder response = Response.ok()
+				.entity(carsGeneric);
+		if (next != null)
+			response.link(next, "next");
+		return response.build();
+	}
+	
+	/**
+	 * Method that retrieves the aggregated statistics of the cars, computed by the database. The
+	 * statistics are cached for a short time, so the clients can cache them for the same time.
+	 * @param asyncResponse Suspended response of the request
+	 */
+	@GET
+	@Path("/stats")
+	@Operation(summary = "Get the statistics of the cars",
+			description = "Retrieves the number of cars by country and by brand, the soft removed cars "
+					+ "and the cars created by day. The statistics may be a few seconds old",
+			responses = {
+					@ApiResponse(
+							description = "Statistics of the cars",
+							responseCode = "200",
+							content = @Content(
+									schema = @Schema(implementation = CarStatistics.class)
+				            )),
+					@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
+			})
+	public void getCarStatistics(@Suspended AsyncResponse asyncResponse) {
+		executor.submit(asyncResponse, () -> getCarStatistics());
+	}
+	
+	/**
+	 * Method that retrieves the aggregated statistics of the cars, in the thread that calls it.
+	 * @return Statistics of the cars
+	 */
+	Response getCarStatistics() {
+		CarStatistics statistics = carService.getCarStatistics();
+		
+		// The clients can keep the statistics until they expire on the server
+		CacheControl cacheControl = new CacheControl();
+		long maxAgeMillis = statistics.getExpiresAt().getTime() - System.currentTimeMillis();
+		cacheControl.setMaxAge((int) Math.max(0, TimeUnit.MILLISECONDS.toSeconds(maxAgeMillis)));
+		
+		return Response.ok()
+				.entity(statistics)
+				.cacheControl(cacheControl)
 				.build();
 	}
 	
 	/**
 	 * Method that adds a new car to the database.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
 	 * @param car Car that needs to be added.
-	 * @return Car added
 	 */
 	@POST
 	@Operation(summary = "Create a car",
@@ -93,8 +410,20 @@ public class CarResource {
 					content = @Content(
                     schema = @Schema(implementation = Car.class)
 		            )),
+			@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
 	})
-	public Response addCar(@Parameter(description = "updated car object", required = true) Car car) {
+	public void addCar(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo,
+			@Parameter(description = "updated car object", required = true) Car car) {
+		executor.submit(asyncResponse, () -> addCar(uriInfo, car));
+	}
+	
+	/**
+	 * Method that adds a new car to the database, in the thread that calls it.
+	 * @param uriInfo Information of the URI of the request
+	 * @param car Car that needs to be added.
+	 * @return Car added
+	 */
+	Response addCar(UriInfo uriInfo, Car car) {
 		List<String> validationErrors = CarValidator.validateAddAndUpdate(car);
 		String errorMessage = "Request to add a car with non valid fields";
 		checkValidationErrors(validationErrors, errorMessage);
@@ -103,8 +432,7 @@ public class CarResource {
 		String newId = String.valueOf(carAdded.getId());
 		URI uri = uriInfo.getAbsolutePathBuilder().path(newId).build();
 		
-		String urlSelf = getUriForSelf(carAdded.getId());
-		car.addLink(urlSelf, "self");
+		CarLinks.of(uriInfo).addSelfLink(carAdded);
 		
 		return Response.created(uri)
 					.entity(carAdded)
@@ -112,9 +440,86 @@ public class CarResource {
 	}
 	
 	/**
-	 * Method that gets an specific car from the database
+	 * Method that adds a list of new cars to the database. <p>
+	 * Every car is validated, and only the valid ones are added. The response contains
+	 * a result for every car of the request, in the same order, indicating whether the car was 
+	 * created (with its new ID) or not (with its validation errors).
+	 * @param asyncResponse Suspended response of the request
+	 * @param cars Cars that need to be added.
+	 */
+	@POST
+	@Path("/batch")
+	@Compress
+	@Operation(summary = "Create a list of cars",
+	description = "Create a list of cars and store the valid ones in the system. The result of every car is returned",
+	responses = {
+			@ApiResponse(
+					description = "Results", 
+					responseCode = "200",
+					content = @Content(
+							array = @ArraySchema(schema = @Schema(implementation = CarBatchResult.class))
+		            )),
+			@ApiResponse(responseCode = "400", description = "Empty or too large batch"),
+			@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
+	})
+	public void addCars(@Suspended AsyncResponse asyncResponse,
+			@Parameter(description = "car objects", required = true) List<Car> cars) {
+		executor.submit(asyncResponse, () -> addCars(cars));
+	}
+	
+	/**
+	 * Method that adds a list of new cars to the database, in the thread that calls it.
+	 * @param cars Cars that need to be added.
+	 * @return Result of every car
+	 */
+	Response addCars(List<Car> cars) {
+		if (cars == null || cars.isEmpty() || cars.size() > MAX_BATCH_SIZE) {
+			throw new BadRequestException("Request to add a batch of cars that is empty or has more than " 
+					+ MAX_BATCH_SIZE + " cars");
+		}
+		
+		List<CarBatchResult> results = new ArrayList<CarBatchResult>(cars.size());
+		List<Car> validCars = new ArrayList<Car>(cars.size());
+		for (int i = 0; i < cars.size(); i++) {
+			Car car = cars.get(i);
+			List<String> validationErrors = car == null 
+					? Collections.singletonList("Car cannot be null") 
+					: CarValidator.validateAddAndUpdate(car);
+			if (validationErrors.isEmpty()) {
+				validCars.add(car);
+				results.add(null); // Filled in once the car is added
+			} else {
+				results.add(new CarBatchResult(i, Status.BAD_REQUEST.getStatusCode(), 0, validationErrors));
+			}
+		}
+		
+		if (!validCars.isEmpty()) {
+			List<Car> carsAdded = carService.addCars(validCars);
+			int added = 0;
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i) == null) {
+					long id = carsAdded.get(added++).getId();
+					results.set(i, new CarBatchResult(i, Status.CREATED.getStatusCode(), id, null));
+				}
+			}
+		}
+		
+		GenericEntity<List<CarBatchResult>> resultsGeneric = new GenericEntity<List<CarBatchResult>>(results) {};
+		return Response.ok()
+					.entity(resultsGeneric)
+					.build();
+	}
+	
+	/**
+	 * Method that gets an specific car from the database. <p>
+	 * The response includes a weak entity tag, built from the ID and the last update of the car. If the 
+	 * client sends that tag in the If-None-Match header and the car has not changed, a NOT MODIFIED
+	 * response is returned without loading the car.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
+	 * @param request Request, used to evaluate its preconditions
+	 * @param ifNoneMatch Entity tags of the If-None-Match header, or null if it is not sent
 	 * @param id Identifier of the requested car
-	 * @return Car requested
 	 */
 	@GET
 	@Path("/{id}")
@@ -127,26 +532,57 @@ public class CarResource {
 					content = @Content(
                     schema = @Schema(implementation = Car.class)
 		            )),
+			@ApiResponse(responseCode = "304", description = "Car not modified"),
 			@ApiResponse(responseCode = "404", description = "Car not found"),
+			@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
 	})
-	public Response getCar(@Parameter(description = "id of the car that should be retrieved", required = true) @PathParam("id") long id) {
+	public void getCar(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo, @Context Request request,
+			@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+			@Parameter(description = "id of the car that should be retrieved", required = true) @PathParam("id") long id) {
+		executor.submit(asyncResponse, () -> getCar(uriInfo, request, ifNoneMatch, id));
+	}
+	
+	/**
+	 * Method that gets an specific car from the database, in the thread that calls it. The last update of
+	 * the car is only checked before loading it if the client sends an entity tag, as the rest of the requests
+	 * would read the car twice.
+	 * @param uriInfo Information of the URI of the request
+	 * @param request Request, used to evaluate its preconditions
+	 * @param ifNoneMatch Entity tags of the If-None-Match header, or null if it is not sent
+	 * @param id Identifier of the requested car
+	 * @return Car requested
+	 */
+	Response getCar(UriInfo uriInfo, Request request, String ifNoneMatch, long id) {
 		String errorMessage = "Request to get a car with non valid ID: " + id;
 		checkValidationErrors(id, errorMessage);
 		
+		Date lastUpdated = ifNoneMatch != null ? carService.getCarLastUpdated(id) : null;
+		if (lastUpdated != null) {
+			ResponseBuilder notModified = request.evaluatePreconditions(getEntityTag(id, lastUpdated));
+			if (notModified != null) {
+				return notModified.build();
+			}
+		}
+		
 		Car car = carService.getCar(id);
-		String urlSelf = getUriForSelf(id);
-		car.addLink(urlSelf, "self");
+		CarLinks.of(uriInfo).addSelfLink(car);
 		
-		return Response.ok()
-						.entity(car)
-						.build();
+		ResponseBuilder response = Response.ok()
+						.entity(car);
+		if (car.getLastUpdated() != null)
+			response.tag(getEntityTag(id, car.getLastUpdated()));
+		return response.build();
 	}
 	
 	/**
-	 * Method that updates the information related to an specific car
+	 * Method that updates the information related to an specific car. <p>
+	 * The car must include the version that was read. Otherwise, a PRECONDITION REQUIRED response is returned.
+	 * It is only updated if it has not been modified since that version was read. Otherwise, a CONFLICT 
+	 * response is returned.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
 	 * @param id Identifier of the car that should be updated
 	 * @param car Car object with the new information
-	 * @return Car updated
 	 */
 	@PUT
 	@Path("/{id}")
@@ -160,19 +596,37 @@ public class CarResource {
                     schema = @Schema(implementation = Car.class)
 		            )),
 			@ApiResponse(responseCode = "404", description = "Car not found"),
+			@ApiResponse(responseCode = "409", description = "Car modified since its version was read"),
+			@ApiResponse(responseCode = "428", description = "Car without the version that was read, when cars/rest/requireVersion is enabled"),
+			@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
 	})
-	public Response updateCar(@Parameter(description = "id of the car that should be updated", required = true) @PathParam("id") long id,
+	public void updateCar(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo,
+			@Parameter(description = "id of the car that should be updated", required = true) @PathParam("id") long id,
 			@Parameter(description = "updated car object", required = true) Car car) {
+		executor.submit(asyncResponse, () -> updateCar(uriInfo, id, car));
+	}
+	
+	/**
+	 * Method that updates the information related to an specific car, in the thread that calls it.
+	 * @param uriInfo Information of the URI of the request
+	 * @param id Identifier of the car that should be updated
+	 * @param car Car object with the new information
+	 * @return Car stored after the update, with its new version
+	 */
+	Response updateCar(UriInfo uriInfo, long id, Car car) {
 		car.setId(id);
 		
 		List<String> validationErrors = CarValidator.validateAddAndUpdate(car);
 		String errorMessage = "Request to update car with non valid fields";
 		checkValidationErrors(validationErrors, errorMessage);
+		if (requireVersion && car.getVersion() == null) {
+			throw new PreconditionRequiredException("Trying to update the car with ID: " + id 
+					+ " without the version that was read.");
+		}
 		
 		Car carUpdated = carService.updateCar(car);
 		
-		String urlSelf = getUriForSelf(id);
-		car.addLink(urlSelf, "self");
+		CarLinks.of(uriInfo).addSelfLink(carUpdated);
 		
 		return Response.ok()
 					.entity(carUpdated)
@@ -183,8 +637,9 @@ public class CarResource {
 	 * Method that soft-removes a car from the database, that is,
 	 * the car is set with a flag, and it will be removed
 	 * in a period of time.
+	 * @param asyncResponse Suspended response of the request
+	 * @param uriInfo Information of the URI of the request
 	 * @param id Identifier of the car that should be removed
-	 * @return Car removed
 	 */
 	@DELETE
 	@Path("/{id}")
@@ -193,21 +648,32 @@ public class CarResource {
 			+ "removed from the system after a certain period of time.",
 	responses = {
 			@ApiResponse(
-					description = "Car", 
+					description = "Car soft-deleted", 
 					responseCode = "200",
 					content = @Content(
                     schema = @Schema(implementation = Car.class)
 		            )),
 			@ApiResponse(responseCode = "404", description = "Car not found"),
+			@ApiResponse(responseCode = "503", description = "Too many requests in progress"),
 	})
-	public Response deleteCar(@Parameter(description = "id of the car that should be removed", required = true) @PathParam("id") long id) {
+	public void deleteCar(@Suspended AsyncResponse asyncResponse, @Context UriInfo uriInfo,
+			@Parameter(description = "id of the car that should be removed", required = true) @PathParam("id") long id) {
+		executor.submit(asyncResponse, () -> deleteCar(uriInfo, id));
+	}
+	
+	/**
+	 * Method that soft-removes a car from the database, in the thread that calls it.
+	 * @param uriInfo Information of the URI of the request
+	 * @param id Identifier of the car that should be removed
+	 * @return Car soft-removed, with its new version
+	 */
+	Response deleteCar(UriInfo uriInfo, long id) {
 		String errorMessage = "Request to soft-delete a car with non valid ID: " + id;
 		checkValidationErrors(id, errorMessage);
 		
 		Car car = carService.softRemoveCar(id);
 		
-		String urlSelf = getUriForSelf(id);
-		car.addLink(urlSelf, "self");
+		CarLinks.of(uriInfo).addSelfLink(car);
 		
 		return Response.ok()
 					.entity(car)
@@ -215,17 +681,43 @@ public class CarResource {
 	}
 	
 	/**
-	 * Method that gets the URI of the car with the given ID.
+	 * Method that gets the URI of the next page of the current listing, keeping the rest of the query params.
+	 * @param uriInfo Information of the URI of the request
+	 * @param lastId Identifier of the last car of the current page
+	 * @param limit Maximum number of cars in the page
+	 * @return URI of the next page
+	 */
+	private URI getUriForNextPage(UriInfo uriInfo, long lastId, int limit) {
+		return uriInfo.getRequestUriBuilder()
+				.replaceQueryParam("after", lastId)
+				.replaceQueryParam("limit", limit)
+				.build();
+	}
+	
+	/**
+	 * Method that builds the weak entity tag of a car, that changes every time the car is updated.
 	 * @param id Identifier of the car
-	 * @return String that contains the URI of the given car. 
+	 * @param lastUpdated Date of the last update of the car
+	 * @return Entity tag of the car
 	 */
-	private String getUriForSelf(long id) {
-		String urlSelf = uriInfo.getBaseUriBuilder()
-				.path(CarResource.class)
-				.path(String.valueOf(id))
-				.build()
-				.toString();
-		return urlSelf;
+	private EntityTag getEntityTag(long id, Date lastUpdated) {
+		return new EntityTag(id + "-" + lastUpdated.getTime(), true);
+	}
+	
+	/**
+	 * Method that builds the weak entity tag of a list of cars, combining the ID and the last update
+	 * of every car in the list.
+	 * @param cars List of cars
+	 * @return Entity tag of the list
+	 */
+	private EntityTag getEntityTag(List<Car> cars) {
+		long hash = 17;
+		for (Car car : cars) {
+			long lastUpdated = car.getLastUpdated() != null ? car.getLastUpdated().getTime() : 0;
+			hash = 31 * hash + car.getId();
+			hash = 31 * hash + lastUpdated;
+		}
+		return new EntityTag(cars.size() + "-" + Long.toHexString(hash), true);
 	}
 	
 	/**
@@ -257,4 +749,20 @@ public class CarResource {
 			throw new BadRequestException(errorMessage);
 		}
 	}
+	
+	/**
+	 * Method that checks the pagination params of a listing. A {@link BadRequestException} exception is thrown 
+	 * if the cursor is negative or the size of the page is not between 1 and {@link #MAX_PAGE_SIZE}.
+	 * @param after Identifier of the last car of the previous page
+	 * @param limit Maximum number of cars in the page
+	 */
+	private void checkPaginationParams(long after, int limit) {
+		if (after < 0) {
+			throw new BadRequestException("Request to get cars with a non valid cursor: " + after);
+		}
+		if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+			throw new BadRequestException("Request to get cars with a non valid limit: " + limit 
+					+ ". It must be between 1 and " + MAX_PAGE_SIZE);
+		}
+	}
 }
@@ -0,0 +1,152 @@
+package org.diego.tutorial.car.resources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.exceptions.ServiceUnavailableException;
+import org.diego.tutorial.car.model.ExecutorStatistics;
+
+/**
+ * Class that serves the requests of the REST service in a dedicated pool of threads, so the
+ * threads of the HTTP listener are released while the database is queried. <p>
+ * The pool has a fixed number of threads and a bounded queue. When the queue is full, or a request
+ * is not served before its timeout, the client receives a SERVICE UNAVAILABLE response. <p>
+ * The pool is configured through the following environment entries:
+ * <ul>
+ * <li>cars/executor/async: whether the requests are served in the pool (true) or in the thread of the
+ * HTTP listener (false).</li>
+ * <li>cars/executor/poolSize: number of threads of the pool.</li>
+ * <li>cars/executor/queueCapacity: maximum number of requests waiting for a thread.</li>
+ * <li>cars/executor/timeoutMillis: maximum time to serve a request, in milliseconds.</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CarResourceExecutor {
+	@Resource(name = "cars/executor/async")
+	private boolean async = true;
+	@Resource(name = "cars/executor/poolSize")
+	private int poolSize = 16;
+	@Resource(name = "cars/executor/queueCapacity")
+	private int queueCapacity = 100;
+	@Resource(name = "cars/executor/timeoutMillis")
+	private long timeoutMillis = 5000;
+
+	@Resource
+	private ManagedThreadFactory managedThreadFactory;
+
+	private ThreadPoolExecutor executor;
+	private final LongAdder rejectedTasks = new LongAdder();
+	private final LongAdder timedOutTasks = new LongAdder();
+
+	private final static Logger LOGGER = Logger.getLogger(CarResourceExecutor.class);
+
+	/**
+	 * Method that creates the pool of threads. The threads are created by the container, so they
+	 * can call the EJBs of the application.
+	 */
+	@PostConstruct
+	public void start() {
+		ThreadFactory threadFactory = managedThreadFactory != null ? managedThreadFactory : Executors.defaultThreadFactory();
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory);
+		LOGGER.info("Executor of requests started. Async: " + async + ", threads: " + poolSize
+				+ ", queue: " + queueCapacity + ", timeout: " + timeoutMillis + " ms");
+	}
+
+	/**
+	 * Method that stops the pool of threads, discarding the requests that are waiting.
+	 */
+	@PreDestroy
+	public void stop() {
+		executor.shutdownNow();
+		LOGGER.info("Executor of requests stopped");
+	}
+
+	/**
+	 * Method that serves a request, resuming the suspended response with the response built by the task,
+	 * or with the exception thrown by it. <p>
+	 * If the pool is full, or the task does not end before the timeout, the response is resumed with a
+	 * {@link ServiceUnavailableException} exception.
+	 * @param asyncResponse Suspended response of the request
+	 * @param task Task that builds the response
+	 */
+	public void submit(AsyncResponse asyncResponse, Callable<Response> task) {
+		if (!async) {
+			resume(asyncResponse, task);
+			return;
+		}
+
+		AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+		asyncResponse.setTimeoutHandler(timedOutResponse -> {
+			timedOutTasks.increment();
+			// A task that is still waiting in the queue is discarded. A running one is not interrupted,
+			// as it may be in the middle of a transaction, and its response is ignored.
+			Future<?> pending = future.get();
+			if (pending != null)
+				pending.cancel(false);
+			timedOutResponse.resume(new ServiceUnavailableException("The request could not be served in "
+					+ timeoutMillis + " ms"));
+		});
+		asyncResponse.setTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+
+		try {
+			future.set(executor.submit(() -> resume(asyncResponse, task)));
+		} catch (RejectedExecutionException e) {
+			rejectedTasks.increment();
+			asyncResponse.resume(new ServiceUnavailableException("There are too many requests in progress"));
+		}
+	}
+
+	/**
+	 * Method that gets the current state of the pool of threads.
+	 * @return Statistics of the pool
+	 */
+	public ExecutorStatistics getStatistics() {
+		ExecutorStatistics statistics = new ExecutorStatistics();
+		statistics.setAsync(async);
+		statistics.setPoolSize(executor.getPoolSize());
+		statistics.setActiveThreads(executor.getActiveCount());
+		statistics.setQueueDepth(executor.getQueue().size());
+		statistics.setQueueCapacity(queueCapacity);
+		statistics.setCompletedTasks(executor.getCompletedTaskCount());
+		statistics.setRejectedTasks(rejectedTasks.sum());
+		statistics.setTimedOutTasks(timedOutTasks.sum());
+		return statistics;
+	}
+
+	/**
+	 * Method that runs a task and resumes the suspended response with its result.
+	 * @param asyncResponse Suspended response of the request
+	 * @param task Task that builds the response
+	 */
+	private void resume(AsyncResponse asyncResponse, Callable<Response> task) {
+		try {
+			asyncResponse.resume(task.call());
+		} catch (Throwable e) {
+			// The exception is mapped to a response by the exception mappers
+			asyncResponse.resume(e);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.diego.tutorial.car.resources;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+import javax.ejb.EJBException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.apache.log4j.Logger;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.service.CarService;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Output that writes the cars to the response body as newline delimited JSON
+ * ({@link CarMediaType#APPLICATION_NDJSON}), one car per line. <p>
+ * The cars are written as their chunks are read from the database (see 
+ * {@link CarService#streamCars(String, java.util.function.Consumer)}), so neither the list
+ * of cars nor the whole body are kept in memory.
+ *
+ */
+public class CarStreamingOutput implements StreamingOutput {
+
+	private static final ObjectWriter WRITER = new ObjectMapper()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.writerFor(Car.class);
+	private static final byte[] NEW_LINE = { '\n' };
+
+	private final static Logger LOGGER = Logger.getLogger(CarStreamingOutput.class);
+
+	private final CarService carService;
+	private final String country;
+	private final CarLinks links;
+
+	/**
+	 * Constructs a new output of cars.
+	 * @param carService Service used to read the cars
+	 * @param country Country of the cars, or null to write all the cars
+	 * @param links Links added to every car before writing it
+	 */
+	CarStreamingOutput(CarService carService, String country, CarLinks links) {
+		this.carService = carService;
+		this.country = country;
+		this.links = links;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		try {
+			long carsWritten = carService.streamCars(country, car -> writeCar(output, car));
+			output.flush();
+			LOGGER.info(carsWritten + " cars written to the stream");
+		} catch (UncheckedIOException | EJBException e) {
+			IOException ioException = findIOException(e);
+			if (ioException == null)
+				throw e;
+			LOGGER.warn("The stream of cars was interrupted: " + ioException.getMessage());
+			throw ioException;
+		}
+	}
+
+	/**
+	 * Method that writes a car in a line of the output.
+	 * @param output Output of the response
+	 * @param car Car that should be written
+	 */
+	private void writeCar(OutputStream output, Car car) {
+		try {
+			links.addSelfLink(car);
+			WRITER.writeValue(output, car);
+			output.write(NEW_LINE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Method that looks for the {@link IOException} that interrupted the writing of the cars. That
+	 * exception may have been wrapped by the EJB container.
+	 * @param exception Exception thrown while reading the cars
+	 * @return The IOException that caused the exception, or null if it was caused by other error
+	 */
+	private IOException findIOException(Throwable exception) {
+		for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UncheckedIOException)
+				return ((UncheckedIOException) cause).getCause();
+		}
+		return null;
+	}
+}
@@ -1,39 +1,73 @@
 package org.diego.tutorial.car.timers;
 
-import java.util.List;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Schedule;
 import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 
 import org.apache.log4j.Logger;
-import org.diego.tutorial.car.model.Car;
 import org.diego.tutorial.car.model.service.CarService;
 
 /**
- * Class that implements a timer that retrieves all the cars with a remove flag set to true,
- * removing them from the system
+ * Class that implements a timer that removes from the system all the cars with a remove flag set to true, 
+ * once their retention period has passed. Until then, the cars can be restored. <p>
+ * The cars are removed in chunks, each one in its own transaction, so a large number of soft removed
+ * cars does not lock the table for a long time. Each execution stops when its time budget is spent, and
+ * the rest of the cars are removed in the next executions. They are configured through the following
+ * environment entries:
+ * <ul>
+ * <li>cars/purge/retentionMinutes: minutes that a car is kept since it is soft removed.</li>
+ * <li>cars/purge/chunkSize: maximum number of cars removed in a transaction.</li>
+ * <li>cars/purge/timeBudgetMillis: maximum time of an execution, in milliseconds.</li>
+ * </ul>
  * */
 @Singleton
 public class SoftRemovedCarsTimer {
 	@EJB
 	private CarService carService;
 	
+	@Resource(name = "cars/purge/retentionMinutes")
+	private long retentionMinutes = 1440;
+	@Resource(name = "cars/purge/chunkSize")
+	private int chunkSize = 5000;
+	@Resource(name = "cars/purge/timeBudgetMillis")
+	private long timeBudgetMillis = 30000;
+	
 	private final static Logger LOGGER = Logger.getLogger(SoftRemovedCarsTimer.class);
 	
 	/**
-	 * Method executed every minute, that gets a list of all the 
-	 * soft removed cars, and then completely removes them.
+	 * Method executed every minute, that completely removes the cars soft removed before the retention period, chunk by chunk,
+	 * until there are no more soft removed cars or the time budget is spent.
 	 * */
 	@Schedule(hour = "*", minute = "*/1", persistent = false)
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED) // Every chunk has its own transaction
 	public void check() {
 		LOGGER.info("Checking the soft-removed cars");
-		List<Car> softRemovedCars = carService.getAllSoftRemovedCars();
+		Date removedBefore = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes));
+		long start = System.nanoTime();
+		long deadline = start + timeBudgetMillis * 1000000;
+		long found = 0;
+		int chunks = 0;
+		int foundInChunk;
 		
-		for (Car car : softRemovedCars) {
-			carService.removeCar(car);
-		}
+		// A full chunk means there may be more cars, even if some of them were not removed because they were restored meanwhile
+		do {
+			foundInChunk = carService.removeSoftRemovedCars(removedBefore, chunkSize);
+			found += foundInChunk;
+			chunks++;
+		} while (foundInChunk == chunkSize && System.nanoTime() < deadline);
 		
-		LOGGER.info("All the cars are removed from the database");
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		if (foundInChunk == chunkSize) {
+			LOGGER.warn(found + " soft-removed cars processed in " + chunks + " chunks and " + elapsedMillis 
+					+ " ms. The time budget was spent, the rest of the cars will be removed in the next execution");
+		} else {
+			LOGGER.info(found + " soft-removed cars processed in " + chunks + " chunks and " + elapsedMillis + " ms");
+		}
 	}
 }
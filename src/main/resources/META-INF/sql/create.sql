@@ -0,0 +1,8 @@
+-- Partial index of the soft removed cars, the only ones with a removal date. The purge of the
+-- cars whose retention has passed is a range scan of this index, however large the table is.
+CREATE INDEX car_soft_removed_at_idx ON cars.car (softRemovedAt) WHERE softRemovedAt IS NOT NULL;
+
+-- Trigram index of the brands, in lower case. It is used by the prefix searches of the brands (LIKE 'term%')
+-- and by the fuzzy ones (the "%" similarity operator of pg_trgm), instead of reading the whole table.
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX car_brand_trgm_idx ON cars.car USING gin (lower(brand) gin_trgm_ops);
@@ -0,0 +1,54 @@
+package org.diego.tutorial.car.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Set of unit tests for the {@link LongBloomFilter} class
+ *
+ */
+public class LongBloomFilterTest {
+
+	@Test
+	public void testKeysAddedAreAlwaysFound() {
+		LongBloomFilter filter = new LongBloomFilter(10000, 0.01);
+
+		for (long key = 1; key <= 10000; key++) {
+			filter.put(key);
+		}
+
+		for (long key = 1; key <= 10000; key++) {
+			assertTrue(filter.mightContain(key));
+		}
+		assertEquals(10000, filter.getInsertions());
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		LongBloomFilter filter = new LongBloomFilter(10000, 0.01);
+		for (long key = 1; key <= 10000; key++) {
+			filter.put(key);
+		}
+
+		int falsePositives = 0;
+		for (long key = 10001; key <= 110000; key++) {
+			if (filter.mightContain(key))
+				falsePositives++;
+		}
+		assertTrue(falsePositives + " false positives", falsePositives < 2000);
+	}
+
+	@Test
+	public void testEmptyFilter() {
+		LongBloomFilter filter = new LongBloomFilter(100, 0.01);
+
+		assertFalse(filter.mightContain(1));
+		assertFalse(filter.mightContain(-1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidFalsePositiveRate() {
+		new LongBloomFilter(100, 1);
+	}
+}
@@ -0,0 +1,108 @@
+package org.diego.tutorial.car.cache;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Set of unit tests for the {@link TinyLfuCache} class
+ *
+ */
+public class TinyLfuCacheTest {
+
+	@Test
+	public void testPutAndGet() {
+		TinyLfuCache<String> cache = new TinyLfuCache<String>(10, 60000);
+
+		cache.put(1, "seat");
+		cache.put(2, "audi");
+		cache.put(1, "ford");
+
+		assertEquals("ford", cache.get(1));
+		assertEquals("audi", cache.get(2));
+		assertNull(cache.get(3));
+		assertEquals(2, cache.size());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testInvalidate() {
+		TinyLfuCache<String> cache = new TinyLfuCache<String>(10, 60000);
+		cache.put(1, "seat");
+		cache.put(2, "audi");
+
+		cache.invalidate(1);
+		cache.invalidate(3);
+
+		assertNull(cache.get(1));
+		assertEquals("audi", cache.get(2));
+		assertEquals(1, cache.size());
+
+		cache.invalidateAll();
+
+		assertNull(cache.get(2));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testExpiredEntriesAreNotReturned() {
+		TinyLfuCache<String> cache = new TinyLfuCache<String>(10, 0);
+		cache.put(1, "seat");
+
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		TinyLfuCache<Long> cache = new TinyLfuCache<Long>(100, 60000);
+
+		for (long key = 0; key < 1000; key++) {
+			cache.put(key, key);
+		}
+
+		assertEquals(100, cache.size());
+		assertEquals(900, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testKeysAreFoundAfterRemovals() {
+		TinyLfuCache<Long> cache = new TinyLfuCache<Long>(1000, 60000);
+		for (long key = 0; key < 1000; key++) {
+			cache.put(key * 1024, key);
+		}
+
+		for (long key = 0; key < 1000; key += 2) {
+			cache.invalidate(key * 1024);
+		}
+
+		for (long key = 0; key < 1000; key++) {
+			assertEquals(key % 2 == 0 ? null : Long.valueOf(key), cache.get(key * 1024));
+		}
+	}
+
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		TinyLfuCache<Long> cache = new TinyLfuCache<Long>(100, 60000);
+		for (int round = 0; round < 5; round++) {
+			for (long key = 0; key < 50; key++) {
+				if (cache.get(key) == null)
+					cache.put(key, key);
+			}
+		}
+
+		// Many keys read only once, as a listing of every car would do
+		for (long key = 1000; key < 11000; key++) {
+			if (cache.get(key) == null)
+				cache.put(key, key);
+		}
+
+		int survivors = 0;
+		for (long key = 0; key < 50; key++) {
+			if (cache.get(key) != null)
+				survivors++;
+		}
+		assertTrue("Only " + survivors + " frequent entries survived the scan", survivors >= 45);
+	}
+}
@@ -0,0 +1,34 @@
+package org.diego.tutorial.car.databases;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Set of unit tests for the {@link Trigrams} class
+ *
+ */
+public class TrigramsTest {
+
+	@Test
+	public void testSimilarity() {
+		assertEquals(1, Trigrams.similarity("seat", "SEAT"), 0.0001);
+		// "  s", " se", "sea", "eat", "at " against "  s", " se", "see", "eet", "et "
+		assertEquals(2.0 / 8, Trigrams.similarity("seat", "seet"), 0.0001);
+		assertEquals(0, Trigrams.similarity("seat", "audi"), 0.0001);
+		assertEquals(0, Trigrams.similarity("seat", ""), 0.0001);
+	}
+
+	@Test
+	public void testFindSimilar() {
+		assertEquals(Arrays.asList("volkswagen"), 
+				Trigrams.findSimilar("volkswagn", Arrays.asList("volkswagen", "volvo", "seat")));
+	}
+
+	@Test
+	public void testToPrefixPattern() {
+		assertEquals("100!%!_!!%", Trigrams.toPrefixPattern("100%_!"));
+	}
+}
@@ -3,12 +3,23 @@ package org.diego.tutorial.car.databases.jpa;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
 
+import org.diego.tutorial.car.exceptions.VersionConflictException;
 import org.diego.tutorial.car.model.Car;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -26,21 +37,322 @@ public class JPAImplCarTest {
 	private JPAImplCar jpaImplCar;
 	@Mock
 	private EntityManager em; 
+	@Mock
+	private EntityManager replicaEm;
+	@Mock
+	private ReplicaLagMonitor replicaLagMonitor;
+	@Mock
+	private TransactionSynchronizationRegistry transactionRegistry;
 
 	@Test
-	public void testGetAllSoftRemovedCars() {
-		String query = "SELECT car FROM Car car WHERE car.softRemoved='true'";
-		List<Car> carsSoftRemoved = new ArrayList<Car>();
+	public void testUpdateCarWithVersion() {
+		Date now = new Date();
+		Car stored = new Car(1, "seat", now, "spain", now, now);
+		stored.setVersion(2L);
+		Car car = new Car(1, "brand", null, "france", null, new Date());
+		car.setVersion(2L);
+		
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(stored);
+		
+		// The stored car is returned, with the dates that are not sent by the clients
+		Car updated = jpaImplCar.updateCar(car);
+		assertSame(stored, updated);
+		assertEquals("brand", updated.getBrand());
+		assertEquals("france", updated.getCountry());
+		assertEquals(now, updated.getRegistration());
+		Mockito.verify(em).flush();
+	}
+	
+	@Test
+	public void testUpdateCarVersionConflict() {
+		Car stored = new Car(1, "seat", null, "spain", null, null);
+		stored.setVersion(3L);
+		Car car = new Car(1, "brand", null, "france", null, new Date());
+		car.setVersion(2L);
+		
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(stored);
+		
+		assertNull(jpaImplCar.updateCar(car));
+		assertEquals("seat", stored.getBrand());
+		Mockito.verify(em, Mockito.never()).flush();
+	}
+	
+	@Test(expected = VersionConflictException.class)
+	public void testUpdateCarModifiedConcurrently() {
+		Car stored = new Car(1, "seat", null, "spain", null, null);
+		stored.setVersion(2L);
+		Car car = new Car(1, "brand", null, "france", null, new Date());
+		car.setVersion(2L);
+		
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(stored);
+		Mockito.doThrow(new OptimisticLockException())
+				.when(em).flush();
+		
+		// The transaction is already marked for rollback, so it is not answered as a missing car
+		jpaImplCar.updateCar(car);
+	}
+	
+	@Test
+	public void testSoftRemoveCar() {
+		Date removedAt = new Date(System.currentTimeMillis() - 60000);
+		Car stored = new Car(1, "seat", null, "spain", null, null);
+		stored.setSoftRemoved(true);
+		stored.setSoftRemovedAt(removedAt);
+		stored.setVersion(3L);
+		
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(stored);
+		
+		// Removing it again does not extend its retention
+		assertSame(stored, jpaImplCar.softRemoveCar(1, null, new Date()));
+		assertEquals(removedAt, stored.getSoftRemovedAt());
+		assertSame(stored, jpaImplCar.softRemoveCar(1, 3L, new Date()));
+		assertNull(jpaImplCar.softRemoveCar(1, 2L, new Date()));
+		assertNull(jpaImplCar.softRemoveCar(2, null, new Date()));
+	}
+	
+	@Test
+	public void testUpdateCars() {
+		String query = "SELECT car FROM Car car WHERE car.id IN :ids";
+		Date now = new Date();
+		Car stored = new Car(1, "seat", null, "spain", null, null);
+		stored.setVersion(3L);
+		Car conflict = new Car(2, "seat", null, "spain", null, null);
+		conflict.setVersion(7L);
+		Car changed = new Car(1, null, null, "france", null, now);
+		changed.setSoftRemoved(true);
+		Car changedConflict = new Car(2, "renault", null, null, null, now);
+		changedConflict.setVersion(6L);
+		Car missing = new Car(3, "renault", null, null, null, now);
 		
 		@SuppressWarnings("unchecked")
 		TypedQuery<Car> typedQuery = Mockito.mock(TypedQuery.class);
 		
 		Mockito.when(em.createQuery(query, Car.class))
 				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter(Mockito.eq("ids"), Mockito.any()))
+				.thenReturn(typedQuery);
 		Mockito.when(typedQuery.getResultList())
-				.thenReturn(carsSoftRemoved);
+				.thenReturn(Arrays.asList(stored, conflict));
 		
-		assertEquals(carsSoftRemoved, jpaImplCar.getAllSoftRemovedCars());
+		assertEquals(1, jpaImplCar.updateCars(Arrays.asList(changed, changedConflict, missing)));
+		// Only the given fields are changed, and the version is incremented by Hibernate on flush
+		assertEquals("seat", stored.getBrand());
+		assertEquals("france", stored.getCountry());
+		assertTrue(stored.isSoftRemoved());
+		assertEquals(now, stored.getSoftRemovedAt());
+		assertEquals("seat", conflict.getBrand());
+		Mockito.verify(em).flush();
+	}
+	
+	@Test
+	public void testDeleteSoftRemovedCars() {
+		String query = "DELETE FROM Car car WHERE car.id IN :ids AND car.softRemovedAt < :removedBefore";
+		List<Long> ids = Arrays.asList(1L, 2L);
+		Date removedBefore = new Date();
+		Query deleteQuery = Mockito.mock(Query.class);
+		
+		Mockito.when(em.createQuery(query))
+				.thenReturn(deleteQuery);
+		Mockito.when(deleteQuery.setParameter("ids", ids))
+				.thenReturn(deleteQuery);
+		Mockito.when(deleteQuery.setParameter("removedBefore", removedBefore))
+				.thenReturn(deleteQuery);
+		Mockito.when(deleteQuery.executeUpdate())
+				.thenReturn(2);
+		
+		assertEquals(2, jpaImplCar.deleteSoftRemovedCars(ids, removedBefore));
+	}
+	
+	@Test
+	public void testCountCarsByCountry() {
+		String query = "SELECT car.country, COUNT(car) FROM Car car GROUP BY car.country ORDER BY COUNT(car) DESC, car.country";
+		List<Object[]> rows = Arrays.asList(new Object[] { "spain", 3L }, new Object[] { "france", 1L });
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> typedQuery = Mockito.mock(TypedQuery.class);
+		
+		Mockito.when(em.createQuery(query, Object[].class))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(rows);
+		
+		Map<String, Long> counts = jpaImplCar.countCarsByCountry();
+		
+		assertEquals(Arrays.asList("spain", "france"), new ArrayList<String>(counts.keySet()));
+		assertEquals(Long.valueOf(3), counts.get("spain"));
+	}
+	
+	@Test
+	public void testSearchCarsByBrandPrefix() {
+		String query = "SELECT car FROM Car car WHERE (LOWER(car.brand) LIKE :prefix ESCAPE '!') AND car.id > :afterId ORDER BY car.id";
+		List<Car> cars = Arrays.asList(new Car());
+		@SuppressWarnings("unchecked")
+		TypedQuery<Car> typedQuery = Mockito.mock(TypedQuery.class);
+		
+		Mockito.when(em.createQuery(query, Car.class))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter(Mockito.anyString(), Mockito.any()))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setMaxResults(10))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImplCar.searchCarsByBrand(" Se_at ", false, 0, 10));
+		Mockito.verify(typedQuery).setParameter("prefix", "se!_at%");
+	}
+	
+	@Test
+	public void testSearchCarsByBrandFuzzyPostgreSQL() {
+		List<Car> cars = Arrays.asList(new Car());
+		EntityManagerFactory emf = Mockito.mock(EntityManagerFactory.class);
+		Query nativeQuery = Mockito.mock(Query.class);
+		
+		Mockito.when(em.getEntityManagerFactory())
+				.thenReturn(emf);
+		Mockito.when(emf.getProperties())
+				.thenReturn(Collections.<String, Object>singletonMap("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect"));
+		Mockito.when(em.createNativeQuery(Mockito.contains("lower(brand) % :term"), Mockito.eq(Car.class)))
+				.thenReturn(nativeQuery);
+		Mockito.when(nativeQuery.setParameter(Mockito.anyString(), Mockito.any()))
+				.thenReturn(nativeQuery);
+		Mockito.when(nativeQuery.setMaxResults(10))
+				.thenReturn(nativeQuery);
+		Mockito.when(nativeQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImplCar.searchCarsByBrand("seat", true, 0, 10));
+		Mockito.verify(nativeQuery).setParameter("term", "seat");
+	}
+	
+	@Test
+	public void testGetCarFromPrimary() {
+		Car car = new Car();
+		
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(car);
+		
+		assertEquals(car, jpaImplCar.getCarFromPrimary(1));
+		Mockito.verifyZeroInteractions(replicaEm, replicaLagMonitor);
+	}
+	
+	@Test
+	public void testGetLastUpdated() {
+		String query = "SELECT car.lastUpdated FROM Car car WHERE car.id = :id";
+		Date lastUpdated = new Date();
+		
+		@SuppressWarnings("unchecked")
+		TypedQuery<Date> typedQuery = Mockito.mock(TypedQuery.class);
+		
+		Mockito.when(em.createQuery(query, Date.class))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter("id", 1L))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(Collections.singletonList(lastUpdated))
+				.thenReturn(Collections.<Date>emptyList());
+		
+		assertEquals(lastUpdated, jpaImplCar.getLastUpdated(1));
+		assertNull(jpaImplCar.getLastUpdated(1));
+	}
+	
+	@Test
+	public void testGetCarsPage() {
+		String query = "SELECT car FROM Car car WHERE car.id > :afterId ORDER BY car.id";
+		List<Car> cars = new ArrayList<Car>();
+		
+		@SuppressWarnings("unchecked")
+		TypedQuery<Car> typedQuery = Mockito.mock(TypedQuery.class);
+		
+		Mockito.when(em.createQuery(query, Car.class))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter("afterId", 10L))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setMaxResults(20))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImplCar.getCarsPage(10, 20));
+		Mockito.verify(typedQuery).setMaxResults(20);
+	}
+	
+	@Test
+	public void testGetCarsFromCountryPage() {
+		String query = "SELECT car FROM Car car WHERE car.country = :country AND car.id > :afterId ORDER BY car.id";
+		List<Car> cars = new ArrayList<Car>();
+		
+		@SuppressWarnings("unchecked")
+		TypedQuery<Car> typedQuery = Mockito.mock(TypedQuery.class);
+		
+		Mockito.when(em.createQuery(query, Car.class))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter(Mockito.anyString(), Mockito.any()))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setMaxResults(20))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImplCar.getCarsFromCountryPage("Spain", 0, 20));
+		Mockito.verify(typedQuery).setParameter("country", "spain");
+	}
+	
+	@Test
+	public void testGetCarFieldsPage() {
+		String query = "SELECT car.id, car.brand FROM Car car WHERE car.country = :country AND car.id > :afterId ORDER BY car.id";
+		List<Object> rows = new ArrayList<Object>();
+		rows.add(new Object[] { 1L, "brand1" });
+		rows.add(new Object[] { 2L, "brand2" });
+		
+		Query typedQuery = Mockito.mock(Query.class);
+		
+		Mockito.when(em.createQuery(query))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setParameter(Mockito.anyString(), Mockito.any()))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.setMaxResults(20))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(rows);
+		
+		List<Map<String, Object>> cars = jpaImplCar.getCarFieldsPage(Arrays.asList("id", "brand"), "Spain", 0, 20);
+		
+		assertEquals(2, cars.size());
+		assertEquals(2L, cars.get(1).get("id"));
+		assertEquals("brand2", cars.get(1).get("brand"));
+		Mockito.verify(typedQuery).setParameter("country", "spain");
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetCarFieldsPageUnknownField() {
+		jpaImplCar.getCarFieldsPage(Arrays.asList("id", "brand FROM Car car --"), null, 0, 20);
+	}
+	
+	@Test
+	public void testStreamCarIds() {
+		String query = "SELECT car.id FROM Car car";
+		List<Long> idsRead = new ArrayList<Long>();
+		
+		Query idsQuery = Mockito.mock(Query.class);
+		org.hibernate.query.Query<?> hibernateQuery = Mockito.mock(org.hibernate.query.Query.class);
+		ScrollableResults results = Mockito.mock(ScrollableResults.class);
+		
+		Mockito.when(em.createQuery(query))
+				.thenReturn(idsQuery);
+		Mockito.doReturn(hibernateQuery).when(idsQuery).unwrap(org.hibernate.query.Query.class);
+		Mockito.when(hibernateQuery.scroll(ScrollMode.FORWARD_ONLY))
+				.thenReturn(results);
+		Mockito.when(results.next())
+				.thenReturn(true, true, false);
+		Mockito.when(results.get(0))
+				.thenReturn(3L, 5L);
+		
+		assertEquals(2, jpaImplCar.streamCarIds(idsRead::add));
+		assertEquals(Arrays.asList(3L, 5L), idsRead);
+		Mockito.verify(results).close();
 	}
-
 }
@@ -5,11 +5,19 @@ import static org.junit.Assert.*;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.persistence.Cache;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.TypedQuery;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.model.CacheStatistics;
 import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.PersistenceStatistics;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -28,6 +36,12 @@ public class JPAImplTest {
 	private JPAImpl jpaImpl;
 	@Mock
 	private EntityManager em; 
+	@Mock
+	private EntityManager replicaEm;
+	@Mock
+	private ReplicaLagMonitor replicaLagMonitor;
+	@Mock
+	private TransactionSynchronizationRegistry transactionRegistry;
 	
 	@Test
 	public void testGetAll() {
@@ -55,6 +69,71 @@ public class JPAImplTest {
 		assertEquals(car, jpaImpl.get(Car.class, 0));
 	}
 	
+	@Test
+	public void testGetAllFromReplica() {
+		List<Object> cars = new ArrayList<Object>();
+		
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object> typedQuery = Mockito.mock(TypedQuery.class);
+		Mockito.when(replicaLagMonitor.isReplicaUsable())
+				.thenReturn(true);
+		Mockito.when(replicaEm.createQuery(Mockito.anyString(), Mockito.any()))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImpl.getAll(Car.class));
+		Mockito.verify(em, Mockito.never())
+				.createQuery(Mockito.anyString(), Mockito.any());
+	}
+	
+	@Test
+	public void testGetAllAfterWriteFromPrimary() {
+		List<Object> cars = new ArrayList<Object>();
+		
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object> typedQuery = Mockito.mock(TypedQuery.class);
+		Mockito.when(replicaLagMonitor.isReplicaUsable())
+				.thenReturn(true);
+		Mockito.when(transactionRegistry.getResource(Mockito.any()))
+				.thenReturn(Boolean.TRUE);
+		Mockito.when(em.createQuery(Mockito.anyString(), Mockito.any()))
+				.thenReturn(typedQuery);
+		Mockito.when(typedQuery.getResultList())
+				.thenReturn(cars);
+		
+		assertEquals(cars, jpaImpl.getAll(Car.class));
+		Mockito.verify(replicaEm, Mockito.never())
+				.createQuery(Mockito.anyString(), Mockito.any());
+	}
+	
+	@Test
+	public void testGetCachedFromPrimary() {
+		Car car = Mockito.mock(Car.class);
+		EntityManagerFactory emf = Mockito.mock(EntityManagerFactory.class);
+		Cache cache = Mockito.mock(Cache.class);
+		
+		Mockito.when(replicaLagMonitor.isReplicaUsable())
+				.thenReturn(true);
+		Mockito.when(em.getEntityManagerFactory()).thenReturn(emf);
+		Mockito.when(emf.getCache()).thenReturn(cache);
+		Mockito.when(cache.contains(Car.class, 1L)).thenReturn(true);
+		Mockito.when(em.find(Car.class, 1L))
+				.thenReturn(car);
+		
+		assertEquals(car, jpaImpl.get(Car.class, 1));
+		Mockito.verify(replicaEm, Mockito.never())
+				.find(Mockito.any(), Mockito.anyLong());
+	}
+	
+	@Test
+	public void testAddMarksTransactionAsWritten() {
+		jpaImpl.add(new Car());
+		
+		Mockito.verify(transactionRegistry)
+				.putResource(Mockito.any(), Mockito.eq(Boolean.TRUE));
+	}
+	
 	@Test(expected = DataNotFoundException.class)
 	public void testGetDataNotFound() {
 		Mockito.when(em.find(Mockito.any(), Mockito.anyLong()))
@@ -78,6 +157,25 @@ public class JPAImplTest {
 		assertEquals(carExpected, carPersisted);
 	}
 	
+	@Test
+	public void testAddAll() {
+		List<Car> cars = new ArrayList<Car>();
+		for (int i = 0; i < JPAImpl.BATCH_SIZE * 2 + 1; i++) {
+			cars.add(new Car());
+		}
+		
+		List<Car> carsPersisted = jpaImpl.addAll(cars);
+		
+		Mockito.verify(em, Mockito.times(cars.size()))
+				.persist(Mockito.any(Car.class));
+		// One flush per full batch, plus the last one for the remaining cars
+		Mockito.verify(em, Mockito.times(3))
+				.flush();
+		Mockito.verify(em, Mockito.times(3))
+				.clear();
+		assertEquals(cars, carsPersisted);
+	}
+	
 	@Test(expected = DataNotFoundException.class)
 	public void testAddDataThatAlreadyExists() {
 		Car carExpected = Mockito.mock(Car.class);
@@ -108,6 +206,7 @@ public class JPAImplTest {
 	@Test
 	public void testRemove() {
 		Car carExpected = Mockito.mock(Car.class);
+		Mockito.when(em.contains(carExpected)).thenReturn(true);
 		Mockito.doNothing().when(em).remove(carExpected);
 		
 		Car carActual = jpaImpl.delete(carExpected);
@@ -116,5 +215,59 @@ public class JPAImplTest {
 		
 		assertEquals(carExpected, carActual);
 	}
+	
+	@Test
+	public void testRemoveDetached() {
+		Car carDetached = Mockito.mock(Car.class);
+		Car carManaged = Mockito.mock(Car.class);
+		Mockito.when(em.contains(carDetached)).thenReturn(false);
+		Mockito.when(em.merge(carDetached)).thenReturn(carManaged);
+		
+		jpaImpl.delete(carDetached);
+		Mockito.verify(em)
+				.remove(carManaged);
+	}
+	
+	@Test
+	public void testGetCacheStatistics() {
+		EntityManagerFactory emf = Mockito.mock(EntityManagerFactory.class);
+		SessionFactory sessionFactory = Mockito.mock(SessionFactory.class);
+		Statistics statistics = Mockito.mock(Statistics.class);
+		SecondLevelCacheStatistics regionStatistics = Mockito.mock(SecondLevelCacheStatistics.class);
+		
+		Mockito.when(em.getEntityManagerFactory()).thenReturn(emf);
+		Mockito.when(emf.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+		Mockito.when(sessionFactory.getStatistics()).thenReturn(statistics);
+		Mockito.when(statistics.getSecondLevelCacheStatistics("car")).thenReturn(regionStatistics);
+		Mockito.when(regionStatistics.getHitCount()).thenReturn(3L);
+		Mockito.when(regionStatistics.getMissCount()).thenReturn(1L);
+		
+		CacheStatistics cacheStatistics = jpaImpl.getCacheStatistics("car");
+		
+		assertEquals("car", cacheStatistics.getRegion());
+		assertEquals(3L, cacheStatistics.getHitCount());
+		assertEquals(0.75, cacheStatistics.getHitRatio(), 0.0001);
+		assertNull(jpaImpl.getCacheStatistics("other"));
+	}
+	
+	@Test
+	public void testGetPersistenceStatistics() {
+		EntityManagerFactory emf = Mockito.mock(EntityManagerFactory.class);
+		SessionFactory sessionFactory = Mockito.mock(SessionFactory.class);
+		Statistics statistics = Mockito.mock(Statistics.class);
+		
+		Mockito.when(em.getEntityManagerFactory()).thenReturn(emf);
+		Mockito.when(emf.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+		Mockito.when(sessionFactory.getStatistics()).thenReturn(statistics);
+		Mockito.when(statistics.getEntityLoadCount()).thenReturn(5L);
+		Mockito.when(statistics.getFlushCount()).thenReturn(2L);
+		Mockito.when(statistics.getQueryExecutionMaxTimeQueryString()).thenReturn("SELECT car FROM Car car");
+		
+		PersistenceStatistics persistenceStatistics = jpaImpl.getPersistenceStatistics();
+		
+		assertEquals(5L, persistenceStatistics.getEntityLoadCount());
+		assertEquals(2L, persistenceStatistics.getFlushCount());
+		assertEquals("SELECT car FROM Car car", persistenceStatistics.getQueryExecutionMaxTimeQueryString());
+	}
 
 }
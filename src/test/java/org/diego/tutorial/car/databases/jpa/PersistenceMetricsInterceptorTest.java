@@ -0,0 +1,75 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.interceptor.InvocationContext;
+
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.model.Car;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Set of unit tests for the {@link PersistenceMetricsInterceptor} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class PersistenceMetricsInterceptorTest {
+
+	@InjectMocks
+	private PersistenceMetricsInterceptor interceptor;
+	@Mock
+	private PersistenceMetrics metrics;
+	@Mock
+	private InvocationContext context;
+
+	@Test
+	public void testMeasure() throws Exception {
+		Object[] parameters = { 0L, 2 };
+		Mockito.when(context.getMethod())
+				.thenReturn(JPAImplCar.class.getMethod("getCarsPage", long.class, int.class));
+		Mockito.when(context.getParameters())
+				.thenReturn(parameters);
+		Mockito.when(context.proceed())
+				.thenReturn(Arrays.asList(new Car(), new Car()));
+
+		interceptor.measure(context);
+
+		Mockito.verify(metrics).record(Mockito.eq("JPAImplCar.getCarsPage"), Mockito.eq(parameters), 
+				Mockito.anyLong(), Mockito.anyLong(), Mockito.eq(2L), Mockito.eq(false));
+	}
+
+	@Test
+	public void testMeasureFailed() throws Exception {
+		Mockito.when(context.getMethod())
+				.thenReturn(JPAImpl.class.getMethod("get", Class.class, long.class));
+		Mockito.when(context.proceed())
+				.thenThrow(new DataNotFoundException("Not found"));
+
+		try {
+			interceptor.measure(context);
+			fail("The exception of the call should be thrown");
+		} catch (DataNotFoundException e) {
+			Mockito.verify(metrics).record(Mockito.eq("JPAImpl.get"), Mockito.any(), 
+					Mockito.anyLong(), Mockito.anyLong(), Mockito.eq(0L), Mockito.eq(true));
+		}
+	}
+
+	@Test
+	public void testCountRows() throws Exception {
+		assertEquals(3, PersistenceMetricsInterceptor.countRows(
+				JPAImplCar.class.getMethod("deleteSoftRemovedCars", List.class, Date.class), 3));
+		assertEquals(1, PersistenceMetricsInterceptor.countRows(
+				JPAImplCar.class.getMethod("getVersion", long.class), 7L));
+		assertEquals(0, PersistenceMetricsInterceptor.countRows(
+				JPAImplCar.class.getMethod("getLastUpdated", long.class), null));
+	}
+}
@@ -0,0 +1,101 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.diego.tutorial.car.model.OperationStatistics;
+import org.diego.tutorial.car.model.SlowQuery;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link PersistenceMetrics} class
+ *
+ */
+public class PersistenceMetricsTest {
+
+	private PersistenceMetrics metrics = new PersistenceMetrics();
+
+	@Before
+	public void setUp() {
+		Whitebox.setInternalState(metrics, "slowQueryMillis", 100L);
+		Whitebox.setInternalState(metrics, "slowQueryLogSize", 2);
+		metrics.start();
+	}
+
+	@Test
+	public void testRecord() {
+		for (int i = 0; i < 98; i++) {
+			metrics.record("JPAImpl.get", new Object[] { Object.class, 1L }, 0, TimeUnit.MICROSECONDS.toNanos(500), 1, false);
+		}
+		metrics.record("JPAImpl.get", new Object[] { Object.class, 2L }, 0, TimeUnit.MILLISECONDS.toNanos(30), 0, true);
+		metrics.record("JPAImpl.get", new Object[] { Object.class, 3L }, 0, TimeUnit.MILLISECONDS.toNanos(40), 1, false);
+		metrics.record("JPAImpl.getAll", new Object[] { Object.class }, 0, TimeUnit.MILLISECONDS.toNanos(3), 10, false);
+
+		List<OperationStatistics> statistics = metrics.getOperationStatistics();
+
+		assertEquals(2, statistics.size());
+		OperationStatistics get = statistics.get(0);
+		assertEquals("JPAImpl.get", get.getOperation());
+		assertEquals(100, get.getCount());
+		assertEquals(1, get.getErrorCount());
+		assertEquals(99, get.getRows());
+		assertEquals(40, get.getMaxMillis(), 0.0001);
+		assertEquals(1, get.getP50Millis(), 0.0001);
+		assertEquals(1, get.getP95Millis(), 0.0001);
+		assertEquals(40, get.getP99Millis(), 0.0001);
+		assertEquals(Long.valueOf(98), get.getLatencyHistogram().get("1"));
+		assertEquals(Long.valueOf(2), get.getLatencyHistogram().get("50"));
+		assertEquals(Long.valueOf(0), get.getLatencyHistogram().get("+Inf"));
+		assertEquals("JPAImpl.getAll", statistics.get(1).getOperation());
+		assertEquals(10, statistics.get(1).getRows());
+		assertTrue(metrics.getSlowQueries().isEmpty());
+	}
+
+	@Test
+	public void testSlowQueries() {
+		metrics.record("JPAImplCar.getCarsPage", new Object[] { 0L, 10 }, 0, TimeUnit.MILLISECONDS.toNanos(100), 10, false);
+		metrics.record("JPAImplCar.getCarsPage", new Object[] { 10L, 10 }, 0, TimeUnit.MILLISECONDS.toNanos(99), 10, false);
+		metrics.record("JPAImplCar.updateCar", new Object[] { "car" }, 0, TimeUnit.MILLISECONDS.toNanos(150), 1, false);
+		metrics.record("JPAImplCar.deleteCar", new Object[] { 1L, null }, 0, TimeUnit.MILLISECONDS.toNanos(6000), 0, true);
+
+		List<SlowQuery> slowQueries = metrics.getSlowQueries();
+
+		// Only the last slow queries are kept, the most recent first
+		assertEquals(2, slowQueries.size());
+		assertEquals("JPAImplCar.deleteCar", slowQueries.get(0).getOperation());
+		assertEquals("[1, null]", slowQueries.get(0).getParameters());
+		assertTrue(slowQueries.get(0).isFailed());
+		assertEquals("JPAImplCar.updateCar", slowQueries.get(1).getOperation());
+		assertEquals(Long.valueOf(1), metrics.getOperationStatistics().get(0).getLatencyHistogram().get("+Inf"));
+	}
+
+	@Test
+	public void testSlowQueryLongParameters() {
+		List<Long> ids = new ArrayList<Long>();
+		for (long id = 0; id < 100000; id++) {
+			ids.add(id);
+		}
+		metrics.record("JPAImplCar.deleteSoftRemovedCars", new Object[] { ids, null }, 0, TimeUnit.MILLISECONDS.toNanos(100), 0, false);
+
+		String parameters = metrics.getSlowQueries().get(0).getParameters();
+
+		assertEquals(503, parameters.length());
+		assertTrue(parameters.startsWith("[[0, 1, 2, "));
+		assertTrue(parameters.endsWith("..."));
+	}
+
+	@Test
+	public void testReset() {
+		metrics.record("JPAImpl.add", new Object[] { "car" }, 0, TimeUnit.MILLISECONDS.toNanos(200), 1, false);
+
+		metrics.reset();
+
+		assertTrue(metrics.getOperationStatistics().isEmpty());
+		assertTrue(metrics.getSlowQueries().isEmpty());
+	}
+}
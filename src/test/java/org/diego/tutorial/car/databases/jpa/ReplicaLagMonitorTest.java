@@ -0,0 +1,61 @@
+package org.diego.tutorial.car.databases.jpa;
+
+import static org.junit.Assert.*;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link ReplicaLagMonitor} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicaLagMonitorTest {
+
+	@InjectMocks
+	private ReplicaLagMonitor monitor;
+	@Mock
+	private EntityManager replicaEm;
+	@Mock
+	private Query query;
+
+	@Before
+	public void setUp() {
+		Whitebox.setInternalState(monitor, "enabled", true);
+		Whitebox.setInternalState(monitor, "maxLagMillis", 1000L);
+		Mockito.when(replicaEm.createNativeQuery(Mockito.anyString()))
+				.thenReturn(query);
+	}
+
+	@Test
+	public void testReplicaWithinTolerance() {
+		Mockito.when(query.getSingleResult())
+				.thenReturn(200.0);
+
+		monitor.checkLag();
+
+		assertEquals(200, monitor.getLagMillis());
+		assertTrue(monitor.isReplicaUsable());
+	}
+
+	@Test
+	public void testReplicaDisconnected() {
+		Mockito.when(query.getSingleResult())
+				.thenReturn(null);
+
+		monitor.checkLag();
+
+		// A replica that does not receive from the primary database has nothing to replay, but it is not up to date
+		assertEquals(Long.MAX_VALUE, monitor.getLagMillis());
+		assertFalse(monitor.isReplicaUsable());
+	}
+}
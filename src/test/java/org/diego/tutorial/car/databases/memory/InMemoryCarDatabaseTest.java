@@ -0,0 +1,234 @@
+package org.diego.tutorial.car.databases.memory;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.model.Car;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link InMemoryCarDatabase} class
+ *
+ */
+public class InMemoryCarDatabaseTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private InMemoryCarDatabase database = new InMemoryCarDatabase();
+
+	/**
+	 * Method that creates a database that keeps its cars in the given snapshot file
+	 */
+	private static InMemoryCarDatabase createDatabase(File snapshot) {
+		InMemoryCarDatabase snapshotDatabase = new InMemoryCarDatabase();
+		Whitebox.setInternalState(snapshotDatabase, "snapshotFile", snapshot.getPath());
+		return snapshotDatabase;
+	}
+
+	private Car addCar(String brand, String country) {
+		Date now = new Date();
+		return database.add(new Car(0, brand, now, country, now, now));
+	}
+
+	@Test
+	public void testAddAndGet() {
+		Car car = addCar("seat", "spain");
+
+		Car carRead = database.get(Car.class, car.getId());
+
+		assertEquals(1, car.getId());
+		assertEquals(Long.valueOf(0), car.getVersion());
+		assertEquals("seat", carRead.getBrand());
+		// The stored car is not modified through the cars read
+		carRead.setBrand("other");
+		assertEquals("seat", database.get(Car.class, car.getId()).getBrand());
+	}
+
+	@Test(expected = DataNotFoundException.class)
+	public void testGetDataNotFound() {
+		database.get(Car.class, 1);
+	}
+
+	@Test
+	public void testGetCarsFromCountryPage() {
+		Car first = addCar("seat", "spain");
+		addCar("renault", "france");
+		Car second = addCar("cupra", "spain");
+		Car third = addCar("seat", "spain");
+
+		List<Car> page = database.getCarsFromCountryPage(" Spain ", first.getId(), 1);
+
+		assertEquals(1, page.size());
+		assertEquals(second.getId(), page.get(0).getId());
+		assertEquals(third.getId(), database.getCarsFromCountryPage("spain", second.getId(), 10).get(0).getId());
+		assertEquals(4, database.getCarsPage(0, 10).size());
+	}
+
+	@Test
+	public void testUpdateCarChangesCountryIndex() {
+		Car car = addCar("seat", "spain");
+		car.setCountry("france");
+		car.setLastUpdated(new Date());
+
+		Car updated = database.updateCar(car);
+
+		assertEquals(Long.valueOf(1), updated.getVersion());
+		assertEquals("france", updated.getCountry());
+		assertTrue(database.getCarsFromCountryPage("spain", 0, 10).isEmpty());
+		assertEquals(1, database.getCarsFromCountryPage("france", 0, 10).size());
+		assertEquals(Long.valueOf(1), database.getVersion(car.getId()));
+	}
+
+	@Test
+	public void testUpdateCarVersionConflict() {
+		Car car = addCar("seat", "spain");
+		car.setVersion(5L);
+
+		assertNull(database.updateCar(car));
+		assertEquals(Long.valueOf(0), database.getVersion(car.getId()));
+	}
+
+	@Test
+	public void testUpdateCars() {
+		Car first = addCar("seat", "spain");
+		Car second = addCar("renault", "france");
+		Car changedFirst = new Car(first.getId(), "citroen", null, null, null, new Date());
+		Car changedSecond = new Car(second.getId(), null, null, null, null, new Date());
+		changedSecond.setSoftRemoved(true);
+		changedSecond.setVersion(4L);
+		Car missing = new Car(99, "seat", null, "spain", null, new Date());
+
+		assertEquals(1, database.updateCars(Arrays.asList(changedFirst, changedSecond, missing)));
+
+		Car firstRead = database.get(Car.class, first.getId());
+		assertEquals("citroen", firstRead.getBrand());
+		assertEquals("spain", firstRead.getCountry());
+		assertEquals(Long.valueOf(1), firstRead.getVersion());
+		assertFalse(database.get(Car.class, second.getId()).isSoftRemoved());
+	}
+
+	@Test
+	public void testSoftRemovedCars() {
+		Car car = addCar("seat", "spain");
+		addCar("renault", "france");
+		Date removedAt = new Date(System.currentTimeMillis() - 60000);
+
+		assertEquals(Long.valueOf(1), database.softRemoveCar(car.getId(), 0L, removedAt).getVersion());
+		assertNull(database.softRemoveCar(car.getId(), 0L, new Date()));
+		// Removing it again does not extend its retention
+		assertEquals(removedAt, database.softRemoveCar(car.getId(), null, new Date()).getSoftRemovedAt());
+		assertNull(database.softRemoveCar(99, null, new Date()));
+
+		assertEquals(1, database.countSoftRemovedCars());
+		List<Long> ids = database.getSoftRemovedCarIds(new Date(), 10);
+		assertEquals(Arrays.asList(car.getId()), ids);
+		assertEquals(1, database.deleteSoftRemovedCars(ids, new Date()));
+		assertEquals(0, database.countSoftRemovedCars());
+		assertEquals(1, database.getAll(Car.class).size());
+	}
+
+	@Test
+	public void testCounts() {
+		addCar("seat", "spain");
+		addCar("seat", "france");
+		addCar("renault", "france");
+
+		Map<String, Long> countries = database.countCarsByCountry();
+
+		assertEquals(Arrays.asList("france", "spain"), new ArrayList<String>(countries.keySet()));
+		assertEquals(Long.valueOf(2), database.countCarsByBrand().get("seat"));
+		assertEquals(1, database.countCarsCreatedByDay(new Date(0)).size());
+		assertEquals(Long.valueOf(3), database.countCarsCreatedByDay(new Date(0)).values().iterator().next());
+	}
+
+	@Test
+	public void testGetCarFieldsPage() {
+		Car car = addCar("seat", "spain");
+
+		List<Map<String, Object>> cars = database.getCarFieldsPage(Arrays.asList("id", "brand"), null, 0, 10);
+
+		assertEquals(1, cars.size());
+		assertEquals(car.getId(), cars.get(0).get("id"));
+		assertEquals("seat", cars.get(0).get("brand"));
+		assertEquals(2, cars.get(0).size());
+	}
+
+	@Test
+	public void testSearchCarsByBrand() {
+		Car seat = addCar("Seat", "spain");
+		addCar("Renault", "france");
+		Car seatIbiza = addCar("Seat Ibiza", "spain");
+		Car seet = addCar("Seet", "spain");
+
+		List<Car> prefix = database.searchCarsByBrand("se", false, 0, 10);
+		List<Car> fuzzy = database.searchCarsByBrand("seatt", true, 0, 10);
+
+		assertEquals(Arrays.asList(seat.getId(), seatIbiza.getId(), seet.getId()), ids(prefix));
+		assertEquals(Arrays.asList(seat.getId(), seatIbiza.getId()), ids(fuzzy));
+		assertTrue(database.searchCarsByBrand("seatt", false, 0, 10).isEmpty());
+		assertEquals(Arrays.asList(seatIbiza.getId()), ids(database.searchCarsByBrand("SEAT", false, seat.getId(), 1)));
+		assertTrue(database.searchCarsByBrand("seet", false, 0, 10).size() == 1);
+	}
+
+	@Test
+	public void testSearchCarsByBrandAfterUpdate() {
+		Car car = addCar("seat", "spain");
+		car.setBrand("audi");
+		car.setLastUpdated(new Date());
+		database.updateCar(car);
+
+		assertTrue(database.searchCarsByBrand("seat", false, 0, 10).isEmpty());
+		assertEquals(1, database.searchCarsByBrand("au", false, 0, 10).size());
+	}
+
+	private static List<Long> ids(List<Car> cars) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Car car : cars) {
+			ids.add(car.getId());
+		}
+		return ids;
+	}
+
+	@Test
+	public void testStreamCarIds() {
+		Car car1 = addCar("seat", "spain");
+		Car car2 = addCar("renault", "france");
+		database.softRemoveCar(car2.getId(), null, new Date());
+		List<Long> ids = new ArrayList<Long>();
+
+		assertEquals(2, database.streamCarIds(ids::add));
+		assertEquals(Arrays.asList(car1.getId(), car2.getId()), ids);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File snapshot = new File(folder.getRoot(), "cars.snapshot");
+		database = createDatabase(snapshot);
+		database.start();
+		addCar("seat", "spain");
+		Car removed = addCar("renault", "france");
+		database.softRemoveCar(removed.getId(), null, new Date());
+
+		database.stop();
+
+		InMemoryCarDatabase restored = createDatabase(snapshot);
+		restored.start();
+		assertEquals(2, restored.getAll(Car.class).size());
+		assertEquals(1, restored.countSoftRemovedCars());
+		assertEquals(1, restored.getCarsFromCountryPage("spain", 0, 10).size());
+		// The identifiers continue after the last one assigned
+		Date now = new Date();
+		assertEquals(3, restored.add(new Car(0, "cupra", now, "spain", now, now)).getId());
+	}
+}
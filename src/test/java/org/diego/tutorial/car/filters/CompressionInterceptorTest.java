@@ -0,0 +1,41 @@
+package org.diego.tutorial.car.filters;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Set of unit tests for the {@link CompressionInterceptor} class
+ *
+ */
+public class CompressionInterceptorTest {
+
+	@Test
+	public void testNegotiateEncodingNoHeader() {
+		assertNull(CompressionInterceptor.negotiateEncoding(null));
+	}
+
+	@Test
+	public void testNegotiateEncodingGzipPreferred() {
+		assertEquals(CompressionInterceptor.GZIP, CompressionInterceptor.negotiateEncoding("gzip, deflate, br"));
+		assertEquals(CompressionInterceptor.GZIP, CompressionInterceptor.negotiateEncoding("deflate, gzip"));
+	}
+
+	@Test
+	public void testNegotiateEncodingQuality() {
+		assertEquals(CompressionInterceptor.DEFLATE, CompressionInterceptor.negotiateEncoding("gzip;q=0.5, deflate"));
+		assertEquals(CompressionInterceptor.DEFLATE, CompressionInterceptor.negotiateEncoding("gzip;q=0, deflate;q=0.1"));
+	}
+
+	@Test
+	public void testNegotiateEncodingWildcard() {
+		assertEquals(CompressionInterceptor.GZIP, CompressionInterceptor.negotiateEncoding("*"));
+		assertEquals(CompressionInterceptor.DEFLATE, CompressionInterceptor.negotiateEncoding("gzip;q=0, *"));
+	}
+
+	@Test
+	public void testNegotiateEncodingNotAccepted() {
+		assertNull(CompressionInterceptor.negotiateEncoding("identity"));
+		assertNull(CompressionInterceptor.negotiateEncoding("br, *;q=0"));
+	}
+}
@@ -0,0 +1,138 @@
+package org.diego.tutorial.car.jms;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import javax.jms.MessageFormatException;
+
+import org.diego.tutorial.car.model.Car;
+import org.junit.Test;
+
+/**
+ * Set of tests for the {@link CarMessageCodec} class
+ *
+ */
+public class CarMessageCodecTest {
+
+	private Car createCar() {
+		Car car = new Car(123456L, "Volkswagen", new Date(1500000000000L), "spain", 
+				new Date(1600000000000L), new Date(1600000001000L));
+		car.setVersion(3L);
+		return car;
+	}
+	
+	@Test
+	public void testEncodeAndDecode() throws MessageFormatException {
+		Car car = createCar();
+		car.setSoftRemoved(true);
+		car.setSoftRemovedAt(new Date(1600000002000L));
+		
+		CarMessage carMessage = CarMessageCodec.decode(CarMessageCodec.encode(car, JMSOperations.UPDATE));
+		
+		Car decoded = carMessage.getCar();
+		assertEquals(JMSOperations.UPDATE, carMessage.getOperation());
+		assertEquals(car.getId(), decoded.getId());
+		assertEquals(car.getBrand(), decoded.getBrand());
+		assertEquals(car.getRegistration(), decoded.getRegistration());
+		assertEquals(car.getCountry(), decoded.getCountry());
+		assertEquals(car.getCreatedAt(), decoded.getCreatedAt());
+		assertEquals(car.getLastUpdated(), decoded.getLastUpdated());
+		assertTrue(decoded.isSoftRemoved());
+		assertEquals(car.getSoftRemovedAt(), decoded.getSoftRemovedAt());
+		assertEquals(car.getVersion(), decoded.getVersion());
+	}
+	
+	@Test
+	public void testEncodeAndDecodeEmptyCar() throws MessageFormatException {
+		CarMessage carMessage = CarMessageCodec.decode(CarMessageCodec.encode(new Car(), JMSOperations.CREATE));
+		
+		Car decoded = carMessage.getCar();
+		assertEquals(JMSOperations.CREATE, carMessage.getOperation());
+		assertEquals(0, decoded.getId());
+		assertNull(decoded.getBrand());
+		assertNull(decoded.getRegistration());
+		assertFalse(decoded.isSoftRemoved());
+		assertNull(decoded.getVersion());
+	}
+	
+	@Test
+	public void testEncodeAndDecodeSpecialValues() throws MessageFormatException {
+		Car car = createCar();
+		car.setBrand("Citro\u00ebn \uD83D\uDE97");
+		car.setRegistration(new Date(-86400000L));
+		car.setId(Long.MAX_VALUE);
+		
+		Car decoded = CarMessageCodec.decode(CarMessageCodec.encode(car, JMSOperations.DELETE)).getCar();
+		
+		assertEquals("Citro\u00ebn \uD83D\uDE97", decoded.getBrand());
+		assertEquals(new Date(-86400000L), decoded.getRegistration());
+		assertEquals(Long.MAX_VALUE, decoded.getId());
+	}
+	
+	@Test
+	public void testSmallerThanSerialization() throws IOException {
+		Car car = createCar();
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(serialized)) {
+			output.writeObject(car);
+		}
+		
+		byte[] encoded = CarMessageCodec.encode(car, JMSOperations.CREATE);
+		
+		assertTrue(encoded.length * 10 < serialized.size());
+	}
+	
+	@Test
+	public void testGroupId() {
+		Car car = createCar();
+		
+		assertEquals("car-0", CarMessageCodec.groupId(car, 64));
+		car.setId(123457L);
+		assertEquals("car-1", CarMessageCodec.groupId(car, 64));
+		assertNull(CarMessageCodec.groupId(new Car(), 64));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testGroupIdWithoutGroups() {
+		CarMessageCodec.groupId(createCar(), 0);
+	}
+	
+	@Test(expected = MessageFormatException.class)
+	public void testDecodeUnknownVersion() throws MessageFormatException {
+		byte[] bytes = CarMessageCodec.encode(createCar(), JMSOperations.CREATE);
+		bytes[0] = CarMessageCodec.VERSION + 1;
+		
+		CarMessageCodec.decode(bytes);
+	}
+	
+	@Test
+	public void testOperationCodes() {
+		// The codes are part of the format, so they must not change
+		byte[] bytes = CarMessageCodec.encode(createCar(), JMSOperations.DELETE);
+		
+		assertEquals(2, bytes[1]);
+		assertEquals(JMSOperations.CREATE, JMSOperations.fromCode(0));
+		assertEquals(JMSOperations.UPDATE, JMSOperations.fromCode(1));
+		assertEquals(JMSOperations.DELETE, JMSOperations.fromCode(2));
+	}
+	
+	@Test(expected = MessageFormatException.class)
+	public void testDecodeUnknownOperation() throws MessageFormatException {
+		byte[] bytes = CarMessageCodec.encode(createCar(), JMSOperations.CREATE);
+		bytes[1] = 100;
+		
+		CarMessageCodec.decode(bytes);
+	}
+	
+	@Test(expected = MessageFormatException.class)
+	public void testDecodeTruncated() throws MessageFormatException {
+		byte[] bytes = CarMessageCodec.encode(createCar(), JMSOperations.CREATE);
+		
+		CarMessageCodec.decode(Arrays.copyOf(bytes, bytes.length - 5));
+	}
+}
@@ -0,0 +1,211 @@
+package org.diego.tutorial.car.jms;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.ejb.EJBException;
+import javax.jms.BytesMessage;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+
+import org.diego.tutorial.car.exceptions.VersionConflictException;
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.service.CarService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of tests for the {@link JMSBatchReceiver} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JMSBatchReceiverTest {
+
+	@InjectMocks
+	private JMSBatchReceiver batchReceiver;
+
+	@Mock
+	private CarService carService;
+	@Mock
+	private JMSContext context;
+	@Mock
+	private Queue queue;
+	@Mock
+	private JMSConsumer consumer;
+
+	@Before
+	public void setUp() {
+		Whitebox.setInternalState(batchReceiver, "enabled", true);
+		Whitebox.setInternalState(batchReceiver, "maxSize", 3);
+		Whitebox.setInternalState(batchReceiver, "maxWaitMillis", 1000L);
+		Mockito.when(context.createConsumer(queue))
+				.thenReturn(consumer);
+	}
+
+	private Car createCar(long id, String brand, Long version) {
+		Car car = new Car(id, brand, null, "spain", null, null);
+		car.setVersion(version);
+		return car;
+	}
+
+	private BytesMessage createMessage(Car car, JMSOperations operation) throws JMSException {
+		byte[] payload = CarMessageCodec.encode(car, operation);
+		BytesMessage message = Mockito.mock(BytesMessage.class);
+		Mockito.when(message.getBodyLength())
+				.thenReturn((long) payload.length);
+		Mockito.when(message.readBytes(Mockito.any(byte[].class)))
+				.thenAnswer(invocation -> {
+					byte[] bytes = invocation.getArgument(0);
+					System.arraycopy(payload, 0, bytes, 0, payload.length);
+					return payload.length;
+				});
+		return message;
+	}
+
+	@Test
+	public void testCollapse() {
+		List<CarMessage> batch = Arrays.asList(
+				new CarMessage(createCar(0, "seat", null), JMSOperations.CREATE),
+				new CarMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE),
+				new CarMessage(createCar(2, "renault", 7L), JMSOperations.DELETE),
+				new CarMessage(createCar(1, "citroen", 4L), JMSOperations.UPDATE),
+				new CarMessage(createCar(1, "citroen", 5L), JMSOperations.DELETE),
+				new CarMessage(createCar(0, "renault", null), JMSOperations.UPDATE),
+				new CarMessage(createCar(3, "renault", null), JMSOperations.UPDATE),
+				new CarMessage(createCar(4, "renault", null), JMSOperations.DELETE),
+				new CarMessage(createCar(3, "citroen", null), JMSOperations.UPDATE));
+		List<Car> newCars = new ArrayList<Car>();
+
+		List<List<Car>> rounds = JMSBatchReceiver.collapse(batch, newCars);
+
+		assertEquals(1, newCars.size());
+		assertEquals(3, rounds.size());
+		List<Car> firstRound = rounds.get(0);
+		assertEquals(4, firstRound.size());
+		assertEquals(1, firstRound.get(0).getId());
+		assertEquals("seat", firstRound.get(0).getBrand());
+		assertEquals(Long.valueOf(3), firstRound.get(0).getVersion());
+		assertEquals(2, firstRound.get(1).getId());
+		assertNull(firstRound.get(1).getBrand());
+		assertEquals(Long.valueOf(7), firstRound.get(1).getVersion());
+		assertTrue(firstRound.get(1).isSoftRemoved());
+		// The legacy messages without version are applied unconditionally, so they are merged
+		assertEquals(3, firstRound.get(2).getId());
+		assertEquals("citroen", firstRound.get(2).getBrand());
+		assertNull(firstRound.get(2).getVersion());
+		assertEquals(4, firstRound.get(3).getId());
+		assertNull(firstRound.get(3).getVersion());
+		assertTrue(firstRound.get(3).isSoftRemoved());
+		// Every change with version of the same car is applied in its own round, with its own version
+		Car update = rounds.get(1).get(0);
+		assertEquals(1, update.getId());
+		assertEquals("citroen", update.getBrand());
+		assertEquals(Long.valueOf(4), update.getVersion());
+		Car removal = rounds.get(2).get(0);
+		assertEquals(1, removal.getId());
+		assertEquals(Long.valueOf(5), removal.getVersion());
+		assertTrue(removal.isSoftRemoved());
+	}
+
+	@Test
+	public void testCollapseConflictingUpdates() {
+		List<CarMessage> batch = Arrays.asList(
+				new CarMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE),
+				new CarMessage(createCar(1, "citroen", 3L), JMSOperations.UPDATE));
+
+		List<List<Car>> rounds = JMSBatchReceiver.collapse(batch, new ArrayList<Car>());
+
+		// The second update keeps its version, so it is skipped when the first one is applied, instead of overwriting it
+		assertEquals(2, rounds.size());
+		assertEquals("seat", rounds.get(0).get(0).getBrand());
+		assertEquals(Long.valueOf(3), rounds.get(0).get(0).getVersion());
+		assertEquals("citroen", rounds.get(1).get(0).getBrand());
+		assertEquals(Long.valueOf(3), rounds.get(1).get(0).getVersion());
+	}
+
+	@Test
+	public void testReceiveBatch() throws JMSException {
+		BytesMessage first = createMessage(createCar(0, "seat", null), JMSOperations.CREATE);
+		BytesMessage second = createMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE);
+		BytesMessage third = createMessage(createCar(1, "renault", 4L), JMSOperations.UPDATE);
+		BytesMessage fourth = createMessage(createCar(2, "renault", null), JMSOperations.UPDATE);
+		Iterator<Message> messages = Arrays.<Message>asList(first, second, third, fourth).iterator();
+		// The next messages are received with or without wait, depending on the time left
+		Mockito.lenient().when(consumer.receive(Mockito.anyLong()))
+				.thenAnswer(invocation -> messages.next());
+		Mockito.lenient().when(consumer.receiveNoWait())
+				.thenAnswer(invocation -> messages.next());
+
+		assertTrue(batchReceiver.receiveBatch(batchReceiver));
+
+		Mockito.verify(carService).applyChanges(Mockito.argThat(cars -> cars.size() == 1),
+				Mockito.argThat(cars -> cars.size() == 1 && "seat".equals(cars.get(0).getBrand())));
+		Mockito.verify(carService).applyChanges(Mockito.argThat(cars -> cars.isEmpty()),
+				Mockito.argThat(cars -> cars.size() == 1 && "renault".equals(cars.get(0).getBrand())));
+		Mockito.verify(consumer).close();
+		assertEquals(1, batchReceiver.getBatchStatistics().getCount());
+		assertEquals(3, batchReceiver.getBatchStatistics().getRows());
+	}
+
+	@Test
+	public void testReceiveNothing() {
+		assertFalse(batchReceiver.receiveBatch(batchReceiver));
+
+		Mockito.verifyZeroInteractions(carService);
+		assertEquals(0, batchReceiver.getBatchStatistics().getCount());
+	}
+
+	@Test
+	public void testFailedBatchIsAppliedOneByOne() throws JMSException {
+		BytesMessage message = createMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE);
+		BytesMessage redelivered = createMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE);
+		Mockito.when(consumer.receive(Mockito.anyLong()))
+				.thenReturn(message, null, redelivered);
+		Mockito.when(carService.applyChanges(Mockito.anyList(), Mockito.anyList()))
+				.thenThrow(new EJBException("Database not available"));
+
+		// The exception rolls back the transaction of the batch
+		assertFalse(batchReceiver.receiveBatch(batchReceiver));
+
+		assertTrue(batchReceiver.receiveBatch(batchReceiver));
+		Mockito.verify(carService).updateCar(Mockito.any(Car.class));
+		assertEquals(1, batchReceiver.getBatchStatistics().getErrorCount());
+		assertEquals(1, batchReceiver.getBatchStatistics().getRows());
+	}
+
+	@Test
+	public void testMessageThatCannotBeAppliedIsSkipped() throws JMSException {
+		BytesMessage message = createMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE);
+		Mockito.when(consumer.receive(Mockito.anyLong()))
+				.thenReturn(message);
+		Mockito.when(carService.updateCar(Mockito.any(Car.class)))
+				.thenThrow(new VersionConflictException("The car has changed"));
+
+		assertEquals(1, batchReceiver.receiveInTransaction(true));
+	}
+
+	@Test
+	public void testMessageDeliveredTooManyTimesIsSkipped() throws JMSException {
+		BytesMessage message = createMessage(createCar(1, "seat", 3L), JMSOperations.UPDATE);
+		Mockito.when(message.getIntProperty("JMSXDeliveryCount"))
+				.thenReturn(JMSBatchReceiver.MAX_DELIVERIES + 1);
+		Mockito.when(consumer.receive(Mockito.anyLong()))
+				.thenReturn(message);
+
+		assertEquals(1, batchReceiver.receiveInTransaction(true));
+		Mockito.verifyZeroInteractions(carService);
+	}
+}
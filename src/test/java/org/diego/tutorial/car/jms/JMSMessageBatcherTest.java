@@ -0,0 +1,188 @@
+package org.diego.tutorial.car.jms;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.EJBTransactionRolledbackException;
+import javax.ejb.SessionContext;
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
+import javax.jms.Queue;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.diego.tutorial.car.jms.JMSMessageBatcher.PendingMessage;
+import org.diego.tutorial.car.model.Car;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of tests for the {@link JMSMessageBatcher} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JMSMessageBatcherTest {
+
+	@InjectMocks
+	private JMSMessageBatcher messageBatcher = createBatcher(true, 10);
+
+	@Mock
+	private JMSContext context;
+	@Mock
+	private JMSMetrics metrics;
+	@Mock
+	private Queue queue;
+	@Mock
+	private SessionContext sessionContext;
+
+	private JMSProducer producer;
+
+	/**
+	 * Method that creates a batcher of up to 3 messages with 50 ms of linger, with the fields of the environment entries set
+	 */
+	private static JMSMessageBatcher createBatcher(boolean enabled, int bufferCapacity) {
+		JMSMessageBatcher batcher = new JMSMessageBatcher();
+		Whitebox.setInternalState(batcher, "enabled", enabled);
+		Whitebox.setInternalState(batcher, "lingerMillis", 50L);
+		Whitebox.setInternalState(batcher, "maxSize", 3);
+		Whitebox.setInternalState(batcher, "bufferCapacity", bufferCapacity);
+		Whitebox.setInternalState(batcher, "offerTimeoutMillis", 10L);
+		return batcher;
+	}
+
+	@Before
+	public void setUp() {
+		producer = Mockito.mock(JMSProducer.class);
+
+		Mockito.when(context.createProducer())
+				.thenReturn(producer);
+		Mockito.when(context.createBytesMessage())
+				.thenAnswer(invocation -> Mockito.mock(BytesMessage.class));
+		// The transaction of the business object is not started outside the container
+		Mockito.when(sessionContext.getBusinessObject(JMSMessageBatcher.class))
+				.thenReturn(messageBatcher);
+	}
+
+	@Test
+	public void testMessagesAreSentInBatches() throws Exception {
+		messageBatcher.start();
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (int i = 0; i < 6; i++) {
+			futures.add(messageBatcher.submit(queue, new Car(), JMSOperations.CREATE, null));
+		}
+
+		for (CompletableFuture<Void> future : futures) {
+			future.get(5, TimeUnit.SECONDS);
+		}
+		messageBatcher.stop();
+
+		Mockito.verify(producer, Mockito.times(6)).send(Mockito.eq(queue), Mockito.any(BytesMessage.class));
+		Mockito.verify(context, Mockito.atMost(6)).createProducer();
+		assertEquals(6, messageBatcher.getBatchStatistics().getRows());
+		assertTrue(messageBatcher.getBatchStatistics().getCount() < 6);
+	}
+
+	@Test
+	public void testFillBatchUpToMaxSize() throws Exception {
+		Mockito.reset(context, sessionContext);
+		// Without the thread of the batcher, the buffer is only emptied by the test
+		JMSMessageBatcher bufferOnly = createBatcher(false, 10);
+		bufferOnly.start();
+		for (int i = 0; i < 4; i++) {
+			bufferOnly.submit(queue, new Car(), JMSOperations.CREATE, null);
+		}
+		List<PendingMessage> batch = new ArrayList<PendingMessage>();
+
+		assertTrue(bufferOnly.fillBatch(batch));
+		assertEquals(3, batch.size());
+		assertEquals(1, bufferOnly.getBufferedMessages());
+	}
+
+	@Test
+	public void testMessageIsBufferedWhenTheTransactionCommits() throws Exception {
+		Mockito.reset(context, sessionContext);
+		JMSMessageBatcher bufferOnly = createBatcher(false, 10);
+		TransactionSynchronizationRegistry transactionRegistry = Mockito.mock(TransactionSynchronizationRegistry.class);
+		Whitebox.setInternalState(bufferOnly, "transactionRegistry", transactionRegistry);
+		Mockito.when(transactionRegistry.getTransactionStatus())
+				.thenReturn(Status.STATUS_ACTIVE);
+		bufferOnly.start();
+
+		CompletableFuture<Void> committed = bufferOnly.submit(queue, new Car(), JMSOperations.UPDATE, "car-0");
+		CompletableFuture<Void> rolledBack = bufferOnly.submit(queue, new Car(), JMSOperations.UPDATE, "car-0");
+
+		// Nothing is published until the transaction of the caller completes
+		ArgumentCaptor<Synchronization> synchronizations = ArgumentCaptor.forClass(Synchronization.class);
+		Mockito.verify(transactionRegistry, Mockito.times(2)).registerInterposedSynchronization(synchronizations.capture());
+		assertEquals(0, bufferOnly.getBufferedMessages());
+		synchronizations.getAllValues().get(0).afterCompletion(Status.STATUS_COMMITTED);
+		synchronizations.getAllValues().get(1).afterCompletion(Status.STATUS_ROLLEDBACK);
+		assertEquals(1, bufferOnly.getBufferedMessages());
+		assertFalse(committed.isDone());
+		assertTrue(rolledBack.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testFailedBatchCompletesFuturesExceptionally() throws Exception {
+		Mockito.when(producer.send(Mockito.eq(queue), Mockito.any(BytesMessage.class)))
+				.thenThrow(new JMSRuntimeException("Connection lost"));
+		List<PendingMessage> batch = new ArrayList<PendingMessage>();
+		batch.add(new PendingMessage(queue, new Car(), JMSOperations.UPDATE, "car-0"));
+
+		messageBatcher.sendBatch(batch);
+
+		// The batch is not sent again, as it may have reached the queue
+		Mockito.verify(producer).send(Mockito.eq(queue), Mockito.any(BytesMessage.class));
+		Mockito.verify(metrics).recordSend(Mockito.anyLong(), Mockito.eq(1), Mockito.eq(true));
+		try {
+			batch.get(0).getFuture().get();
+			fail("The message should not have been sent");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof JMSRuntimeException);
+		}
+	}
+
+	@Test
+	public void testRolledBackBatchCompletesFuturesExceptionally() throws Exception {
+		JMSMessageBatcher businessObject = Mockito.mock(JMSMessageBatcher.class);
+		Mockito.when(sessionContext.getBusinessObject(JMSMessageBatcher.class))
+				.thenReturn(businessObject);
+		List<PendingMessage> batch = new ArrayList<PendingMessage>();
+		batch.add(new PendingMessage(queue, new Car(), JMSOperations.UPDATE, "car-0"));
+		Mockito.doThrow(new EJBTransactionRolledbackException("The commit failed"))
+				.when(businessObject).sendInTransaction(batch);
+
+		messageBatcher.sendBatch(batch);
+
+		assertTrue(batch.get(0).getFuture().isCompletedExceptionally());
+		assertEquals(1, messageBatcher.getBatchStatistics().getErrorCount());
+	}
+
+	@Test
+	public void testFullBufferRejectsMessages() throws Exception {
+		Mockito.reset(context, sessionContext);
+		JMSMessageBatcher smallBatcher = createBatcher(false, 1);
+		smallBatcher.start();
+		smallBatcher.submit(queue, new Car(), JMSOperations.CREATE, null);
+
+		CompletableFuture<Void> rejected = smallBatcher.submit(queue, new Car(), JMSOperations.CREATE, null);
+
+		assertTrue(rejected.isCompletedExceptionally());
+		assertEquals(1, smallBatcher.getRejectedMessages());
+	}
+}
@@ -1,5 +1,8 @@
 package org.diego.tutorial.car.jms;
 
+import static org.junit.Assert.assertEquals;
+
+import javax.jms.BytesMessage;
 import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
 import javax.jms.TextMessage;
@@ -8,6 +11,7 @@ import org.diego.tutorial.car.model.Car;
 import org.diego.tutorial.car.model.service.CarService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -61,6 +65,25 @@ public class JMSReceiverTest {
 				.updateCar(car);
 	}
 	
+	@Test
+	public void testOnMessageUpdateWithoutVersion() throws JMSException {
+		Car car = Mockito.mock(Car.class);
+		String operationString = JMSOperations.UPDATE.toString();
+		ObjectMessage message = Mockito.mock(ObjectMessage.class);
+		
+		Mockito.when(message.getStringProperty(JMSGroups.GLOBAL.toString()))
+				.thenReturn(operationString);
+		
+		Mockito.when(message.getObject())
+				.thenReturn(car);
+		
+		// The legacy message without version is applied unconditionally, instead of being skipped
+		jmsReceiver.onMessage(message);
+		
+		Mockito.verify(carService)
+				.updateCar(car);
+	}
+	
 	@Test
 	public void testOnMessageDelete() throws JMSException {
 		Car car = Mockito.mock(Car.class);
@@ -79,7 +102,51 @@ public class JMSReceiverTest {
 		jmsReceiver.onMessage(message);
 		
 		Mockito.verify(carService)
-				.softRemoveCar(car.getId());
+				.softRemoveCar(car.getId(), car.getVersion());
+	}
+	
+	@Test
+	public void testOnMessageBytes() throws JMSException {
+		Car car = new Car();
+		car.setId(7L);
+		car.setBrand("Seat");
+		byte[] payload = CarMessageCodec.encode(car, JMSOperations.UPDATE);
+		BytesMessage message = Mockito.mock(BytesMessage.class);
+		
+		Mockito.when(message.getBodyLength())
+				.thenReturn((long) payload.length);
+		Mockito.when(message.readBytes(Mockito.any(byte[].class)))
+				.thenAnswer(invocation -> {
+					byte[] bytes = invocation.getArgument(0);
+					System.arraycopy(payload, 0, bytes, 0, payload.length);
+					return payload.length;
+				});
+		
+		jmsReceiver.onMessage(message);
+		
+		ArgumentCaptor<Car> updated = ArgumentCaptor.forClass(Car.class);
+		Mockito.verify(carService)
+				.updateCar(updated.capture());
+		assertEquals(7L, updated.getValue().getId());
+		assertEquals("Seat", updated.getValue().getBrand());
+	}
+	
+	@Test
+	public void testOnMessageBytesUnknownVersion() throws JMSException {
+		BytesMessage message = Mockito.mock(BytesMessage.class);
+		
+		Mockito.when(message.getBodyLength())
+				.thenReturn(3L);
+		Mockito.when(message.readBytes(Mockito.any(byte[].class)))
+				.thenAnswer(invocation -> {
+					byte[] bytes = invocation.getArgument(0);
+					bytes[0] = 99;
+					return bytes.length;
+				});
+		
+		jmsReceiver.onMessage(message);
+		
+		Mockito.verifyZeroInteractions(carService);
 	}
 	
 	@Test(expected = ClassCastException.class)
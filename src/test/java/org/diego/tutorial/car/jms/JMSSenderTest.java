@@ -1,12 +1,17 @@
 package org.diego.tutorial.car.jms;
 
-import javax.jms.Connection;
-import javax.jms.ConnectionFactory;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSContext;
 import javax.jms.JMSException;
-import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
+import javax.jms.JMSProducer;
+import javax.jms.JMSRuntimeException;
 import javax.jms.Queue;
-import javax.jms.Session;
 
 import org.diego.tutorial.car.model.Car;
 import org.junit.Before;
@@ -17,6 +22,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
 
 /**
  * Set of tests for the {@link JMSSender} class
@@ -29,14 +35,20 @@ public class JMSSenderTest {
 	private JMSSender jmsSender;
 	
 	@Mock
-	private ConnectionFactory connectionFactory;
+	private JMSContext context;
+	@Mock
+	private JMSMetrics metrics;
+	@Mock
+	private JMSMessageBatcher messageBatcher;
 	@Mock
 	private Queue queue;
+	@Mock
+	private Queue batchQueue;
 	
 	private static Car car;
 	
-	private ObjectMessage message;
-	private MessageProducer producer;
+	private BytesMessage message;
+	private JMSProducer producer;
 	
 	@BeforeClass
 	public static void onlyOnce() {
@@ -45,27 +57,47 @@ public class JMSSenderTest {
 	
 	@Before
 	public void setUp() throws JMSException{
-		Connection connection = Mockito.mock(Connection.class);
-		Session session = Mockito.mock(Session.class);
-		message = Mockito.mock(ObjectMessage.class);
-		producer = Mockito.mock(MessageProducer.class);
+		message = Mockito.mock(BytesMessage.class);
+		producer = Mockito.mock(JMSProducer.class);
 		
-		Mockito.when(connectionFactory.createConnection())
-				.thenReturn(connection);
-		Mockito.when(connection.createSession(true, 0))
-				.thenReturn(session);
-		Mockito.when(session.createObjectMessage(car))
+		Mockito.when(context.createBytesMessage())
 				.thenReturn(message);
-		Mockito.when(session.createProducer(queue))
+		Mockito.when(context.createProducer())
 				.thenReturn(producer);
 	}
 
 	@Test
 	public void testSendCreateCar() throws JMSException {
-		jmsSender.sendCreateCar(car);
+		CompletableFuture<Void> future = jmsSender.sendCreateCar(car);
+		
+		assertTrue(future.isDone());
+		assertFalse(future.isCompletedExceptionally());
+		Mockito.verify(message)
+				.writeBytes(CarMessageCodec.encode(car, JMSOperations.CREATE));
+		Mockito.verify(message)
+				.setStringProperty(JMSGroups.GLOBAL.toString(), JMSOperations.CREATE.toString());
+		// The new cars have no group yet
+		Mockito.verify(message, Mockito.never())
+				.setStringProperty(Mockito.eq(CarMessageCodec.GROUP_ID_PROPERTY), Mockito.anyString());
+		Mockito.verify(producer)
+				.send(queue, message);
+		Mockito.verify(metrics)
+				.recordSend(Mockito.anyLong(), Mockito.eq(1), Mockito.eq(false));
+	}
+	
+	@Test
+	public void testSendFailure() throws JMSException {
+		Mockito.when(producer.send(queue, message))
+				.thenThrow(new JMSRuntimeException("Connection lost"));
+		
+		CompletableFuture<Void> future = jmsSender.sendCreateCar(car);
 		
+		assertTrue(future.isCompletedExceptionally());
+		// It is not sent again, as it may have reached the broker
 		Mockito.verify(producer)
-				.send(message);
+				.send(queue, message);
+		Mockito.verify(metrics)
+				.recordSend(Mockito.anyLong(), Mockito.eq(1), Mockito.eq(true));
 	}
 
 	@Test
@@ -73,7 +105,7 @@ public class JMSSenderTest {
 		jmsSender.sendUpdateCar(car);
 		
 		Mockito.verify(producer)
-				.send(message);
+				.send(queue, message);
 	}
 	
 	@Test
@@ -81,7 +113,46 @@ public class JMSSenderTest {
 		jmsSender.sendRemoveCar(car);
 		
 		Mockito.verify(producer)
-				.send(message);
+				.send(queue, message);
+	}
+	
+	@Test
+	public void testSendInBatch() {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		Mockito.reset(context);
+		Mockito.when(messageBatcher.isEnabled())
+				.thenReturn(true);
+		Mockito.when(messageBatcher.submit(queue, car, JMSOperations.UPDATE, null))
+				.thenReturn(future);
+		
+		assertSame(future, jmsSender.sendUpdateCar(car));
+		Mockito.verifyZeroInteractions(context);
+	}
+	
+	@Test
+	public void testSendToTheQueueOfTheBatchReceiver() throws JMSException {
+		Whitebox.setInternalState(jmsSender, "batchConsumer", true);
+		
+		jmsSender.sendUpdateCar(car);
+		
+		// The messages are not consumed by both receivers
+		Mockito.verify(producer)
+				.send(batchQueue, message);
+		Mockito.verify(producer, Mockito.never())
+				.send(Mockito.eq(queue), Mockito.any(BytesMessage.class));
+	}
+	
+	@Test
+	public void testSendWithGroupOfTheCar() throws JMSException {
+		Car existingCar = new Car();
+		existingCar.setId(130);
+		
+		jmsSender.sendUpdateCar(existingCar);
+		
+		Mockito.verify(message)
+				.setStringProperty(CarMessageCodec.GROUP_ID_PROPERTY, "car-2");
+		Mockito.verify(producer)
+				.send(queue, message);
 	}
 	
 	@Test(expected = NullPointerException.class)
@@ -0,0 +1,118 @@
+package org.diego.tutorial.car.model.service;
+
+import static org.junit.Assert.*;
+
+import java.util.function.LongConsumer;
+
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link CarIdFilter} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CarIdFilterTest {
+
+	@InjectMocks
+	private CarIdFilter idFilter = createFilter(true);
+	@Mock
+	private ICarDatabase carDatabase;
+
+	/**
+	 * Method that creates a filter sized for 1000 cars, with the fields of the environment entries set
+	 */
+	private static CarIdFilter createFilter(boolean enabled) {
+		CarIdFilter filter = new CarIdFilter();
+		Whitebox.setInternalState(filter, "enabled", enabled);
+		Whitebox.setInternalState(filter, "expectedCars", 1000L);
+		Whitebox.setInternalState(filter, "falsePositiveRate", 0.01);
+		return filter;
+	}
+
+	private void mockCarIds(long... ids) {
+		Mockito.when(carDatabase.streamCarIds(Mockito.any(LongConsumer.class)))
+				.thenAnswer(invocation -> {
+					LongConsumer consumer = invocation.getArgument(0);
+					for (long id : ids) {
+						consumer.accept(id);
+					}
+					return (long) ids.length;
+				});
+	}
+
+	@Test
+	public void testEveryCarMayExistBeforeBuild() {
+		assertTrue(idFilter.needsBuild());
+		assertTrue(idFilter.mightExist(42));
+	}
+
+	@Test
+	public void testBuild() {
+		mockCarIds(1, 2, 4);
+
+		idFilter.buildIfNeeded();
+
+		assertFalse(idFilter.needsBuild());
+		assertTrue(idFilter.mightExist(1));
+		assertTrue(idFilter.mightExist(4));
+		assertFalse(idFilter.mightExist(3));
+	}
+
+	@Test
+	public void testCarsAddedByOtherNodes() {
+		mockCarIds(1, 2, 3);
+		idFilter.buildIfNeeded();
+
+		// The cars with identifiers greater than the ones read may have been added since the build
+		assertTrue(idFilter.mightExist(4));
+		assertTrue(idFilter.mightExist(1000));
+	}
+
+	@Test
+	public void testCarsAddedAfterBuild() {
+		mockCarIds(1, 2, 3);
+		idFilter.buildIfNeeded();
+
+		idFilter.add(4);
+
+		assertTrue(idFilter.mightExist(4));
+	}
+
+	@Test
+	public void testBuildAgainAfterRemovals() {
+		mockCarIds(1, 2, 3);
+		idFilter.buildIfNeeded();
+
+		idFilter.recordRemovals(1);
+
+		assertTrue(idFilter.needsBuild());
+	}
+
+	@Test
+	public void testBuildFailureKeepsEveryCar() {
+		Mockito.when(carDatabase.streamCarIds(Mockito.any(LongConsumer.class)))
+				.thenThrow(new IllegalStateException("Database not available"));
+
+		idFilter.buildIfNeeded();
+
+		assertTrue(idFilter.needsBuild());
+		assertTrue(idFilter.mightExist(4));
+	}
+
+	@Test
+	public void testDisabled() {
+		CarIdFilter disabledFilter = createFilter(false);
+
+		disabledFilter.buildIfNeeded();
+
+		assertTrue(disabledFilter.mightExist(4));
+		Mockito.verifyZeroInteractions(carDatabase);
+	}
+}
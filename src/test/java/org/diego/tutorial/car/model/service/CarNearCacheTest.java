@@ -0,0 +1,95 @@
+package org.diego.tutorial.car.model.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import org.diego.tutorial.car.model.CacheStatistics;
+import org.diego.tutorial.car.model.Car;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link CarNearCache} class
+ *
+ */
+public class CarNearCacheTest {
+
+	private CarNearCache nearCache = createCache(true);
+
+	/**
+	 * Method that creates a cache of up to 100 cars for a minute, with the fields of the environment entries set
+	 */
+	private static CarNearCache createCache(boolean enabled) {
+		CarNearCache cache = new CarNearCache();
+		Whitebox.setInternalState(cache, "enabled", enabled);
+		Whitebox.setInternalState(cache, "maximumSize", 100);
+		Whitebox.setInternalState(cache, "ttlMillis", 60000L);
+		cache.init();
+		return cache;
+	}
+
+	@Test
+	public void testGetReturnsCopies() {
+		Car car = new Car(1, "seat", new Date(), "spain", new Date(), new Date());
+		car.setVersion(2L);
+		nearCache.put(car, nearCache.getStamp());
+		car.setBrand("ford");
+
+		Car cached = nearCache.get(1);
+		cached.setBrand("audi");
+
+		assertEquals("seat", nearCache.get(1).getBrand());
+		assertEquals(Long.valueOf(2), nearCache.get(1).getVersion());
+		assertNotSame(nearCache.get(1), nearCache.get(1));
+	}
+
+	@Test
+	public void testInvalidate() {
+		Car car = new Car(1, "seat", new Date(), "spain", new Date(), new Date());
+		nearCache.put(car, nearCache.getStamp());
+
+		nearCache.invalidate(1);
+
+		assertNull(nearCache.get(1));
+	}
+
+	@Test
+	public void testCarLoadedBeforeInvalidationIsNotStored() {
+		long stamp = nearCache.getStamp();
+		Car car = new Car(1, "seat", new Date(), "spain", new Date(), new Date());
+
+		nearCache.invalidate(1);
+		nearCache.put(car, stamp);
+
+		assertNull(nearCache.get(1));
+	}
+
+	@Test
+	public void testDisabled() {
+		CarNearCache disabledCache = createCache(false);
+		Car car = new Car(1, "seat", new Date(), "spain", new Date(), new Date());
+
+		disabledCache.put(car, disabledCache.getStamp());
+
+		assertNull(disabledCache.get(1));
+	}
+
+	@Test
+	public void testGetStatistics() {
+		Car car = new Car(1, "seat", new Date(), "spain", new Date(), new Date());
+		nearCache.put(car, nearCache.getStamp());
+		nearCache.get(1);
+		nearCache.get(2);
+
+		CacheStatistics statistics = nearCache.getStatistics();
+
+		assertEquals(CarNearCache.REGION, statistics.getRegion());
+		assertEquals(1, statistics.getHitCount());
+		assertEquals(1, statistics.getMissCount());
+		assertEquals(1, statistics.getPutCount());
+		assertEquals(1, statistics.getElementCount());
+		assertEquals(Long.valueOf(0), statistics.getEvictionCount());
+		assertEquals(Integer.valueOf(100), statistics.getMaximumSize());
+	}
+}
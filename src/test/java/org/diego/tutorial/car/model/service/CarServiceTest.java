@@ -1,11 +1,20 @@
 package org.diego.tutorial.car.model.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
-import org.diego.tutorial.car.databases.jpa.JPAImplCar;
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.exceptions.VersionConflictException;
+import org.diego.tutorial.car.model.CacheStatistics;
 import org.diego.tutorial.car.model.Car;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -24,61 +33,263 @@ public class CarServiceTest {
 	@InjectMocks
 	private CarService carService;
 	@Mock
-	private JPAImplCar jpaImpl;
+	private ICarDatabase carDatabase;
+	@Mock
+	private CarNearCache nearCache;
+	@Mock
+	private CarIdFilter idFilter;
 	
 	@Test
-	public void testGetAllCars() {
-		List<Car> cars = new ArrayList<Car>();
+	public void testGetCar() {
+		long id = 1;
+		Car car = Mockito.mock(Car.class);
+		car.setId(id);
 		
-		Mockito.when(jpaImpl.getAll(Car.class))
-				.thenReturn(cars);
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(true);
+		Mockito.when(carDatabase.getCarFromPrimary(id))
+				.thenReturn(car);
 		
-		assertEquals(cars, carService.getAllCars());
+		assertEquals(car, carService.getCar(id));
+	}
+	
+	@Test(expected = DataNotFoundException.class)
+	public void testGetCarNotFound() {
+		long id = 1;
+		
+		try {
+			carService.getCar(id);
+		} finally {
+			Mockito.verify(nearCache, Mockito.never()).put(Mockito.any(Car.class), Mockito.anyLong());
+		}
 	}
 	
 	@Test
-	public void testGetCar() {
+	public void testGetCarNotInIdFilter() {
 		long id = 1;
-		Car car = Mockito.mock(Car.class);
+		Car car = new Car();
 		car.setId(id);
 		
-		Mockito.when(jpaImpl.get(Car.class, id))
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(false);
+		Mockito.when(carDatabase.getCarFromPrimary(id))
 				.thenReturn(car);
 		
+		// The car may have been added by another node, so it is found instead of answering that it does not exist
 		assertEquals(car, carService.getCar(id));
+		Mockito.verify(idFilter).add(id);
 	}
 	
 	@Test
-	public void testGetAllCarsFromCountry() {
+	public void testGetCarNotFoundWithoutStackTrace() {
+		try {
+			carService.getCar(1);
+			fail("The car should not have been found");
+		} catch (DataNotFoundException e) {
+			assertEquals(0, e.getStackTrace().length);
+		}
+	}
+	
+	@Test
+	public void testGetCarFromNearCache() {
+		long id = 1;
+		Car car = new Car();
+		car.setId(id);
+		
+		Mockito.when(nearCache.get(id))
+				.thenReturn(car);
+		
+		assertEquals(car, carService.getCar(id));
+		Mockito.verifyZeroInteractions(carDatabase);
+	}
+	
+	@Test
+	public void testGetCarStoredInNearCache() {
+		long id = 1;
+		long stamp = 3;
+		Car car = new Car();
+		car.setId(id);
+		
+		Mockito.when(nearCache.getStamp())
+				.thenReturn(stamp);
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(true);
+		Mockito.when(carDatabase.getCarFromPrimary(id))
+				.thenReturn(car);
+		
+		// The car is cached as read from the primary database, not from the replica
+		assertEquals(car, carService.getCar(id));
+		Mockito.verify(nearCache).put(car, stamp);
+		Mockito.verify(carDatabase, Mockito.never()).get(Car.class, id);
+	}
+	
+	@Test
+	public void testGetCarLastUpdated() {
+		long id = 1;
+		Date lastUpdated = new Date();
+		
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(true);
+		Mockito.when(carDatabase.getLastUpdated(id))
+				.thenReturn(lastUpdated);
+		
+		assertEquals(lastUpdated, carService.getCarLastUpdated(id));
+	}
+	
+	@Test
+	public void testGetCarLastUpdatedFromNearCache() {
+		long id = 1;
+		Date lastUpdated = new Date();
+		Car car = new Car(id, "seat", lastUpdated, "spain", lastUpdated, lastUpdated);
+		
+		Mockito.when(nearCache.get(id))
+				.thenReturn(car);
+		
+		assertEquals(lastUpdated, carService.getCarLastUpdated(id));
+		Mockito.verifyZeroInteractions(carDatabase);
+	}
+	
+	@Test
+	public void testGetCarLastUpdatedNotInIdFilter() {
+		long id = 1;
+		Date lastUpdated = new Date();
+		Car car = new Car(id, "seat", lastUpdated, "spain", lastUpdated, lastUpdated);
+		
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(false);
+		Mockito.when(carDatabase.getCarFromPrimary(id))
+				.thenReturn(car);
+		
+		// It is read from the primary database, as the replica may not have the car yet
+		assertEquals(lastUpdated, carService.getCarLastUpdated(id));
+		Mockito.verify(carDatabase, Mockito.never()).getLastUpdated(id);
+		Mockito.verify(idFilter).add(id);
+	}
+	
+	@Test
+	public void testGetCarLastUpdatedNotFound() {
+		long id = 1;
+		
+		Mockito.when(idFilter.mightExist(id))
+				.thenReturn(false);
+		
+		assertNull(carService.getCarLastUpdated(id));
+		Mockito.verify(idFilter, Mockito.never()).add(id);
+	}
+	
+	@Test
+	public void testGetCarsPage() {
 		List<Car> cars = new ArrayList<Car>();
-		String countrySpain = "spain";
-		String countryFrance = "france";
 		
-		Car carSpain = Mockito.mock(Car.class);
-		carSpain.setCountry(countrySpain);
-		Car carFrance = Mockito.mock(Car.class);
-		carFrance.setCountry(countryFrance);
+		Mockito.when(carDatabase.getCarsPage(10, 20))
+				.thenReturn(cars);
+		
+		assertEquals(cars, carService.getCars(10, 20));
+	}
+	
+	@Test
+	public void testGetCarsFromCountryPage() {
+		List<Car> cars = new ArrayList<Car>();
+		String country = "spain";
 		
-		cars.add(carSpain);
-		cars.add(carFrance);
+		Mockito.when(carDatabase.getCarsFromCountryPage(country, 10, 20))
+				.thenReturn(cars);
 		
-		List<Car> carsExpect = new ArrayList<Car>();
-		carsExpect.add(carSpain);
+		assertEquals(cars, carService.getCarsFromCountry(country, 10, 20));
+	}
+	
+	@Test
+	public void testStreamCarsInChunks() {
+		List<Car> firstChunk = new ArrayList<Car>();
+		for (int id = 1; id <= CarService.STREAM_CHUNK_SIZE; id++) {
+			firstChunk.add(new Car(id, "seat", null, "spain", null, null));
+		}
+		List<Car> lastChunk = Arrays.asList(new Car(CarService.STREAM_CHUNK_SIZE + 5, "seat", null, "spain", null, null));
+		List<Car> streamed = new ArrayList<Car>();
 		
-		Mockito.when(jpaImpl.getAllCarsFromCountry(countrySpain))
-				.thenReturn(carsExpect);
+		Mockito.when(carDatabase.getCarsFromCountryPage("spain", 0, CarService.STREAM_CHUNK_SIZE))
+				.thenReturn(firstChunk);
+		Mockito.when(carDatabase.getCarsFromCountryPage("spain", CarService.STREAM_CHUNK_SIZE, CarService.STREAM_CHUNK_SIZE))
+				.thenReturn(lastChunk);
 		
-		assertEquals(carsExpect, carService.getAllCarsFromCountry(countrySpain));
+		// Every chunk starts after the last car of the previous one, and a chunk that is not full is the last one
+		assertEquals(CarService.STREAM_CHUNK_SIZE + 1, carService.streamCars("spain", streamed::add));
+		assertEquals(CarService.STREAM_CHUNK_SIZE + 1, streamed.size());
+	}
+	
+	@Test
+	public void testGetCarFields() {
+		List<Map<String, Object>> cars = new ArrayList<Map<String, Object>>();
+		List<String> fields = Arrays.asList("id", "brand");
+		
+		Mockito.when(carDatabase.getCarFieldsPage(fields, "spain", 10, 20))
+				.thenReturn(cars);
+		
+		assertEquals(cars, carService.getCarFields(fields, "spain", 10, 20));
 	}
 	
 	@Test
 	public void testAddCar() {
 		Car car = Mockito.mock(Car.class);
 		
-		Mockito.when(jpaImpl.add(car))
+		Mockito.when(car.getId())
+				.thenReturn(7L);
+		Mockito.when(carDatabase.add(car))
 				.thenReturn(car);
 		
 		assertEquals(car, carService.addCar(car));
+		Mockito.verify(idFilter).add(7L);
+	}
+	
+	@Test
+	public void testAddCarNormalizesCountry() {
+		Car car = new Car();
+		car.setCountry(" Spain ");
+		
+		Mockito.when(carDatabase.add(car))
+				.thenReturn(car);
+		
+		carService.addCar(car);
+		
+		assertEquals("spain", car.getCountry());
+	}
+	
+	@Test
+	public void testAddCars() {
+		List<Car> cars = new ArrayList<Car>();
+		cars.add(new Car());
+		cars.add(new Car());
+		
+		Mockito.when(carDatabase.addAll(cars))
+				.thenReturn(cars);
+		
+		assertEquals(cars, carService.addCars(cars));
+		for (Car car : cars) {
+			assertNotNull(car.getCreatedAt());
+			assertNotNull(car.getLastUpdated());
+			assertNotNull(car.getRegistration());
+		}
+	}
+	
+	@Test
+	public void testApplyChanges() {
+		List<Car> newCars = new ArrayList<Car>();
+		newCars.add(new Car());
+		Car changed = new Car(1, null, null, " France", null, null);
+		Car missing = new Car();
+		missing.setId(2);
+		List<Car> changedCars = Arrays.asList(changed, missing);
+		
+		Mockito.when(carDatabase.addAll(newCars))
+				.thenReturn(newCars);
+		Mockito.when(carDatabase.updateCars(changedCars))
+				.thenReturn(1);
+		
+		assertEquals(2, carService.applyChanges(newCars, changedCars));
+		assertEquals("france", changed.getCountry());
+		assertNotNull(changed.getLastUpdated());
+		Mockito.verify(nearCache).invalidate(1);
+		Mockito.verify(nearCache).invalidate(2);
 	}
 	
 	@Test
@@ -86,39 +297,162 @@ public class CarServiceTest {
 		long id = 1;
 		Car car = new Car();
 		car.setId(id);
+		car.setVersion(3L);
+		Car stored = new Car(id, "seat", new Date(), "spain", new Date(), new Date());
+		stored.setVersion(4L);
 		
-		Mockito.when(jpaImpl.get(Car.class, id))
-				.thenReturn(car);
-		Mockito.when(jpaImpl.update(car))
-				.thenReturn(car);
+		Mockito.when(carDatabase.updateCar(car))
+				.thenReturn(stored);
 		
-		assertEquals(car, carService.updateCar(car));
+		// The stored car is returned, instead of the one of the request
+		assertEquals(stored, carService.updateCar(car));
+		assertNotNull(car.getLastUpdated());
+		Mockito.verify(nearCache).invalidate(id);
 	}
 	
 	@Test
-	public void testSoftRemoveCar() {
+	public void testUpdateCarWithoutVersion() {
+		Car car = new Car();
+		car.setId(1);
+		Car stored = new Car();
+		
+		Mockito.when(carDatabase.updateCar(car))
+				.thenReturn(stored);
+		
+		// The car without version is updated unconditionally
+		assertEquals(stored, carService.updateCar(car));
+	}
+	
+	@Test(expected = DataNotFoundException.class)
+	public void testUpdateCarNotFound() {
 		long id = 1;
 		Car car = new Car();
 		car.setId(id);
+		car.setVersion(3L);
 		
-		Mockito.when(jpaImpl.get(Car.class, id))
-				.thenReturn(car);
+		Mockito.when(carDatabase.updateCar(car))
+				.thenReturn(null);
+		Mockito.when(carDatabase.getVersion(id))
+				.thenReturn(null);
 		
-		assertEquals(car, carService.softRemoveCar(id));
-		assertEquals(true, car.isSoftRemoved());
+		carService.updateCar(car);
 	}
 	
-	@Test
-	public void testRemoveCar() {
+	@Test(expected = VersionConflictException.class)
+	public void testUpdateCarVersionConflict() {
 		long id = 1;
 		Car car = new Car();
 		car.setId(id);
+		car.setVersion(3L);
 		
-		Mockito.when(jpaImpl.get(Car.class, id))
-				.thenReturn(car);
-		Mockito.when(jpaImpl.delete(car))
-				.thenReturn(car);
+		Mockito.when(carDatabase.updateCar(car))
+				.thenReturn(null);
+		Mockito.when(carDatabase.getVersion(id))
+				.thenReturn(4L);
+		
+		carService.updateCar(car);
+	}
+	
+	@Test
+	public void testSoftRemoveCar() {
+		long id = 1;
+		Car stored = new Car(id, "seat", new Date(), "spain", new Date(), new Date());
+		stored.setSoftRemoved(true);
+		
+		Mockito.when(carDatabase.softRemoveCar(Mockito.eq(id), Mockito.isNull(), Mockito.any(Date.class)))
+				.thenReturn(stored);
 		
-		assertEquals(car, carService.removeCar(car));
+		assertEquals(stored, carService.softRemoveCar(id));
+		
+		Mockito.verify(carDatabase, Mockito.never()).getVersion(id);
+		Mockito.verify(nearCache).invalidate(id);
+	}
+	
+	@Test(expected = DataNotFoundException.class)
+	public void testSoftRemoveCarNotFound() {
+		long id = 1;
+		
+		Mockito.when(carDatabase.softRemoveCar(Mockito.eq(id), Mockito.isNull(), Mockito.any(Date.class)))
+				.thenReturn(null);
+		
+		carService.softRemoveCar(id);
+	}
+	
+	@Test
+	public void testSoftRemoveCarWithVersion() {
+		long id = 1;
+		Car stored = new Car(id, "seat", new Date(), "spain", new Date(), new Date());
+		stored.setSoftRemoved(true);
+		
+		Mockito.when(carDatabase.softRemoveCar(Mockito.eq(id), Mockito.eq(3L), Mockito.any(Date.class)))
+				.thenReturn(stored);
+		
+		assertEquals(stored, carService.softRemoveCar(id, 3L));
+		Mockito.verify(nearCache).invalidate(id);
+	}
+	
+	@Test
+	public void testSoftRemoveCarWithoutVersion() {
+		long id = 1;
+		Car stored = new Car();
+		
+		Mockito.when(carDatabase.softRemoveCar(Mockito.eq(id), Mockito.isNull(), Mockito.any(Date.class)))
+				.thenReturn(stored);
+		
+		// The car is soft-removed unconditionally
+		assertEquals(stored, carService.softRemoveCar(id, null));
+	}
+	
+	@Test(expected = VersionConflictException.class)
+	public void testSoftRemoveCarVersionConflict() {
+		long id = 1;
+		
+		Mockito.when(carDatabase.softRemoveCar(Mockito.eq(id), Mockito.eq(3L), Mockito.any(Date.class)))
+				.thenReturn(null);
+		Mockito.when(carDatabase.getVersion(id))
+				.thenReturn(4L);
+		
+		carService.softRemoveCar(id, 3L);
+	}
+	
+	@Test
+	public void testRemoveSoftRemovedCars() {
+		List<Long> ids = Arrays.asList(1L, 2L, 3L);
+		Date removedBefore = new Date();
+		
+		Mockito.when(carDatabase.getSoftRemovedCarIds(removedBefore, 100))
+				.thenReturn(ids);
+		// One of the cars has been restored meanwhile
+		Mockito.when(carDatabase.deleteSoftRemovedCars(ids, removedBefore))
+				.thenReturn(2);
+		
+		assertEquals(3, carService.removeSoftRemovedCars(removedBefore, 100));
+		Mockito.verify(idFilter).recordRemovals(2);
+	}
+	
+	@Test
+	public void testRemoveSoftRemovedCarsNone() {
+		Date removedBefore = new Date();
+		
+		Mockito.when(carDatabase.getSoftRemovedCarIds(removedBefore, 100))
+				.thenReturn(new ArrayList<Long>());
+		
+		assertEquals(0, carService.removeSoftRemovedCars(removedBefore, 100));
+		Mockito.verify(carDatabase, Mockito.never()).deleteSoftRemovedCars(Mockito.any(), Mockito.any());
+	}
+	
+	@Test
+	public void testGetCacheStatistics() {
+		CacheStatistics statistics = new CacheStatistics(Car.CACHE_REGION, 1, 1, 1, 1);
+		
+		Mockito.when(carDatabase.getCacheStatistics(Car.CACHE_REGION))
+				.thenReturn(statistics);
+		
+		assertEquals(statistics, carService.getCacheStatistics());
+	}
+	
+	@Test(expected = DataNotFoundException.class)
+	public void testGetCacheStatisticsNotEnabled() {
+		carService.getCacheStatistics();
 	}
 }
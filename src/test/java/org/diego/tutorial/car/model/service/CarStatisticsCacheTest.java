@@ -0,0 +1,93 @@
+package org.diego.tutorial.car.model.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.diego.tutorial.car.databases.ICarDatabase;
+import org.diego.tutorial.car.model.CarStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link CarStatisticsCache} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CarStatisticsCacheTest {
+
+	@InjectMocks
+	private CarStatisticsCache statisticsCache = createCache(60000);
+	@InjectMocks
+	private CarStatisticsCache expiredStatisticsCache = createCache(0);
+	@Mock
+	private ICarDatabase carDatabase;
+
+	/**
+	 * Method that creates a cache of the statistics of the last 30 days, with the fields of the environment entries set
+	 */
+	private static CarStatisticsCache createCache(long ttlMillis) {
+		CarStatisticsCache cache = new CarStatisticsCache();
+		Whitebox.setInternalState(cache, "ttlMillis", ttlMillis);
+		Whitebox.setInternalState(cache, "days", 30);
+		return cache;
+	}
+
+	@Before
+	public void setup() {
+		Map<String, Long> countries = new LinkedHashMap<String, Long>();
+		countries.put("spain", 3L);
+		countries.put("france", 2L);
+		Date day = new GregorianCalendar(2019, Calendar.MARCH, 7).getTime();
+
+		Mockito.when(carDatabase.countCarsByCountry())
+				.thenReturn(countries);
+		Mockito.when(carDatabase.countCarsByBrand())
+				.thenReturn(Collections.singletonMap("seat", 5L));
+		Mockito.when(carDatabase.countSoftRemovedCars())
+				.thenReturn(1L);
+		Mockito.when(carDatabase.countCarsCreatedByDay(Mockito.any(Date.class)))
+				.thenReturn(Collections.singletonMap(day, 4L));
+	}
+
+	@Test
+	public void testGetStatistics() {
+		CarStatistics statistics = statisticsCache.getStatistics();
+
+		assertEquals(5, statistics.getTotal());
+		assertEquals(Long.valueOf(3), statistics.getCountries().get("spain"));
+		assertEquals(Long.valueOf(5), statistics.getBrands().get("seat"));
+		assertEquals(1, statistics.getSoftRemoved());
+		assertEquals(Collections.singletonMap("2019-03-07", 4L), statistics.getCreatedByDay());
+		assertTrue(statistics.getExpiresAt().after(statistics.getGeneratedAt()));
+	}
+
+	@Test
+	public void testGetStatisticsCached() {
+		CarStatistics statistics = statisticsCache.getStatistics();
+
+		assertSame(statistics, statisticsCache.getStatistics());
+		Mockito.verify(carDatabase, Mockito.times(1))
+				.countCarsByCountry();
+	}
+
+	@Test
+	public void testGetStatisticsExpired() {
+		CarStatistics statistics = expiredStatisticsCache.getStatistics();
+
+		assertNotSame(statistics, expiredStatisticsCache.getStatistics());
+		Mockito.verify(carDatabase, Mockito.times(2))
+				.countCarsByCountry();
+	}
+}
@@ -0,0 +1,135 @@
+package org.diego.tutorial.car.resources;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import org.diego.tutorial.car.exceptions.DataNotFoundException;
+import org.diego.tutorial.car.exceptions.ServiceUnavailableException;
+import org.diego.tutorial.car.model.ExecutorStatistics;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Set of unit tests for the {@link CarResourceExecutor} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CarResourceExecutorTest {
+
+	@Mock
+	private AsyncResponse asyncResponse;
+	@Mock
+	private AsyncResponse otherAsyncResponse;
+
+	private CarResourceExecutor executor;
+
+	private void startExecutor(boolean async, int poolSize, int queueCapacity) {
+		executor = new CarResourceExecutor();
+		Whitebox.setInternalState(executor, "async", async);
+		Whitebox.setInternalState(executor, "poolSize", poolSize);
+		Whitebox.setInternalState(executor, "queueCapacity", queueCapacity);
+		Whitebox.setInternalState(executor, "timeoutMillis", 1000L);
+		executor.start();
+	}
+
+	@After
+	public void stopExecutor() {
+		executor.stop();
+	}
+
+	@Test
+	public void testSubmitResumesWithResponse() {
+		startExecutor(true, 1, 1);
+		Response response = Response.ok().build();
+
+		executor.submit(asyncResponse, () -> response);
+
+		Mockito.verify(asyncResponse, Mockito.timeout(1000)).resume(response);
+		Mockito.verify(asyncResponse).setTimeout(1000, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testSubmitResumesWithException() {
+		startExecutor(true, 1, 1);
+		DataNotFoundException exception = new DataNotFoundException("Car not found");
+
+		executor.submit(asyncResponse, () -> {
+			throw exception;
+		});
+
+		Mockito.verify(asyncResponse, Mockito.timeout(1000)).resume(exception);
+	}
+
+	@Test
+	public void testSubmitInline() {
+		startExecutor(false, 1, 1);
+		Thread caller = Thread.currentThread();
+
+		executor.submit(asyncResponse, () -> {
+			assertSame(caller, Thread.currentThread());
+			return Response.ok().build();
+		});
+
+		Mockito.verify(asyncResponse).resume(Mockito.any(Response.class));
+		Mockito.verify(asyncResponse, Mockito.never()).setTimeout(Mockito.anyLong(), Mockito.any());
+	}
+
+	@Test
+	public void testSubmitRejectedWhenQueueFull() throws InterruptedException {
+		startExecutor(true, 1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.submit(asyncResponse, () -> {
+			started.countDown();
+			release.await();
+			return Response.ok().build();
+		});
+		started.await();
+		executor.submit(asyncResponse, () -> Response.ok().build());
+
+		executor.submit(otherAsyncResponse, () -> Response.ok().build());
+
+		Mockito.verify(otherAsyncResponse).resume(Mockito.any(ServiceUnavailableException.class));
+		ExecutorStatistics statistics = executor.getStatistics();
+		assertEquals(1, statistics.getRejectedTasks());
+		assertEquals(1, statistics.getQueueDepth());
+		release.countDown();
+	}
+
+	@Test
+	public void testTimeoutResumesWithServiceUnavailable() throws InterruptedException {
+		startExecutor(true, 1, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		executor.submit(otherAsyncResponse, () -> {
+			started.countDown();
+			release.await();
+			return Response.ok().build();
+		});
+		started.await();
+		executor.submit(asyncResponse, () -> Response.ok().build());
+		ArgumentCaptor<TimeoutHandler> timeoutHandler = ArgumentCaptor.forClass(TimeoutHandler.class);
+		Mockito.verify(asyncResponse).setTimeoutHandler(timeoutHandler.capture());
+
+		timeoutHandler.getValue().handleTimeout(asyncResponse);
+		release.countDown();
+
+		Mockito.verify(asyncResponse).resume(Mockito.any(ServiceUnavailableException.class));
+		Mockito.verify(otherAsyncResponse, Mockito.timeout(1000)).resume(Mockito.any(Response.class));
+		// The queued task was discarded, so its response is never resumed with a response
+		Mockito.verify(asyncResponse, Mockito.after(200).never()).resume(Mockito.any(Response.class));
+		assertEquals(1, executor.getStatistics().getTimedOutTasks());
+	}
+}
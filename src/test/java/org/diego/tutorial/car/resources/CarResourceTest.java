@@ -4,16 +4,28 @@ import static org.junit.Assert.*;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.validation.Validation;
 import javax.validation.Validator;
 import javax.validation.ValidatorFactory;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
+import org.diego.tutorial.car.exceptions.BadRequestException;
+import org.diego.tutorial.car.exceptions.PreconditionRequiredException;
 import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.CarBatchResult;
+import org.diego.tutorial.car.model.CarStatistics;
 import org.diego.tutorial.car.model.service.CarService;
 import org.diego.tutorial.car.validations.CarValidator;
 import org.junit.Before;
@@ -25,6 +37,7 @@ import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 
 /**
  * Set of unit tests for the {@link CarResource} class
@@ -42,6 +55,12 @@ public class CarResourceTest {
 	private CarService carService;
 	@Mock
 	private UriInfo uriInfo;
+	@Mock
+	private Request request;
+	@Mock
+	private CarResourceExecutor executor;
+	@Mock
+	private AsyncResponse asyncResponse;
 	
 	private UriBuilder uriBuilder;
 	
@@ -83,10 +102,10 @@ public class CarResourceTest {
 		Car car = Mockito.mock(Car.class);
 		cars.add(car);
 		
-		Mockito.when(carService.getAllCars())
+		Mockito.when(carService.getCars(0, 101))
 				.thenReturn(cars);
 		
-		assertEquals(cars, carResource.getCars(null).getEntity());
+		assertEquals(cars, carResource.getCars(uriInfo, request, null, 0, 100, false, null).getEntity());
 	}
 	
 	@Test
@@ -97,10 +116,101 @@ public class CarResourceTest {
 		car.setCountry(country);
 		cars.add(car);
 		
-		Mockito.when(carService.getAllCarsFromCountry(country))
+		Mockito.when(carService.getCarsFromCountry(country, 0, 101))
+				.thenReturn(cars);
+		
+		assertEquals(cars, carResource.getCars(uriInfo, request, country, 0, 100, false, null).getEntity());
+	}
+	
+	@Test
+	public void testGetCarsWithNextPage() throws Exception {
+		List<Car> cars = new ArrayList<Car>();
+		for (long id = 1; id <= 3; id++) {
+			Car car = new Car();
+			car.setId(id);
+			cars.add(car);
+		}
+		URI next = new URI("http://www.prueba.es/cars?after=2&limit=2");
+		
+		Mockito.when(uriInfo.getRequestUriBuilder()).thenReturn(uriBuilder);
+		Mockito.when(uriBuilder.replaceQueryParam(Mockito.anyString(), Mockito.any())).thenReturn(uriBuilder);
+		Mockito.when(uriBuilder.build()).thenReturn(next);
+		Mockito.when(carService.getCars(0, 3))
+				.thenReturn(cars);
+		
+		Response response = carResource.getCars(uriInfo, request, null, 0, 2, false, null);
+		
+		assertEquals(cars.subList(0, 2), response.getEntity());
+		assertEquals(next, response.getLink("next").getUri());
+	}
+	
+	@Test
+	public void testGetCarsWithSelfLinks() {
+		List<Car> cars = new ArrayList<Car>();
+		for (long id = 1; id <= 2; id++) {
+			Car car = new Car();
+			car.setId(id);
+			cars.add(car);
+		}
+		
+		Mockito.when(carService.getCars(0, 101))
+				.thenReturn(cars);
+		
+		carResource.getCars(uriInfo, request, null, 0, 100, false, null);
+		
+		assertEquals("www.abc.es/1", cars.get(0).getLinks().get(0).getLink());
+		assertEquals("www.abc.es/2", cars.get(1).getLinks().get(0).getLink());
+		// The URI of the cars is built once for the whole list
+		Mockito.verify(uriInfo, Mockito.times(1)).getBaseUriBuilder();
+	}
+	
+	@Test(expected = BadRequestException.class)
+	public void testGetCarsNonValidLimit() {
+		carResource.getCars(uriInfo, request, null, 0, CarResource.MAX_PAGE_SIZE + 1, false, null);
+	}
+	
+	@Test
+	public void testGetCarsFields() {
+		List<Map<String, Object>> cars = new ArrayList<Map<String, Object>>();
+		List<String> fields = Arrays.asList("id", "brand", "country");
+		
+		Mockito.when(request.selectVariant(CarResource.FIELDS_VARIANTS))
+				.thenReturn(CarResource.FIELDS_VARIANTS.get(0));
+		Mockito.when(carService.getCarFields(fields, null, 0, 101))
 				.thenReturn(cars);
 		
-		assertEquals(cars, carResource.getCars(country).getEntity());
+		Response response = carResource.getCars(uriInfo, request, null, 0, 100, false, "brand, country");
+		
+		assertEquals(cars, response.getEntity());
+		assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+	}
+	
+	@Test
+	public void testGetCarsFieldsInXml() {
+		// The request only accepts XML, so no representation of the fields can be selected
+		Mockito.when(request.selectVariant(CarResource.FIELDS_VARIANTS))
+				.thenReturn(null);
+		
+		Response response = carResource.getCars(uriInfo, request, null, 0, 100, false, "brand");
+		
+		assertEquals(Status.NOT_ACCEPTABLE.getStatusCode(), response.getStatus());
+		Mockito.verifyZeroInteractions(carService);
+	}
+	
+	@Test(expected = BadRequestException.class)
+	public void testGetCarsNonValidField() {
+		Mockito.when(request.selectVariant(CarResource.FIELDS_VARIANTS))
+				.thenReturn(CarResource.FIELDS_VARIANTS.get(0));
+		carResource.getCars(uriInfo, request, null, 0, 100, false, "brand,links");
+	}
+	
+	@Test
+	public void testGetCarsStream() {
+		Response response = carResource.getCars(uriInfo, request, null, 0, 100, true, null);
+		
+		assertTrue(response.getEntity() instanceof CarStreamingOutput);
+		assertEquals(CarMediaType.APPLICATION_NDJSON_TYPE, response.getMediaType());
+		Mockito.verifyZeroInteractions(carService);
 	}
 	
 	@Test
@@ -114,11 +224,82 @@ public class CarResourceTest {
 		Mockito.when(carService.addCar(car))
 				.thenReturn(car);
 		
-		Response response = carResource.addCar(car);
+		Response response = carResource.addCar(uriInfo, car);
 		
 		assertEquals(car, response.getEntity());
 	}
 	
+	@Test
+	public void testAddCars() {
+		Car car1 = new Car();
+		Car car2 = new Car();
+		List<Car> cars = Arrays.asList(car1, null, car2);
+		
+		Mockito.when(carService.addCars(Arrays.asList(car1, car2)))
+				.thenAnswer(invocation -> {
+					car1.setId(1);
+					car2.setId(2);
+					return Arrays.asList(car1, car2);
+				});
+		
+		Response response = carResource.addCars(cars);
+		
+		@SuppressWarnings("unchecked")
+		List<CarBatchResult> results = (List<CarBatchResult>) response.getEntity();
+		assertEquals(3, results.size());
+		assertEquals(Status.CREATED.getStatusCode(), results.get(0).getStatus());
+		assertEquals(1, results.get(0).getId());
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), results.get(1).getStatus());
+		assertFalse(results.get(1).getErrors().isEmpty());
+		assertEquals(Status.CREATED.getStatusCode(), results.get(2).getStatus());
+		assertEquals(2, results.get(2).getId());
+	}
+	
+	@Test(expected = BadRequestException.class)
+	public void testAddCarsEmpty() {
+		carResource.addCars(new ArrayList<Car>());
+	}
+	
+	@Test
+	public void testSearchCars() throws Exception {
+		List<Car> cars = new ArrayList<Car>(Arrays.asList(new Car(), new Car()));
+		cars.get(0).setId(1);
+		cars.get(1).setId(2);
+		
+		URI next = new URI("http://www.prueba.es/cars/search?brand=se&after=1&limit=1");
+		
+		Mockito.when(uriInfo.getRequestUriBuilder()).thenReturn(uriBuilder);
+		Mockito.when(uriBuilder.replaceQueryParam(Mockito.anyString(), Mockito.any())).thenReturn(uriBuilder);
+		Mockito.when(uriBuilder.build()).thenReturn(next);
+		Mockito.when(carService.searchCarsByBrand("se", true, 0, 2))
+				.thenReturn(cars);
+		
+		Response response = carResource.searchCars(uriInfo, "se", true, 0, 1);
+		
+		assertEquals(cars.subList(0, 1), response.getEntity());
+		assertEquals(next, response.getLink("next").getUri());
+	}
+	
+	@Test(expected = BadRequestException.class)
+	public void testSearchCarsWithoutBrand() throws Exception {
+		carResource.searchCars(uriInfo, " ", false, 0, 10);
+	}
+	
+	@Test
+	public void testGetCarStatistics() throws Exception {
+		CarStatistics statistics = new CarStatistics();
+		statistics.setExpiresAt(new Date(System.currentTimeMillis() + 10000));
+		
+		Mockito.when(carService.getCarStatistics())
+				.thenReturn(statistics);
+		
+		Response response = carResource.getCarStatistics();
+		
+		assertEquals(statistics, response.getEntity());
+		String cacheControl = response.getHeaderString("Cache-Control");
+		assertTrue(cacheControl, cacheControl.contains("max-age=9") || cacheControl.contains("max-age=10"));
+	}
+	
 	@Test
 	public void testGetCar() throws Exception {
 		Car car = Mockito.mock(Car.class);
@@ -128,9 +309,45 @@ public class CarResourceTest {
 		Mockito.when(carService.getCar(carId))
 				.thenReturn(car);
 		
-		Response response = carResource.getCar(carId);
+		Response response = carResource.getCar(uriInfo, request, null, carId);
 		
 		assertEquals(car, response.getEntity());
+		// Without an entity tag of the client there is nothing to check before loading the car
+		Mockito.verify(carService, Mockito.never())
+				.getCarLastUpdated(carId);
+	}
+	
+	@Test
+	public void testGetCarWithEntityTag() throws Exception {
+		long carId = 8L;
+		Date lastUpdated = new Date();
+		Car car = new Car(carId, "brand", lastUpdated, "spain", lastUpdated, lastUpdated);
+		
+		Mockito.when(carService.getCar(carId))
+				.thenReturn(car);
+		
+		Response response = carResource.getCar(uriInfo, request, null, carId);
+		
+		assertEquals(car, response.getEntity());
+		assertEquals(new EntityTag(carId + "-" + lastUpdated.getTime(), true), response.getEntityTag());
+	}
+	
+	@Test
+	public void testGetCarNotModified() throws Exception {
+		long carId = 8L;
+		Date lastUpdated = new Date();
+		EntityTag entityTag = new EntityTag(carId + "-" + lastUpdated.getTime(), true);
+		
+		Mockito.when(carService.getCarLastUpdated(carId))
+				.thenReturn(lastUpdated);
+		Mockito.when(request.evaluatePreconditions(entityTag))
+				.thenReturn(Response.notModified(entityTag));
+		
+		Response response = carResource.getCar(uriInfo, request, entityTag.toString(), carId);
+		
+		assertEquals(Status.NOT_MODIFIED.getStatusCode(), response.getStatus());
+		Mockito.verify(carService, Mockito.never())
+				.getCar(carId);
 	}
 	
 	@Test
@@ -142,11 +359,32 @@ public class CarResourceTest {
 		Mockito.when(carService.updateCar(car))
 				.thenReturn(car);
 		
-		Response response = carResource.updateCar(carId, car);
+		Response response = carResource.updateCar(uriInfo, carId, car);
 		
 		assertEquals(car, response.getEntity());
 	}
 	
+	@Test(expected = PreconditionRequiredException.class)
+	public void testUpdateCarWithoutRequiredVersion() {
+		Whitebox.setInternalState(carResource, "requireVersion", true);
+		Car car = new Car();
+		
+		try {
+			carResource.updateCar(uriInfo, 8L, car);
+		} finally {
+			Mockito.verifyZeroInteractions(carService);
+		}
+	}
+	
+	@Test
+	public void testStreamCarsWithoutThePool() {
+		carResource.getCars(asyncResponse, uriInfo, request, null, 0, 100, true, null);
+		
+		// The stream is not written by a thread of the pool, that it would hold for the whole transfer
+		Mockito.verify(asyncResponse).resume(Mockito.argThat((Response response) -> response.getEntity() instanceof CarStreamingOutput));
+		Mockito.verifyZeroInteractions(executor);
+	}
+	
 	@Test
 	public void testDeleteCar() {
 		Car car = Mockito.mock(Car.class);
@@ -156,7 +394,7 @@ public class CarResourceTest {
 		Mockito.when(carService.softRemoveCar(carId))
 				.thenReturn(car);
 		
-		Response response = carResource.deleteCar(carId);
+		Response response = carResource.deleteCar(uriInfo, carId);
 		
 		assertEquals(car, response.getEntity());
 	}
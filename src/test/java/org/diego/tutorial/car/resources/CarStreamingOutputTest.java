@@ -0,0 +1,66 @@
+package org.diego.tutorial.car.resources;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+import org.diego.tutorial.car.model.Car;
+import org.diego.tutorial.car.model.service.CarService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * Set of unit tests for the {@link CarStreamingOutput} class
+ *
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CarStreamingOutputTest {
+
+	@Mock
+	private CarService carService;
+
+	@SuppressWarnings("unchecked")
+	private void mockStreamedCars(String country, Car... cars) {
+		Mockito.when(carService.streamCars(Mockito.eq(country), Mockito.any()))
+				.thenAnswer(invocation -> {
+					Consumer<Car> consumer = invocation.getArgument(1);
+					for (Car car : cars) {
+						consumer.accept(car);
+					}
+					return (long) cars.length;
+				});
+	}
+
+	@Test
+	public void testWriteOneCarPerLine() throws IOException {
+		Car car1 = new Car(1, "brand1", null, "spain", null, null);
+		Car car2 = new Car(2, "brand2", null, "spain", null, null);
+		mockStreamedCars("spain", car1, car2);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		new CarStreamingOutput(carService, "spain", new CarLinks("http://localhost/cars")).write(output);
+
+		String[] lines = output.toString("UTF-8").split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("{") && lines[0].contains("\"id\":1"));
+		assertTrue(lines[1].startsWith("{") && lines[1].contains("\"brand\":\"brand2\""));
+		assertTrue(lines[1].contains("\"link\":\"http://localhost/cars/2\""));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteClientDisconnected() throws IOException {
+		mockStreamedCars(null, new Car(1, "brand1", null, "spain", null, null));
+		OutputStream output = Mockito.mock(OutputStream.class);
+		Mockito.doThrow(IOException.class)
+				.when(output)
+				.write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+		new CarStreamingOutput(carService, null, new CarLinks("http://localhost/cars")).write(output);
+	}
+}
@@ -1,13 +1,14 @@
 package org.diego.tutorial.car.timers;
 
-import java.util.ArrayList;
+import static org.junit.Assert.assertTrue;
+
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import org.diego.tutorial.car.model.Car;
 import org.diego.tutorial.car.model.service.CarService;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -27,26 +28,36 @@ public class SoftRemovedCarsTimerTest {
 	
 	@Test
 	public void testCheck() {
-		List<Car> softRemovedCars = new ArrayList<Car>();
+		Mockito.when(carService.removeSoftRemovedCars(Mockito.any(Date.class), Mockito.eq(5000)))
+				.thenReturn(5000, 5000, 10);
+		
+		carsTimer.check();
 		
-		for (int i = 0; i < 10; i++) {
-			long id = (long) i;
-			String brand = "brand" + i;
-			Date registration, createdAt, lastUpdated;
-			registration = createdAt = lastUpdated = new Date();
-			String country = "country" + i;
-			Car car = new Car(id, brand, registration, country, createdAt, lastUpdated);
-			softRemovedCars.add(car);
-			
-			Mockito.when(carService.removeCar(car))
-					.thenReturn(car);
-		}
+		Mockito.verify(carService, Mockito.times(3)).removeSoftRemovedCars(Mockito.any(Date.class), Mockito.eq(5000));
+	}
+	
+	@Test
+	public void testCheckRetention() {
+		ArgumentCaptor<Date> removedBefore = ArgumentCaptor.forClass(Date.class);
+		Mockito.when(carService.removeSoftRemovedCars(removedBefore.capture(), Mockito.eq(5000)))
+				.thenReturn(0);
 		
-		Mockito.when(carService.getAllSoftRemovedCars())
-				.thenReturn(softRemovedCars);
+		carsTimer.check();
+		
+		// The cars soft removed in the last day are kept
+		long retentionMillis = System.currentTimeMillis() - removedBefore.getValue().getTime();
+		assertTrue(retentionMillis >= TimeUnit.DAYS.toMillis(1));
+		assertTrue(retentionMillis < TimeUnit.DAYS.toMillis(1) + TimeUnit.MINUTES.toMillis(1));
+	}
+	
+	@Test
+	public void testCheckNoSoftRemovedCars() {
+		Mockito.when(carService.removeSoftRemovedCars(Mockito.any(Date.class), Mockito.eq(5000)))
+				.thenReturn(0);
 		
 		carsTimer.check();
 		
+		Mockito.verify(carService, Mockito.times(1)).removeSoftRemovedCars(Mockito.any(Date.class), Mockito.eq(5000));
 	}
 
 }